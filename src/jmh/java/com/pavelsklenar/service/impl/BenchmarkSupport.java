@@ -0,0 +1,134 @@
+package com.pavelsklenar.service.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebResponseData;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+import com.pavelsklenar.TestApplication;
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Common setup of the benchmarks: application context of the tests (H2,
+ * HtmlUnit driver) and search pages matching the captured pages in
+ * src/test/resources/pages
+ *
+ * @author pavel.sklenar
+ *
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @param properties further properties in key=value form, they override
+     *            the common ones
+     * @return started application context, it has to be closed by the caller
+     */
+    static ConfigurableApplicationContext startContext(String... properties) {
+        return new SpringApplicationBuilder(TestApplication.class).properties("job.webChecker.run=false",
+                "logging.level.com.pavelsklenar=WARN", "logging.level.com.gargoylesoftware=OFF", "logging.level.org.hibernate.SQL=WARN",
+                "seenUrlIndex.expectedUrls=1000000").properties(properties).run();
+    }
+
+    /**
+     * Pool of browsers which never touch the network: the captured pages refer
+     * to remote scripts and styles, they are answered by 404 and the errors of
+     * scripts depending on them are ignored (as a real browser does), so the
+     * results do not depend on network latency
+     *
+     * @return started pool, it has to be destroyed by the caller
+     */
+    static PooledWebDriverFactory createOfflineWebDriverFactory() {
+        PooledWebDriverFactory factory = new PooledWebDriverFactory(1, 1) {
+            @Override
+            protected WebDriver createWebDriver() {
+                return new HtmlUnitDriver(true) {
+                    @Override
+                    protected WebClient modifyWebClient(WebClient client) {
+                        client.getOptions().setThrowExceptionOnScriptError(false);
+                        new WebConnectionWrapper(client) {
+                            @Override
+                            public WebResponse getResponse(WebRequest request) throws IOException {
+                                WebResponseData notFound = new WebResponseData(new byte[0], 404, "Not Found",
+                                        Collections.<NameValuePair> emptyList());
+                                return new WebResponse(notFound, request, 0);
+                            }
+                        };
+                        return client;
+                    }
+                };
+            }
+        };
+        factory.afterPropertiesSet();
+        return factory;
+    }
+
+    /**
+     * Create search page for one of the captured pages, it is read from the
+     * classpath by file: URL
+     *
+     * @param name name of the captured page (file name without extension)
+     * @return search page
+     */
+    static SearchPage createCapturedSearchPage(String name) {
+        SearchPage searchPage = new SearchPage(name,
+                BenchmarkSupport.class.getResource("/pages/" + name + ".html").toString());
+        if ("sreality".equals(name)) {
+            searchPage.setXpathToListOfResults("css:.property");
+            searchPage.setXpathToImage("css:.img");
+            searchPage.setXpathToDescription("css:.locality");
+            searchPage.setXpathToUrl("css:.title");
+            searchPage.setXpathToTitle("css:.title");
+            searchPage.setXpathToPrice("css:.price");
+            searchPage.setOmitClassesInSearchResult("paging");
+        } else if ("jihoceskereality".equals(name)) {
+            searchPage.setXpathToListOfResults(
+                    ".//*[contains(concat(' ',normalize-space(@class),' '),' div_nemovitost ')]");
+            searchPage.setXpathToImage("div[1]/div/a/img[1]");
+            searchPage.setXpathToDescription("div[2]/div/small");
+            searchPage.setXpathToUrl(".//*[contains(concat(' ',normalize-space(@class),' '),' nemo ')]");
+            searchPage.setXpathToTitle(".//*[contains(concat(' ',normalize-space(@class),' '),' nemo ')]");
+            searchPage.setXpathToPrice(".//*[contains(concat(' ',normalize-space(@class),' '),' cena ')]");
+            searchPage.setOmitClassesInSearchResult("topovana, list_navigation, top_vypis2");
+        } else if ("Remax".equals(name)) {
+            searchPage.setXpathToListOfResults("/html/body/div[1]/div/div/div[1]/div[1]/div/ul/li");
+            searchPage.setXpathToImage(".//*[contains(concat(' ',normalize-space(@class),' '),' img-rounded ')]");
+            searchPage.setXpathToDescription(
+                    ".//*[contains(concat(' ',normalize-space(@class),' '),' estate-address ')]");
+            searchPage.setXpathToUrl("div[1]/h3/a");
+            searchPage.setXpathToTitle("div[1]/h3/a");
+            searchPage.setXpathToPrice(".//*[contains(concat(' ',normalize-space(@class),' '),' price ')]");
+            searchPage.setOmitClassesInSearchResult("btn-item");
+        } else if ("Century21".equals(name)) {
+            searchPage.setXpathToListOfResults(".//*[contains(concat(' ',normalize-space(@class),' '),' item ')]");
+            searchPage.setXpathToImage("div[1]/a/img");
+            searchPage.setXpathToDescription("div[2]/p[1]");
+            searchPage.setXpathToUrl("div[2]/h4/a");
+            searchPage.setXpathToTitle(".//*[contains(concat(' ',normalize-space(@class),' '),' title ')]");
+            searchPage.setXpathToPrice(".//*[contains(concat(' ',normalize-space(@class),' '),' amount ')]");
+        } else if ("RkStejskal".equals(name)) {
+            searchPage.setXpathToListOfResults(
+                    ".//*[contains(concat(' ',normalize-space(@class),' '),' list-group-item ')]");
+            searchPage.setXpathToImage("div/div[1]/div/a/img");
+            searchPage.setXpathToDescription(".//*[contains(concat(' ',normalize-space(@class),' '),' city ')]");
+            searchPage.setXpathToUrl("div/div[2]/table/tbody/tr[2]/td[1]/a");
+            searchPage.setXpathToTitle(".//*[contains(concat(' ',normalize-space(@class),' '),' title ')]");
+            searchPage.setXpathToPrice(".//*[contains(concat(' ',normalize-space(@class),' '),' price ')]");
+        } else {
+            throw new IllegalArgumentException("Unknown captured page " + name);
+        }
+        return searchPage;
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.pavelsklenar.service.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.UrlFingerprint;
+import com.pavelsklenar.repository.SearchPageRepository;
+import com.pavelsklenar.service.SearchResultProcessor;
+
+/**
+ * Duplicate detection of one scraped page (20 results, 2 of them new) against
+ * H2 seeded with the given number of saved results, answered by the seen URL
+ * index or by DB
+ *
+ * @author pavel.sklenar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompareBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    private static final int NEW_PER_PAGE = 2;
+
+    private static final int INSERT_BATCH_SIZE = 10000;
+
+    @Param({ "10000", "1000000" })
+    private int savedResults;
+
+    @Param({ "index", "db" })
+    private String lookup;
+
+    private ConfigurableApplicationContext context;
+
+    private SearchResultProcessor searchResultProcessor;
+
+    private List<List<SearchResult>> pages = new ArrayList<List<SearchResult>>();
+
+    private int nextPage;
+
+    @Setup
+    public void setup() {
+        // the index is disabled for DB lookups, so it is never loaded by the application
+        context = BenchmarkSupport.startContext("seenUrlIndex.enabled=" + "index".equals(lookup));
+        searchResultProcessor = context.getBean(SearchResultProcessor.class);
+        SearchPage searchPage = new SearchPage("compare", "http://localhost/compare.html");
+        searchPage.setXpathToListOfResults("//div");
+        searchPage = context.getBean(SearchPageRepository.class).save(searchPage);
+        seed(context.getBean(JdbcTemplate.class), searchPage.getId());
+        // ids were given by the seeding, nothing is saved by the benchmark itself
+        context.getBean(SearchResultIdSeed.class).run();
+
+        if ("index".equals(lookup)) {
+            // the index may have been loaded before seeding, load it again
+            SeenUrlIndex seenUrlIndex = context.getBean(SeenUrlIndex.class);
+            seenUrlIndex.unload();
+            seenUrlIndex.load();
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            List<SearchResult> page = new ArrayList<SearchResult>(PAGE_SIZE);
+            for (int j = 0; j < PAGE_SIZE; j++) {
+                SearchResult searchResult = new SearchResult(searchPage);
+                searchResult.setUrl(j < NEW_PER_PAGE ? urlOf(savedResults + random.nextInt(savedResults))
+                        : urlOf(random.nextInt(savedResults)));
+                page.add(searchResult);
+            }
+            pages.add(page);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<SearchResult> processCompare() {
+        List<SearchResult> page = pages.get(nextPage);
+        nextPage = (nextPage + 1) % pages.size();
+        return searchResultProcessor.processCompare(page);
+    }
+
+    private void seed(JdbcTemplate jdbcTemplate, final Long searchPageId) {
+        final Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (int from = 0; from < savedResults; from += INSERT_BATCH_SIZE) {
+            final int offset = from;
+            final int size = Math.min(INSERT_BATCH_SIZE, savedResults - from);
+            jdbcTemplate.batchUpdate("insert into search_result (id, search_page_id, url, url_hash, title, created_date) "
+                    + "values (?, ?, ?, ?, ?, ?)", new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            String url = urlOf(offset + i);
+                            ps.setLong(1, offset + i + 1);
+                            ps.setLong(2, searchPageId);
+                            ps.setString(3, url);
+                            ps.setLong(4, UrlFingerprint.of(url));
+                            ps.setString(5, "Result " + (offset + i));
+                            ps.setTimestamp(6, now);
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return size;
+                        }
+                    });
+        }
+    }
+
+    private static String urlOf(int number) {
+        return "http://www.example.org/detail/prodej/byt/" + number + "?utm_source=web-checker";
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+
+/**
+ * Rendering of the e-mail with new search results by Thymeleaf, the same way
+ * as {@link EmailServiceImpl} does
+ *
+ * @author pavel.sklenar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailRenderingBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    private int results;
+
+    private ConfigurableApplicationContext context;
+
+    private TemplateEngine templateEngine;
+
+    private List<SearchResult> searchResults;
+
+    private SearchPage searchPage;
+
+    @Setup
+    public void setup() {
+        context = BenchmarkSupport.startContext();
+        templateEngine = context.getBean(TemplateEngine.class);
+        searchPage = new SearchPage("render", "http://www.example.org/search?type=byt");
+        searchResults = new ArrayList<SearchResult>(results);
+        for (int i = 0; i < results; i++) {
+            SearchResult searchResult = new SearchResult(searchPage);
+            searchResult.setUrl("http://www.example.org/detail/" + i);
+            searchResult.setImageUrl("http://www.example.org/image/" + i + ".jpg");
+            searchResult.setTitle("Prodej bytu 3+kk " + i);
+            searchResult.setPrice((1000000 + i) + " Kč");
+            searchResult.setDescription("Praha " + i + ", ulice Vinohradská, 75 m², balkon, sklep");
+            searchResults.add(searchResult);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String render() {
+        Context ctx = new Context(Locale.getDefault());
+        ctx.setVariable("name", searchPage.getName());
+        ctx.setVariable("searchUrl", searchPage.getUrl());
+        ctx.setVariable("subscriptionDate", new Date());
+        ctx.setVariable("results", searchResults);
+        return templateEngine.process("email", ctx);
+    }
+
+}
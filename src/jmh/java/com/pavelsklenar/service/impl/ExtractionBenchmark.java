@@ -0,0 +1,81 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+
+/**
+ * Throughput of extraction of the captured pages by every engine: plain HTTP
+ * (no browser), browser with a single extraction script and browser queried
+ * element by element. Browser runs offline, see
+ * {@link BenchmarkSupport#createOfflineWebDriverFactory()}.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    @Param({ "sreality", "jihoceskereality", "Remax", "Century21", "RkStejskal" })
+    private String page;
+
+    @Param({ "http", "script", "element" })
+    private String engine;
+
+    private ConfigurableApplicationContext context;
+
+    private SearchPageProcessorImpl searchPageProcessor;
+
+    private SearchPage searchPage;
+
+    private PooledWebDriverFactory webDriverFactory;
+
+    @Setup
+    public void setup() throws Exception {
+        context = BenchmarkSupport.startContext();
+        searchPageProcessor = context.getBean(SearchPageProcessorImpl.class);
+        webDriverFactory = BenchmarkSupport.createOfflineWebDriverFactory();
+        ReflectionTestUtils.setField(searchPageProcessor, "webDriverFactory", webDriverFactory);
+        ReflectionTestUtils.setField(searchPageProcessor, "extractionMode",
+                "element".equals(engine) ? "element" : "script");
+        searchPage = BenchmarkSupport.createCapturedSearchPage(page);
+        searchPage.setJavascriptEnabled(!"http".equals(engine));
+        if (searchPageProcessor.processSearch(searchPage).isEmpty()) {
+            throw new IllegalStateException("No results extracted from " + searchPage.getUrl());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        webDriverFactory.destroy();
+        context.close();
+    }
+
+    @Benchmark
+    public List<SearchResult> extract() throws Exception {
+        return searchPageProcessor.processSearch(searchPage);
+    }
+
+}
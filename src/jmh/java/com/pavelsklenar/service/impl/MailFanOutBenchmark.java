@@ -0,0 +1,113 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import com.pavelsklenar.domain.EmailAddress;
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+
+/**
+ * Sending one notification to many recipients by {@link EmailServiceImpl}
+ * against {@link SmtpStandIn}, whose greeting delay stands for the TLS
+ * handshake and authentication of a real server:
+ * <ul>
+ * <li>connectionPerMessage - new connection for every e-mail</li>
+ * <li>connectionPerBatch - new connection for every batch of e-mails</li>
+ * <li>pooled - batches over connections kept by {@link PooledJavaMailSender}</li>
+ * </ul>
+ *
+ * @author pavel.sklenar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class MailFanOutBenchmark {
+
+    @Param({ "1000" })
+    private int recipients;
+
+    @Param({ "10" })
+    private long connectDelayMillis;
+
+    @Param({ "connectionPerMessage", "connectionPerBatch", "pooled" })
+    private String transport;
+
+    private ConfigurableApplicationContext context;
+
+    private SmtpStandIn smtpServer;
+
+    private JavaMailSenderImpl mailSender;
+
+    private EmailServiceImpl emailService;
+
+    private SearchPage searchPage;
+
+    private List<SearchResult> searchResults;
+
+    @Setup
+    public void setup() throws Exception {
+        context = BenchmarkSupport.startContext();
+        smtpServer = new SmtpStandIn(connectDelayMillis);
+        mailSender = "pooled".equals(transport) ? new PooledJavaMailSender(2) : new JavaMailSenderImpl();
+        mailSender.setHost("127.0.0.1");
+        mailSender.setPort(smtpServer.getPort());
+        emailService = context.getBean(EmailServiceImpl.class);
+        emailService.setMailSender(mailSender);
+        emailService.setBatchSize("connectionPerMessage".equals(transport) ? 1 : 50);
+
+        searchPage = new SearchPage("fan-out", "http://www.example.org/search?type=byt");
+        List<EmailAddress> emailAddresses = new ArrayList<EmailAddress>(recipients);
+        for (int i = 0; i < recipients; i++) {
+            EmailAddress emailAddress = new EmailAddress();
+            emailAddress.setEmailAddress("recipient" + i + "@example.org");
+            emailAddresses.add(emailAddress);
+        }
+        searchPage.setEmailAddresses(emailAddresses);
+        searchResults = new ArrayList<SearchResult>();
+        for (int i = 0; i < 10; i++) {
+            SearchResult searchResult = new SearchResult(searchPage);
+            searchResult.setUrl("http://www.example.org/detail/" + i);
+            searchResult.setTitle("Prodej bytu 3+kk " + i);
+            searchResult.setPrice((1000000 + i) + " Kč");
+            searchResults.add(searchResult);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (mailSender instanceof PooledJavaMailSender) {
+            ((PooledJavaMailSender) mailSender).destroy();
+        }
+        smtpServer.close();
+        context.close();
+    }
+
+    @Benchmark
+    public void sendToAllRecipients() throws MessagingException {
+        emailService.sendSearchResults(searchPage, searchResults);
+    }
+
+}
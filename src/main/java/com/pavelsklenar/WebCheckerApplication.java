@@ -1,6 +1,7 @@
 package com.pavelsklenar;
 
 import java.util.ArrayList;
+import java.util.Properties;
 
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.phantomjs.PhantomJSDriver;
@@ -9,10 +10,13 @@ import org.openqa.selenium.remote.DesiredCapabilities;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
-import com.pavelsklenar.service.WebDriverFactory;
+import com.pavelsklenar.service.impl.PooledJavaMailSender;
+import com.pavelsklenar.service.impl.PooledWebDriverFactory;
 
 /**
  * The main class to run the WebChecker application
@@ -22,6 +26,7 @@ import com.pavelsklenar.service.WebDriverFactory;
  */
 @SpringBootApplication
 @EnableScheduling
+@EnableConfigurationProperties(MailProperties.class)
 public class WebCheckerApplication {
 
     @Value("${httpProxy.url:}")
@@ -30,15 +35,39 @@ public class WebCheckerApplication {
     @Value("${httpProxy.port:3128}")
     private Integer httpProxyPort;
 
+    @Value("${webDriver.pool.minSize:1}")
+    private int webDriverPoolMinSize;
+
+    @Value("${webDriver.pool.maxSize:4}")
+    private int webDriverPoolMaxSize;
+
+    @Value("${webDriver.pool.maxPagesPerDriver:50}")
+    private int webDriverMaxPages;
+
+    @Value("${webDriver.pool.maxAgeMinutes:30}")
+    private long webDriverMaxAgeMinutes;
+
+    @Value("${webDriver.pool.borrowTimeoutSeconds:120}")
+    private long webDriverBorrowTimeoutSeconds;
+
+    @Value("${email.smtp.pool.maxSize:2}")
+    private int smtpPoolMaxSize;
+
+    @Value("${email.smtp.pool.maxMessagesPerConnection:100}")
+    private int smtpMaxMessagesPerConnection;
+
+    @Value("${email.smtp.pool.maxIdleSeconds:30}")
+    private long smtpMaxIdleSeconds;
+
     public static void main(String[] args) {
         SpringApplication.run(WebCheckerApplication.class);
     }
 
     @Bean
-    public WebDriverFactory createWebDriverFactory() {
-        return new WebDriverFactory() {
+    public PooledWebDriverFactory createWebDriverFactory() {
+        PooledWebDriverFactory factory = new PooledWebDriverFactory(webDriverPoolMinSize, webDriverPoolMaxSize) {
             @Override
-            public WebDriver getWebDriver() {
+            protected WebDriver createWebDriver() {
                 ArrayList<String> cliArgsCap = new ArrayList<String>();
                 if (httpProxyUrl != null && !httpProxyUrl.isEmpty()) {
                     cliArgsCap.add("--proxy=" + httpProxyUrl + ":" + httpProxyPort);
@@ -50,6 +79,35 @@ public class WebCheckerApplication {
                 return new PhantomJSDriver(capabilities);
             }
         };
+        factory.setMaxPagesPerDriver(webDriverMaxPages);
+        factory.setMaxAgeMinutes(webDriverMaxAgeMinutes);
+        factory.setBorrowTimeoutSeconds(webDriverBorrowTimeoutSeconds);
+        return factory;
+    }
+
+    /**
+     * Mail sender configured by spring.mail.* properties, reusing SMTP
+     * connections
+     */
+    @Bean
+    public PooledJavaMailSender mailSender(MailProperties mailProperties) {
+        PooledJavaMailSender sender = new PooledJavaMailSender(smtpPoolMaxSize);
+        sender.setHost(mailProperties.getHost());
+        if (mailProperties.getPort() != null) {
+            sender.setPort(mailProperties.getPort());
+        }
+        sender.setUsername(mailProperties.getUsername());
+        sender.setPassword(mailProperties.getPassword());
+        sender.setProtocol(mailProperties.getProtocol());
+        if (mailProperties.getDefaultEncoding() != null) {
+            sender.setDefaultEncoding(mailProperties.getDefaultEncoding().name());
+        }
+        Properties javaMailProperties = new Properties();
+        javaMailProperties.putAll(mailProperties.getProperties());
+        sender.setJavaMailProperties(javaMailProperties);
+        sender.setMaxMessagesPerConnection(smtpMaxMessagesPerConnection);
+        sender.setMaxIdleSeconds(smtpMaxIdleSeconds);
+        return sender;
     }
 
 
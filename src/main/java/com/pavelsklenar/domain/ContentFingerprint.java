@@ -0,0 +1,78 @@
+package com.pavelsklenar.domain;
+
+import java.math.BigDecimal;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fixed-width 64-bit fingerprint of the tracked fields of a
+ * {@link SearchResult}, i.e. its title, price and
+ * description, and parsing of its price to a number.<br />
+ * Whitespace is normalized before hashing, so a reformatted listing is not
+ * taken as changed.
+ *
+ * @author pavel.sklenar
+ *
+ */
+public final class ContentFingerprint {
+
+    private static final Pattern WHITESPACE = Pattern.compile("[\\s\\u00a0]+");
+
+    /** The first number of the price, possibly with grouping and decimal separators */
+    private static final Pattern NUMBER = Pattern.compile("\\d[\\d\\s\\u00a0.,']*");
+
+    private ContentFingerprint() {
+    }
+
+    /**
+     * @return 64-bit hash of the normalized fields, null fields are allowed
+     */
+    public static long of(String title, String price, String description) {
+        StringBuilder content = new StringBuilder();
+        for (String field : new String[] { title, price, description }) {
+            // the separator keeps values moved from one field to another apart
+            content.append(field == null ? "" : WHITESPACE.matcher(field).replaceAll(" ").trim()).append('\u0000');
+        }
+        return UrlFingerprint.hash(content.toString());
+    }
+
+    /**
+     * Parse a price like "2 500 000 Kč", "1,250.50 EUR" or "12.500,- Kč/měsíc"
+     *
+     * @param price price as it is shown, may be null
+     * @return the first number of the price, null when there is none (e.g.
+     *         "Info o ceně u RK")
+     */
+    public static BigDecimal parsePrice(String price) {
+        if (price == null) {
+            return null;
+        }
+        Matcher matcher = NUMBER.matcher(price);
+        if (!matcher.find()) {
+            return null;
+        }
+        String number = matcher.group().replaceAll("[\\s\\u00a0']", "");
+        // trailing separators like in "12.500,-" are not a part of the number
+        while (number.endsWith(".") || number.endsWith(",")) {
+            number = number.substring(0, number.length() - 1);
+        }
+        int lastSeparator = Math.max(number.lastIndexOf('.'), number.lastIndexOf(','));
+        String integerPart = number;
+        String fraction = "";
+        if (lastSeparator >= 0) {
+            char separator = number.charAt(lastSeparator);
+            int digitsAfter = number.length() - lastSeparator - 1;
+            // a single separator followed by one or two digits is decimal, others group thousands
+            if (digitsAfter <= 2 && number.indexOf(separator) == lastSeparator) {
+                integerPart = number.substring(0, lastSeparator);
+                fraction = number.substring(lastSeparator + 1);
+            }
+        }
+        String digits = integerPart.replaceAll("[.,]", "");
+        if (digits.isEmpty()) {
+            return null;
+        }
+        return new BigDecimal(fraction.isEmpty() ? digits : digits + "." + fraction);
+    }
+
+}
@@ -0,0 +1,258 @@
+package com.pavelsklenar.domain;
+
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.openqa.selenium.By;
+import org.w3c.css.sac.CSSException;
+import org.w3c.css.sac.CSSParseException;
+import org.w3c.css.sac.ErrorHandler;
+import org.w3c.css.sac.InputSource;
+
+import com.steadystate.css.parser.CSSOMParser;
+import com.steadystate.css.parser.SACParserCSS3;
+
+/**
+ * Immutable, parsed form of selectors of a {@link SearchPage}. It is created
+ * once per page and reused by every run until the page changes.<br />
+ * Selectors are XPath expressions by default, a selector starting with
+ * {@value #CSS_PREFIX} is a CSS selector.
+ *
+ * @author pavel.sklenar
+ *
+ */
+public final class ExtractionPlan {
+
+    public static final String CSS_PREFIX = "css:";
+
+    private final String signature;
+
+    private final Selector listOfResults;
+
+    private final Selector price;
+
+    private final Selector title;
+
+    private final Selector description;
+
+    private final Selector url;
+
+    private final Selector image;
+
+    private final Selector nextPage;
+
+    private final Set<String> omitClasses;
+
+    private ExtractionPlan(SearchPage searchPage) {
+        this.signature = signatureOf(searchPage);
+        this.listOfResults = Selector.parse("xpathToListOfResults", searchPage.getXpathToListOfResults());
+        if (listOfResults == null) {
+            throw new InvalidSelectorException(
+                    "Search page " + searchPage.getName() + " has no selector of list of results.");
+        }
+        this.price = Selector.parse("xpathToPrice", searchPage.getXpathToPrice());
+        this.title = Selector.parse("xpathToTitle", searchPage.getXpathToTitle());
+        this.description = Selector.parse("xpathToDescription", searchPage.getXpathToDescription());
+        this.url = Selector.parse("xpathToUrl", searchPage.getXpathToUrl());
+        this.image = Selector.parse("xpathToImage", searchPage.getXpathToImage());
+        this.nextPage = Selector.parse("xpathToNextPage", searchPage.getXpathToNextPage());
+        this.omitClasses = Collections
+                .unmodifiableSet(new LinkedHashSet<String>(searchPage.getOmitClassesInSearchResultAsList()));
+    }
+
+    /**
+     * Parse all selectors of the page
+     *
+     * @param searchPage
+     * @return plan of the page
+     * @throws InvalidSelectorException
+     *             when any selector is invalid
+     */
+    public static ExtractionPlan compile(SearchPage searchPage) {
+        return new ExtractionPlan(searchPage);
+    }
+
+    /**
+     * Get a value identifying all the page settings the plan is compiled from,
+     * the same signature means the same plan
+     */
+    public static String signatureOf(SearchPage searchPage) {
+        return new StringBuilder().append(searchPage.getXpathToListOfResults()).append('\n')
+                .append(searchPage.getXpathToPrice()).append('\n').append(searchPage.getXpathToTitle()).append('\n')
+                .append(searchPage.getXpathToDescription()).append('\n').append(searchPage.getXpathToUrl())
+                .append('\n').append(searchPage.getXpathToImage()).append('\n')
+                .append(searchPage.getOmitClassesInSearchResult()).append('\n')
+                .append(searchPage.getXpathToNextPage()).toString();
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public Selector getListOfResults() {
+        return listOfResults;
+    }
+
+    public Selector getPrice() {
+        return price;
+    }
+
+    public Selector getTitle() {
+        return title;
+    }
+
+    public Selector getDescription() {
+        return description;
+    }
+
+    public Selector getUrl() {
+        return url;
+    }
+
+    public Selector getImage() {
+        return image;
+    }
+
+    /**
+     * @return selector of the link to the next page of results (evaluated
+     *         against the document), null when only the first page is read
+     */
+    public Selector getNextPage() {
+        return nextPage;
+    }
+
+    /**
+     * @return parsed classes, search results having any of them are omitted
+     */
+    public Set<String> getOmitClasses() {
+        return omitClasses;
+    }
+
+    /**
+     * Whether an element with the given value of class attribute should be
+     * omitted
+     *
+     * @param classAttribute
+     *            value of class attribute, may be null
+     */
+    public boolean shouldBeOmitted(String classAttribute) {
+        if (omitClasses.isEmpty() || classAttribute == null || classAttribute.isEmpty()) {
+            return false;
+        }
+        for (String existingClass : classAttribute.split("\\s+")) {
+            if (omitClasses.contains(existingClass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Single parsed selector
+     */
+    public static final class Selector {
+
+        private final String specification;
+
+        private final String expression;
+
+        private final boolean css;
+
+        private final By by;
+
+        private Selector(String specification, String expression, boolean css) {
+            this.specification = specification;
+            this.expression = expression;
+            this.css = css;
+            this.by = css ? By.cssSelector(expression) : By.xpath(expression);
+        }
+
+        static Selector parse(String name, String specification) {
+            if (specification == null || specification.trim().isEmpty()) {
+                return null;
+            }
+            String trimmed = specification.trim();
+            if (trimmed.startsWith(CSS_PREFIX)) {
+                String expression = trimmed.substring(CSS_PREFIX.length()).trim();
+                validateCss(name, expression);
+                return new Selector(trimmed, expression, true);
+            }
+            validateXpath(name, trimmed);
+            return new Selector(trimmed, trimmed, false);
+        }
+
+        private static void validateXpath(String name, String expression) {
+            try {
+                XPathFactory.newInstance().newXPath().compile(expression);
+            } catch (XPathExpressionException e) {
+                throw new InvalidSelectorException("Invalid XPath of " + name + ": " + expression, e);
+            }
+        }
+
+        private static void validateCss(String name, String expression) {
+            CSSOMParser parser = new CSSOMParser(new SACParserCSS3());
+            parser.setErrorHandler(new ErrorHandler() {
+                @Override
+                public void warning(CSSParseException exception) {
+                }
+
+                @Override
+                public void error(CSSParseException exception) {
+                    throw exception;
+                }
+
+                @Override
+                public void fatalError(CSSParseException exception) {
+                    throw exception;
+                }
+            });
+            try {
+                if (expression.isEmpty()
+                        || parser.parseSelectors(new InputSource(new StringReader(expression))) == null) {
+                    throw new InvalidSelectorException("Invalid CSS selector of " + name + ": " + expression);
+                }
+            } catch (CSSException e) {
+                throw new InvalidSelectorException("Invalid CSS selector of " + name + ": " + expression, e);
+            } catch (java.io.IOException e) {
+                throw new InvalidSelectorException("Invalid CSS selector of " + name + ": " + expression, e);
+            }
+        }
+
+        /**
+         * @return selector as defined on the page, CSS selectors including
+         *         the prefix
+         */
+        public String getSpecification() {
+            return specification;
+        }
+
+        /**
+         * @return XPath expression or CSS selector without the prefix
+         */
+        public String getExpression() {
+            return expression;
+        }
+
+        public boolean isCss() {
+            return css;
+        }
+
+        /**
+         * @return selector usable by WebDriver
+         */
+        public By getBy() {
+            return by;
+        }
+
+        @Override
+        public String toString() {
+            return specification;
+        }
+    }
+
+}
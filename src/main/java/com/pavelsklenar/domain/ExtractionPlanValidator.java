@@ -0,0 +1,22 @@
+package com.pavelsklenar.domain;
+
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * JPA entity listener rejecting {@link SearchPage}s with invalid selectors
+ * when they are saved, so a broken selector does not show up first during
+ * a crawl
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class ExtractionPlanValidator {
+
+    @PrePersist
+    @PreUpdate
+    public void validate(SearchPage searchPage) {
+        ExtractionPlan.compile(searchPage);
+    }
+
+}
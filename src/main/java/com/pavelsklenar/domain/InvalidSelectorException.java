@@ -0,0 +1,22 @@
+package com.pavelsklenar.domain;
+
+/**
+ * Thrown when a selector of a {@link SearchPage} cannot
+ * be parsed
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class InvalidSelectorException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidSelectorException(String message) {
+        super(message);
+    }
+
+    public InvalidSelectorException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -7,6 +7,7 @@ import java.util.List;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
@@ -15,12 +16,15 @@ import javax.persistence.ManyToMany;
 
 /**
  * This Entity stores info about search page, i.e. URL, xpaths to required
- * elements etc.
+ * elements etc.<br />
+ * All xpathTo* fields hold XPath expressions, or CSS selectors when prefixed
+ * with "css:". Invalid selectors are rejected when the page is saved.
  * 
  * @author pavel.sklenar
  * 
  */
 @Entity
+@EntityListeners(ExtractionPlanValidator.class)
 public class SearchPage implements Serializable {
 
 	private static final long serialVersionUID = 1L;
@@ -57,10 +61,25 @@ public class SearchPage implements Serializable {
 	@Column
 	private String xpathToUrl;
 
+	/**
+	 * Link to the next page of results (relative to the whole page), results
+	 * are read from the first page only when it is not set
+	 */
+	@Column
+	private String xpathToNextPage;
+
+	/**
+	 * Whether the page needs JavaScript, i.e. it has to be loaded by a browser.
+	 * Other pages are downloaded and parsed without any browser.
+	 */
 	@Column(nullable = false, columnDefinition = "boolean default false")
 	private boolean javascriptEnabled;
 
-	@ManyToMany(fetch = FetchType.EAGER)
+	/**
+	 * Recipients of new results, they are not loaded with the page, see
+	 * SearchRepoService#loadEmailAddresses
+	 */
+	@ManyToMany(fetch = FetchType.LAZY)
 	private Collection<EmailAddress> emailAddresses;
 
 	/**
@@ -70,6 +89,27 @@ public class SearchPage implements Serializable {
 	@Column
 	private String omitClassesInSearchResult;
 
+	/**
+	 * The shortest time in minutes between two checks of the page when the
+	 * adaptive scheduling is enabled, null means the global default
+	 */
+	@Column
+	private Integer minCheckIntervalMinutes;
+
+	/**
+	 * The longest time in minutes between two checks of the page when the
+	 * adaptive scheduling is enabled, null means the global default
+	 */
+	@Column
+	private Integer maxCheckIntervalMinutes;
+
+	/**
+	 * The most pages of results read in one check when the link to the next
+	 * page is set, null means the global default
+	 */
+	@Column
+	private Integer maxPages;
+
 	protected SearchPage() {
 	}
 
@@ -79,6 +119,35 @@ public class SearchPage implements Serializable {
 		this.url = url;
 	}
 
+	/**
+	 * Copy of the page without its recipients, changes of the copy, e.g.
+	 * loading of its recipients, are not seen by other holders of the page
+	 * 
+	 * @return detached copy with the same id
+	 */
+	public SearchPage copy() {
+		SearchPage copy = new SearchPage(name, url);
+		copy.id = id;
+		copy.enabled = enabled;
+		copy.xpathToListOfResults = xpathToListOfResults;
+		copy.xpathToImage = xpathToImage;
+		copy.xpathToDescription = xpathToDescription;
+		copy.xpathToTitle = xpathToTitle;
+		copy.xpathToPrice = xpathToPrice;
+		copy.xpathToUrl = xpathToUrl;
+		copy.xpathToNextPage = xpathToNextPage;
+		copy.javascriptEnabled = javascriptEnabled;
+		copy.omitClassesInSearchResult = omitClassesInSearchResult;
+		copy.minCheckIntervalMinutes = minCheckIntervalMinutes;
+		copy.maxCheckIntervalMinutes = maxCheckIntervalMinutes;
+		copy.maxPages = maxPages;
+		return copy;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
 	public boolean isEnabled() {
 		return enabled;
 	}
@@ -156,6 +225,14 @@ public class SearchPage implements Serializable {
 		this.xpathToUrl = xpathToUrl;
 	}
 
+	public String getXpathToNextPage() {
+		return xpathToNextPage;
+	}
+
+	public void setXpathToNextPage(String xpathToNextPage) {
+		this.xpathToNextPage = xpathToNextPage;
+	}
+
 	public boolean isJavascriptEnabled() {
 		return javascriptEnabled;
 	}
@@ -198,6 +275,30 @@ public class SearchPage implements Serializable {
 		this.emailAddresses = emailAddresses;
 	}
 
+	public Integer getMinCheckIntervalMinutes() {
+		return minCheckIntervalMinutes;
+	}
+
+	public void setMinCheckIntervalMinutes(Integer minCheckIntervalMinutes) {
+		this.minCheckIntervalMinutes = minCheckIntervalMinutes;
+	}
+
+	public Integer getMaxCheckIntervalMinutes() {
+		return maxCheckIntervalMinutes;
+	}
+
+	public void setMaxCheckIntervalMinutes(Integer maxCheckIntervalMinutes) {
+		this.maxCheckIntervalMinutes = maxCheckIntervalMinutes;
+	}
+
+	public Integer getMaxPages() {
+		return maxPages;
+	}
+
+	public void setMaxPages(Integer maxPages) {
+		this.maxPages = maxPages;
+	}
+
 	public void setName(String name) {
 		this.name = name;
 	}
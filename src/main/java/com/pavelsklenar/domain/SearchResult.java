@@ -1,16 +1,24 @@
 package com.pavelsklenar.domain;
 
 import java.io.Serializable;
+import java.math.BigDecimal;
 import java.util.Date;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+import javax.persistence.Transient;
 
-import org.springframework.data.annotation.CreatedDate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.TableGenerator;
 
 /**
  * Entity to save info about search result, i.e. result from searching on
@@ -20,12 +28,35 @@ import org.springframework.data.annotation.CreatedDate;
  * 
  */
 @Entity
+@Table(indexes = { @Index(name = "idx_search_result_url_hash", columnList = "urlHash"),
+		@Index(name = "idx_search_result_created_date", columnList = "createdDate") })
 public class SearchResult implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Name of the row of {@link #ID_TABLE} holding the next id
+	 */
+	public static final String ID_SEGMENT = "search_result";
+
+	/**
+	 * Table of ids allocated in blocks, so a batch of results is inserted
+	 * without a round-trip per id and without identity columns which prevent
+	 * JDBC batching
+	 */
+	public static final String ID_TABLE = "id_generator";
+
+	public static final int ID_ALLOCATION_SIZE = 50;
+
 	@Id
-	@GeneratedValue
+	@GeneratedValue(generator = "searchResultId")
+	@GenericGenerator(name = "searchResultId", strategy = "org.hibernate.id.enhanced.TableGenerator", parameters = {
+			@Parameter(name = TableGenerator.TABLE_PARAM, value = ID_TABLE),
+			@Parameter(name = TableGenerator.SEGMENT_COLUMN_PARAM, value = "sequence_name"),
+			@Parameter(name = TableGenerator.VALUE_COLUMN_PARAM, value = "next_val"),
+			@Parameter(name = TableGenerator.SEGMENT_VALUE_PARAM, value = ID_SEGMENT),
+			@Parameter(name = TableGenerator.INCREMENT_PARAM, value = "" + ID_ALLOCATION_SIZE),
+			@Parameter(name = TableGenerator.OPT_PARAM, value = "pooled-lo") })
 	private Long id;
 
 	@ManyToOne(optional = false)
@@ -35,9 +66,21 @@ public class SearchResult implements Serializable {
 	@Lob
 	private String url;
 
+	/**
+	 * Indexed fingerprint of the url, the url itself cannot be indexed
+	 */
+	@Column
+	private Long urlHash;
+
 	@Column
 	private String price;
 
+	/**
+	 * The price parsed to a number, null when it has no number
+	 */
+	@Column(precision = 19, scale = 2)
+	private BigDecimal priceValue;
+
 	@Column
 	private String title;
 
@@ -49,10 +92,27 @@ public class SearchResult implements Serializable {
 	@Column
 	private String description;
 
+	/**
+	 * Fingerprint of the tracked fields (title, price and description), so a
+	 * change is found without reading the description
+	 */
+	@Column
+	private Long contentHash;
+
+	/**
+	 * Time of the first save, results older than the retention window are
+	 * moved to {@link SearchResultArchive}
+	 */
 	@Column
-	@CreatedDate
 	private Date createdDate;
 
+	/**
+	 * Change of the already saved result, set when the result is reported as
+	 * changed
+	 */
+	@Transient
+	private SearchResultChange change;
+
 	protected SearchResult() {
 	}
 
@@ -80,6 +140,53 @@ public class SearchResult implements Serializable {
 		this.url = url;
 	}
 
+	public Long getUrlHash() {
+		return urlHash;
+	}
+
+	@PrePersist
+	public void prePersist() {
+		if (createdDate == null) {
+			createdDate = new Date();
+		}
+		updateHashes();
+	}
+
+	@PreUpdate
+	public void updateHashes() {
+		updateUrlHash();
+		updateContentHash();
+	}
+
+	public void updateUrlHash() {
+		this.urlHash = url == null ? null : UrlFingerprint.of(url);
+	}
+
+	public Long getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * Compute {@link #getContentHash()} and {@link #getPriceValue()} from the
+	 * current values
+	 */
+	public void updateContentHash() {
+		this.contentHash = ContentFingerprint.of(title, price, description);
+		this.priceValue = ContentFingerprint.parsePrice(price);
+	}
+
+	public BigDecimal getPriceValue() {
+		return priceValue;
+	}
+
+	public SearchResultChange getChange() {
+		return change;
+	}
+
+	public void setChange(SearchResultChange change) {
+		this.change = change;
+	}
+
 	public void setSearchPage(SearchPage searchPage) {
 		this.searchPage = searchPage;
 	}
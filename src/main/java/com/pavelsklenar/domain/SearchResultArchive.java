@@ -0,0 +1,132 @@
+package com.pavelsklenar.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+/**
+ * Entity of a {@link SearchResult} moved out of the main table after the
+ * retention window, it keeps the id and all values of the result. The page is
+ * kept only by its id, so archived results do not prevent deleting the page.
+ * <br />
+ * A listing still found on its page is compared with the archived values by
+ * their fingerprint, so its changes are reported after archiving as well.
+ * 
+ * @author pavel.sklenar
+ * 
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_search_result_archive_url_hash", columnList = "urlHash"))
+public class SearchResultArchive implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Same as {@link SearchResult#getId()}
+	 */
+	@Id
+	private Long id;
+
+	@Column
+	private Long searchPageId;
+
+	@Column
+	@Lob
+	private String url;
+
+	@Column
+	private Long urlHash;
+
+	@Column
+	private String price;
+
+	@Column
+	private String title;
+
+	@Column(precision = 19, scale = 2)
+	private BigDecimal priceValue;
+
+	@Lob
+	@Column
+	private String imageUrl;
+
+	@Lob
+	@Column
+	private String description;
+
+	/**
+	 * Same as {@link SearchResult#getContentHash()}
+	 */
+	@Column
+	private Long contentHash;
+
+	@Column
+	private Date createdDate;
+
+	@Column
+	private Date archivedDate;
+
+	protected SearchResultArchive() {
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public Long getSearchPageId() {
+		return searchPageId;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public Long getUrlHash() {
+		return urlHash;
+	}
+
+	public String getPrice() {
+		return price;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public BigDecimal getPriceValue() {
+		return priceValue;
+	}
+
+	public String getImageUrl() {
+		return imageUrl;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public Long getContentHash() {
+		return contentHash;
+	}
+
+	public Date getCreatedDate() {
+		return createdDate;
+	}
+
+	public Date getArchivedDate() {
+		return archivedDate;
+	}
+
+	@Override
+	public String toString() {
+		return "SearchResultArchive [id=" + id + ", searchPageId=" + searchPageId + ", url=" + url
+				+ ", createdDate=" + createdDate + ", archivedDate=" + archivedDate + "]";
+	}
+}
@@ -0,0 +1,166 @@
+package com.pavelsklenar.domain;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+/**
+ * Entity to save a change of tracked fields of an already saved
+ * {@link SearchResult}, the history is only appended to. Results are
+ * referenced by their ids only, so the history is kept when they are
+ * archived.
+ * 
+ * @author pavel.sklenar
+ * 
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_search_result_change_result", columnList = "searchResultId"))
+public class SearchResultChange implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@GeneratedValue
+	private Long id;
+
+	@Column(nullable = false)
+	private Long searchResultId;
+
+	@Column
+	private Long searchPageId;
+
+	@Column
+	private String oldTitle;
+
+	@Column
+	private String newTitle;
+
+	@Column
+	private String oldPrice;
+
+	@Column
+	private String newPrice;
+
+	@Column(precision = 19, scale = 2)
+	private BigDecimal oldPriceValue;
+
+	@Column(precision = 19, scale = 2)
+	private BigDecimal newPriceValue;
+
+	@Column
+	private Long oldContentHash;
+
+	@Column
+	private Long newContentHash;
+
+	@Column
+	private Date changedDate;
+
+	/**
+	 * Result found on the page now, it is not saved with the change
+	 */
+	@Transient
+	private SearchResult searchResult;
+
+	protected SearchResultChange() {
+	}
+
+	/**
+	 * @param searchResultId id of the saved result
+	 * @param oldTitle saved title
+	 * @param oldPrice saved price
+	 * @param oldPriceValue saved price as a number
+	 * @param oldContentHash saved fingerprint
+	 * @param searchResult the same result found on the page now, with its
+	 *            fingerprint computed
+	 */
+	public SearchResultChange(Long searchResultId, String oldTitle, String oldPrice, BigDecimal oldPriceValue,
+			Long oldContentHash, SearchResult searchResult) {
+		this.searchResultId = searchResultId;
+		this.searchPageId = searchResult.getSearchPage() == null ? null : searchResult.getSearchPage().getId();
+		this.oldTitle = oldTitle;
+		this.newTitle = searchResult.getTitle();
+		this.oldPrice = oldPrice;
+		this.newPrice = searchResult.getPrice();
+		this.oldPriceValue = oldPriceValue;
+		this.newPriceValue = searchResult.getPriceValue();
+		this.oldContentHash = oldContentHash;
+		this.newContentHash = searchResult.getContentHash();
+		this.changedDate = new Date();
+		this.searchResult = searchResult;
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public Long getSearchResultId() {
+		return searchResultId;
+	}
+
+	public Long getSearchPageId() {
+		return searchPageId;
+	}
+
+	public String getOldTitle() {
+		return oldTitle;
+	}
+
+	public String getNewTitle() {
+		return newTitle;
+	}
+
+	public String getOldPrice() {
+		return oldPrice;
+	}
+
+	public String getNewPrice() {
+		return newPrice;
+	}
+
+	public BigDecimal getOldPriceValue() {
+		return oldPriceValue;
+	}
+
+	public BigDecimal getNewPriceValue() {
+		return newPriceValue;
+	}
+
+	/**
+	 * @return new price minus the old one, null when either of them is not a
+	 *         number
+	 */
+	public BigDecimal getPriceDifference() {
+		return oldPriceValue == null || newPriceValue == null ? null : newPriceValue.subtract(oldPriceValue);
+	}
+
+	public Long getOldContentHash() {
+		return oldContentHash;
+	}
+
+	public Long getNewContentHash() {
+		return newContentHash;
+	}
+
+	public Date getChangedDate() {
+		return changedDate;
+	}
+
+	public SearchResult getSearchResult() {
+		return searchResult;
+	}
+
+	@Override
+	public String toString() {
+		return "SearchResultChange [searchResultId=" + searchResultId + ", oldTitle=" + oldTitle + ", newTitle="
+				+ newTitle + ", oldPrice=" + oldPrice + ", newPrice=" + newPrice + "]";
+	}
+}
@@ -0,0 +1,68 @@
+package com.pavelsklenar.domain;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Fixed-width 64-bit fingerprint of a {@link SearchResult} URL.<br />
+ * URL is normalized before hashing: surrounding whitespace is removed and
+ * scheme and host are lower-cased, the rest of the URL is significant.
+ *
+ * @author pavel.sklenar
+ *
+ */
+public final class UrlFingerprint {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private UrlFingerprint() {
+    }
+
+    /**
+     * @param url URL to normalize, must not be null
+     * @return normalized form of the URL
+     */
+    public static String normalize(String url) {
+        String trimmed = url.trim();
+        int schemeEnd = trimmed.indexOf("://");
+        if (schemeEnd < 0) {
+            return trimmed;
+        }
+        int hostEnd = schemeEnd + 3;
+        while (hostEnd < trimmed.length() && "/?#".indexOf(trimmed.charAt(hostEnd)) < 0) {
+            hostEnd++;
+        }
+        return trimmed.substring(0, hostEnd).toLowerCase(Locale.ENGLISH) + trimmed.substring(hostEnd);
+    }
+
+    /**
+     * @param url URL to fingerprint, must not be null
+     * @return 64-bit hash of the normalized URL
+     */
+    public static long of(String url) {
+        return hash(normalize(url));
+    }
+
+    /**
+     * @return 64-bit hash of the value as it is
+     */
+    static long hash(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : value.getBytes(UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        // FNV alone spreads short inputs poorly over the high bits, finish with the murmur3 avalanche
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
@@ -1,6 +1,10 @@
 package com.pavelsklenar.repository;
 
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 import com.pavelsklenar.domain.EmailAddress;
 
@@ -12,4 +16,12 @@ import com.pavelsklenar.domain.EmailAddress;
 public interface EmailAddressRepository extends
 		CrudRepository<EmailAddress, Long> {
 
+	/**
+	 * Find recipients of a search page by a single query
+	 * @param searchPageId id of the search page
+	 * @return its recipients
+	 */
+	@Query("select e from SearchPage p join p.emailAddresses e where p.id = :searchPageId")
+	List<EmailAddress> findBySearchPageId(@Param("searchPageId") Long searchPageId);
+
 }
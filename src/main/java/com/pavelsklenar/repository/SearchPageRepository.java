@@ -18,10 +18,15 @@ package com.pavelsklenar.repository;
 
 import java.util.List;
 
+import javax.persistence.QueryHint;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
 
 import com.pavelsklenar.domain.SearchPage;
 
@@ -42,4 +47,16 @@ public interface SearchPageRepository extends Repository<SearchPage, Long>,
 
 	SearchPage findByName(String name);
 
+	/**
+	 * Read pages ordered by id, batch by batch without offset scanning. The
+	 * pages are read-only, i.e. not checked for changes by the persistence
+	 * context, and their recipients are not loaded.
+	 * @param lastId the highest id of the previous batch, 0 for the first batch
+	 * @param pageable size of the batch, page number should be 0
+	 * @return the next batch of pages
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true"))
+	@Query("select p from SearchPage p where p.id > :lastId order by p.id")
+	List<SearchPage> findAfterId(@Param("lastId") Long lastId, Pageable pageable);
+
 }
@@ -0,0 +1,72 @@
+package com.pavelsklenar.repository;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultArchive;
+
+/**
+ * Repository for {@link SearchResultArchive}
+ * @author pavel.sklenar
+ *
+ */
+public interface SearchResultArchiveRepository extends CrudRepository<SearchResultArchive, Long> {
+
+	/**
+	 * Copy the given results to the archive by a single statement, the caller deletes them from the main table
+	 * @param ids ids of {@link SearchResult}s, must not be empty
+	 * @return number of archived results
+	 */
+	@Modifying
+	@Query("insert into SearchResultArchive (id, searchPageId, url, urlHash, price, priceValue, title, imageUrl, description, "
+			+ "contentHash, createdDate, archivedDate) "
+			+ "select r.id, r.searchPage.id, r.url, r.urlHash, r.price, r.priceValue, r.title, r.imageUrl, r.description, "
+			+ "r.contentHash, r.createdDate, current_timestamp() "
+			+ "from SearchResult r where r.id in :ids")
+	public int archive(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Find URLs of archived results having one of the given URL hashes, in a single query
+	 * @param urlHashes hashes to look for, must not be empty
+	 * @return URLs of matching results, they may differ from the wanted ones in case of a hash collision
+	 */
+	@Query("select r.url from SearchResultArchive r where r.urlHash in :urlHashes")
+	public List<String> findUrlsByUrlHashIn(@Param("urlHashes") Collection<Long> urlHashes);
+
+	/**
+	 * Read ids and URL hashes ordered by id, page by page without offset scanning
+	 * @param lastId the highest id of the previous page, 0 for the first page
+	 * @param pageable size of the page, page number should be 0
+	 * @return pairs of id and URL hash
+	 */
+	@Query("select r.id, r.urlHash from SearchResultArchive r where r.id > :lastId and r.urlHash is not null order by r.id")
+	public List<Object[]> findUrlHashesAfterId(@Param("lastId") Long lastId, Pageable pageable);
+
+	/**
+	 * Read archived values of the tracked fields without the description
+	 * @param urlHashes hashes of URLs of the results, must not be empty
+	 * @return id, URL, content hash, title, price and price value of every matching result
+	 */
+	@Query("select r.id, r.url, r.contentHash, r.title, r.price, r.priceValue from SearchResultArchive r where r.urlHash in :urlHashes")
+	public List<Object[]> findContentByUrlHashIn(@Param("urlHashes") Collection<Long> urlHashes);
+
+	/**
+	 * Replace the tracked fields of an archived result by a single statement without loading it
+	 * @return number of updated results
+	 */
+	@Modifying
+	@Query("update SearchResultArchive r set r.title = :title, r.price = :price, r.priceValue = :priceValue, "
+			+ "r.description = :description, r.contentHash = :contentHash where r.id = :id")
+	public int updateContent(@Param("id") Long id, @Param("title") String title, @Param("price") String price,
+			@Param("priceValue") BigDecimal priceValue, @Param("description") String description,
+			@Param("contentHash") Long contentHash);
+
+}
@@ -0,0 +1,18 @@
+package com.pavelsklenar.repository;
+
+import java.util.List;
+
+import org.springframework.data.repository.CrudRepository;
+
+import com.pavelsklenar.domain.SearchResultChange;
+
+/**
+ * Repository for {@link SearchResultChange}
+ * @author pavel.sklenar
+ *
+ */
+public interface SearchResultChangeRepository extends CrudRepository<SearchResultChange, Long> {
+
+	public List<SearchResultChange> findBySearchResultIdOrderByIdAsc(Long searchResultId);
+
+}
@@ -1,11 +1,17 @@
 package com.pavelsklenar.repository;
 
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
 
 import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
@@ -21,4 +27,77 @@ public interface SearchResultRepository extends Repository<SearchResult, Long>,
 	
 	public List<SearchResult> findByUrl(String url);
 
+	public List<SearchResult> findByUrlHash(Long urlHash);
+
+	/**
+	 * Find URLs of saved results having one of the given URL hashes, in a single query
+	 * @param urlHashes hashes to look for, must not be empty
+	 * @return URLs of matching results, they may differ from the wanted ones in case of a hash collision
+	 */
+	@Query("select r.url from SearchResult r where r.urlHash in :urlHashes")
+	public List<String> findUrlsByUrlHashIn(@Param("urlHashes") Collection<Long> urlHashes);
+
+	/**
+	 * Read ids and URL hashes ordered by id, page by page without offset scanning
+	 * @param lastId the highest id of the previous page, 0 for the first page
+	 * @param pageable size of the page, page number should be 0
+	 * @return pairs of id and URL hash
+	 */
+	@Query("select r.id, r.urlHash from SearchResult r where r.id > :lastId and r.urlHash is not null order by r.id")
+	public List<Object[]> findUrlHashesAfterId(@Param("lastId") Long lastId, Pageable pageable);
+
+	/**
+	 * Find results saved before the URL hash or the content hash was introduced
+	 * @param pageable size of the page
+	 * @return results without URL hash or content hash
+	 */
+	@Query("select r from SearchResult r where (r.urlHash is null and r.url is not null) or r.contentHash is null")
+	public List<SearchResult> findWithoutHashes(Pageable pageable);
+
+	/**
+	 * Read saved values of the tracked fields without the description
+	 * @param urlHashes hashes of URLs of the results, must not be empty
+	 * @return id, URL, content hash, title, price and price value of every matching result
+	 */
+	@Query("select r.id, r.url, r.contentHash, r.title, r.price, r.priceValue from SearchResult r where r.urlHash in :urlHashes")
+	public List<Object[]> findContentByUrlHashIn(@Param("urlHashes") Collection<Long> urlHashes);
+
+	/**
+	 * Replace the tracked fields of a saved result by a single statement without loading it
+	 * @return number of updated results
+	 */
+	@Modifying
+	@Query("update SearchResult r set r.title = :title, r.price = :price, r.priceValue = :priceValue, "
+			+ "r.description = :description, r.contentHash = :contentHash where r.id = :id")
+	public int updateContent(@Param("id") Long id, @Param("title") String title, @Param("price") String price,
+			@Param("priceValue") BigDecimal priceValue, @Param("description") String description,
+			@Param("contentHash") Long contentHash);
+
+	/**
+	 * Find ids of results saved before the given time, the oldest first
+	 * @param before time of the oldest kept result
+	 * @param pageable size of the page, page number should be 0 when the found results are removed
+	 * @return ids of the results
+	 */
+	@Query("select r.id from SearchResult r where r.createdDate < :before order by r.id")
+	public List<Long> findIdsCreatedBefore(@Param("before") Date before, Pageable pageable);
+
+	/**
+	 * Delete results by a single statement without loading them
+	 * @param ids ids of the results, must not be empty
+	 * @return number of deleted results
+	 */
+	@Modifying
+	@Query("delete from SearchResult r where r.id in :ids")
+	public int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Set the creation time of results saved before it was stamped on save
+	 * @param createdDate time to set
+	 * @return number of updated results
+	 */
+	@Modifying
+	@Query("update SearchResult r set r.createdDate = :createdDate where r.createdDate is null")
+	public int setMissingCreatedDate(@Param("createdDate") Date createdDate);
+
 }
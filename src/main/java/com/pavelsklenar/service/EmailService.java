@@ -1,6 +1,9 @@
 package com.pavelsklenar.service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.mail.MessagingException;
 
@@ -19,4 +22,63 @@ public interface EmailService {
 	void sendSearchResults(SearchPage searchPage, List<SearchResult> listToSend)
 			throws MessagingException;
 
+	/**
+	 * Send new results of the search page like
+	 * {@link #sendSearchResults(SearchPage, List)}, the e-mail may be sent
+	 * later by another thread. Results are to be saved only when the returned
+	 * future completes normally, so results which cannot be sent are found
+	 * and sent again by the next check.<br />
+	 * The e-mail is sent right away by default.
+	 * 
+	 * @return future completed when the e-mail is sent, or exceptionally when
+	 *         it cannot be sent
+	 */
+	default CompletableFuture<Void> submitSearchResults(SearchPage searchPage, List<SearchResult> listToSend) {
+		CompletableFuture<Void> sent = new CompletableFuture<Void>();
+		try {
+			sendSearchResults(searchPage, listToSend);
+			sent.complete(null);
+		} catch (Exception e) {
+			sent.completeExceptionally(e);
+		}
+		return sent;
+	}
+
+	/**
+	 * Send one e-mail with new results of more search pages to one recipient
+	 * 
+	 * @param emailAddress address of the recipient
+	 * @param resultsByPage new results grouped by their search pages
+	 */
+	void sendDigest(String emailAddress, Map<SearchPage, List<SearchResult>> resultsByPage)
+			throws MessagingException;
+
+	/**
+	 * Send a digest like {@link #sendDigest(String, Map)}, the e-mail may be
+	 * sent later by another thread. Results of the digest are to be saved only
+	 * when the returned future completes normally.<br />
+	 * The e-mail is sent right away by default.
+	 * 
+	 * @return future completed when the digest is sent, or exceptionally when
+	 *         it cannot be sent
+	 */
+	default CompletableFuture<Void> submitDigest(String emailAddress,
+			Map<SearchPage, List<SearchResult>> resultsByPage) {
+		CompletableFuture<Void> sent = new CompletableFuture<Void>();
+		try {
+			sendDigest(emailAddress, resultsByPage);
+			sent.complete(null);
+		} catch (Exception e) {
+			sent.completeExceptionally(e);
+		}
+		return sent;
+	}
+
+	/**
+	 * Send one e-mail summarizing repeated errors
+	 * 
+	 * @param errors errors grouped by their signatures
+	 */
+	void sendErrorSummary(Collection<ErrorSummary> errors) throws MessagingException;
+
 }
\ No newline at end of file
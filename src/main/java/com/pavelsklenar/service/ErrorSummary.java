@@ -0,0 +1,79 @@
+package com.pavelsklenar.service;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Repeated occurrences of errors with the same signature (type, message and
+ * place of the error), reported in one summary e-mail instead of one e-mail
+ * per error, see {@link EmailService#sendErrorSummary(java.util.Collection)}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public final class ErrorSummary {
+
+    private final String signature;
+
+    private final Exception firstException;
+
+    private final Date firstSeen;
+
+    private Date lastSeen;
+
+    private int count;
+
+    private final Set<String> pages = new LinkedHashSet<String>();
+
+    public ErrorSummary(String signature, Exception firstException, Date firstSeen) {
+        this.signature = signature;
+        this.firstException = firstException;
+        this.firstSeen = firstSeen;
+        this.lastSeen = firstSeen;
+    }
+
+    /**
+     * Record another occurrence of the error
+     *
+     * @param page name of the search page failing, may be null
+     * @param seen time of the occurrence
+     */
+    public void occurred(String page, Date seen) {
+        count++;
+        lastSeen = seen;
+        if (page != null) {
+            pages.add(page);
+        }
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    /**
+     * @return the first exception of the summary, its stack trace stands for
+     *         all occurrences
+     */
+    public Exception getFirstException() {
+        return firstException;
+    }
+
+    public Date getFirstSeen() {
+        return firstSeen;
+    }
+
+    public Date getLastSeen() {
+        return lastSeen;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public Set<String> getPages() {
+        return Collections.unmodifiableSet(pages);
+    }
+
+}
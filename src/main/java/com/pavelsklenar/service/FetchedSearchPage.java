@@ -0,0 +1,82 @@
+package com.pavelsklenar.service;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+
+/**
+ * Outcome of processing a {@link SearchPage} which may have not changed since
+ * its previous processing, see
+ * {@link SearchPageProcessor#processSearchIfChanged(SearchPage)}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public final class FetchedSearchPage {
+
+    public enum Status {
+        /**
+         * Page has changed (or it is not known), results are extracted
+         */
+        CHANGED,
+        /**
+         * Server answered the conditional request by 304 Not Modified
+         */
+        NOT_MODIFIED,
+        /**
+         * Page was downloaded, but its list of results has not changed
+         */
+        SAME_CONTENT
+    }
+
+    private final Status status;
+
+    private final SearchPageVersion version;
+
+    private final List<SearchResult> searchResults;
+
+    private FetchedSearchPage(Status status, SearchPageVersion version, List<SearchResult> searchResults) {
+        this.status = status;
+        this.version = version;
+        this.searchResults = searchResults;
+    }
+
+    public static FetchedSearchPage changed(SearchPageVersion version, List<SearchResult> searchResults) {
+        return new FetchedSearchPage(Status.CHANGED, version, searchResults);
+    }
+
+    public static FetchedSearchPage unchanged(Status status, SearchPageVersion version) {
+        if (status == Status.CHANGED) {
+            throw new IllegalArgumentException("Status of unchanged page expected");
+        }
+        return new FetchedSearchPage(status, version, Collections.<SearchResult> emptyList());
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true when the page is the same as when it was processed last time and need not be processed
+     */
+    public boolean isUnchanged() {
+        return status != Status.CHANGED;
+    }
+
+    /**
+     * @return version of the page, null when it is not known
+     */
+    public SearchPageVersion getVersion() {
+        return version;
+    }
+
+    /**
+     * @return found results, empty for an unchanged page
+     */
+    public List<SearchResult> getSearchResults() {
+        return searchResults;
+    }
+
+}
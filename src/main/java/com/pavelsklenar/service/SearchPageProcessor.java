@@ -6,7 +6,8 @@ import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
 
 /**
- * Interface for {@link SearchPage} processors
+ * Interface for {@link SearchPage} processors<br />
+ * Implementations must be thread-safe, more pages are processed concurrently.
  * @author pavel.sklenar
  *
  */
@@ -21,4 +22,24 @@ public interface SearchPageProcessor {
 	public abstract List<SearchResult> processSearch(SearchPage searchPageToProcess)
 			throws Exception;
 
-}
\ No newline at end of file
+	/**
+	 * Process {@link SearchPage} like {@link #processSearch(SearchPage)}, unless
+	 * the page has not changed since its last processing confirmed by
+	 * {@link #confirmProcessed(SearchPage, FetchedSearchPage)}
+	 * @param searchPageToProcess
+	 * @return found results or information that the page has not changed
+	 * @throws Exception
+	 */
+	public abstract FetchedSearchPage processSearchIfChanged(SearchPage searchPageToProcess)
+			throws Exception;
+
+	/**
+	 * Confirm that results of {@link #processSearchIfChanged(SearchPage)} were
+	 * completely handled, next processing of the page is compared with this
+	 * version. Unconfirmed versions are processed again.
+	 * @param searchPage processed page
+	 * @param fetched outcome of {@link #processSearchIfChanged(SearchPage)}
+	 */
+	public abstract void confirmProcessed(SearchPage searchPage, FetchedSearchPage fetched);
+
+}
@@ -0,0 +1,83 @@
+package com.pavelsklenar.service;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Identification of a downloaded version of a {@link SearchPage}: HTTP
+ * validators (ETag, Last-Modified) and a hash of the region containing the
+ * list of results.<br />
+ * Any of the values may be null when it is not known.
+ *
+ * @author pavel.sklenar
+ *
+ */
+public final class SearchPageVersion {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String etag;
+
+    private final String lastModified;
+
+    private final String contentHash;
+
+    public SearchPageVersion(String etag, String lastModified, String contentHash) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Hash parts of a page, the engine is part of the hash as every engine
+     * serializes the page differently
+     *
+     * @param engine name of the engine which produced the parts
+     * @param parts parts of the page, null parts are allowed
+     * @return hash of the parts
+     */
+    public static String hashOf(String engine, Iterable<String> parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported", e);
+        }
+        for (String part : parts) {
+            digest.update(String.valueOf(part).getBytes(UTF_8));
+            // separator, so that moving text between parts changes the hash
+            digest.update((byte) 0);
+        }
+        return engine + ":" + String.format("%032x", new BigInteger(1, digest.digest()));
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return true when the content hash is known and the same as the content hash of the other version
+     */
+    public boolean hasSameContent(SearchPageVersion other) {
+        return other != null && contentHash != null && contentHash.equals(other.contentHash);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchPageVersion [etag=" + etag + ", lastModified=" + lastModified + ", contentHash=" + contentHash
+                + "]";
+    }
+
+}
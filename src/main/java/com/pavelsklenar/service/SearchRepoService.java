@@ -16,13 +16,17 @@
 
 package com.pavelsklenar.service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import com.pavelsklenar.domain.EmailAddress;
 import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultChange;
 
 /**
  * Interface for service which agregates some useful repositories
@@ -35,10 +39,53 @@ public interface SearchRepoService {
 
 	Page<SearchResult> getSearchResults(SearchPage searchPage, Pageable pageable);
 
+	/**
+	 * Read all search pages at once, without their recipients
+	 * @return all pages
+	 */
 	List<SearchPage> getAllSearchPages();
 
+	/**
+	 * Read all search pages batch by batch while iterating, without their
+	 * recipients, so neither the memory nor the persistence context hold all
+	 * of them at once
+	 * @return pages ordered by id
+	 */
+	Iterable<SearchPage> iterateSearchPages();
+
+	/**
+	 * Load recipients of the page read without them, they are set to the page
+	 * @param searchPage page read by {@link #iterateSearchPages()} or {@link #getAllSearchPages()}
+	 * @return the recipients
+	 */
+	Collection<EmailAddress> loadEmailAddresses(SearchPage searchPage);
+
 	List<SearchResult> findByUrl(String url);
 
+	/**
+	 * Find which of the given URLs belong to already saved {@link SearchResult}s,
+	 * with a constant number of queries regardless of count of the URLs
+	 * @param urls URLs to look for
+	 * @return subset of the given URLs which are already saved
+	 */
+	Set<String> findExistingUrls(Collection<String> urls);
+
 	void saveAllSearchResults(List<SearchResult> resultsToSave);
 
+	/**
+	 * Find which of the given results are saved or archived with different
+	 * tracked fields, by comparing their fingerprints, saved descriptions are
+	 * not read
+	 * @param searchResults results found on a page, the unsaved ones are skipped
+	 * @return changes of the saved results, not saved yet
+	 */
+	List<SearchResultChange> findChanges(Collection<SearchResult> searchResults);
+
+	/**
+	 * Append the changes to the history and update the tracked fields of the results, archived results are
+	 * updated in the archive
+	 * @param changes changes found by {@link #findChanges(Collection)}
+	 */
+	void saveChanges(Collection<SearchResultChange> changes);
+
 }
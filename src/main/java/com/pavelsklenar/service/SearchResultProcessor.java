@@ -19,4 +19,13 @@ public interface SearchResultProcessor {
 	public abstract List<SearchResult> processCompare(
 			List<SearchResult> resultsToCompare);
 
+	/**
+	 * Find already saved {@link SearchResult}s whose title, price or description has changed
+	 * @param resultsToCompare list of all {@link SearchResult}
+	 * @param newSearchResults results returned by {@link #processCompare(List)}, they are not compared
+	 * @return changed results, every one with its {@link SearchResult#getChange()} which is not saved yet
+	 */
+	public abstract List<SearchResult> processChanges(
+			List<SearchResult> resultsToCompare, List<SearchResult> newSearchResults);
+
 }
\ No newline at end of file
@@ -0,0 +1,34 @@
+package com.pavelsklenar.service;
+
+/**
+ * Server of a search page refused the request because of too many requests
+ * (HTTP 429, or 503 with Retry-After), the host should not be asked again for
+ * a while
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class TooManyRequestsException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    /**
+     * @param message
+     * @param retryAfterMillis how long to wait as requested by the server, -1
+     *            when the server did not say
+     */
+    public TooManyRequestsException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return how long to wait as requested by the server, -1 when unknown
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+}
@@ -10,9 +10,24 @@ import org.openqa.selenium.WebDriver;
 public interface WebDriverFactory {
 
     /**
-     * Get {@link WebDriver} instance, ready to use
+     * Get (borrow) {@link WebDriver} instance, ready to use. Every borrowed
+     * instance must be handed back by {@link #releaseWebDriver(WebDriver)} or
+     * {@link #invalidateWebDriver(WebDriver)}.
      * @return existing and working {@link WebDriver} instance
      */
     WebDriver getWebDriver();
 
+    /**
+     * Return a {@link WebDriver} obtained by {@link #getWebDriver()} after successful use
+     * @param driver driver to return, may be null
+     */
+    void releaseWebDriver(WebDriver driver);
+
+    /**
+     * Return a {@link WebDriver} obtained by {@link #getWebDriver()} which should not be used again,
+     * e.g. after a failure
+     * @param driver driver to destroy, may be null
+     */
+    void invalidateWebDriver(WebDriver driver);
+
 }
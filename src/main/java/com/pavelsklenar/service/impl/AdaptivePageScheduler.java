@@ -0,0 +1,350 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.service.SearchRepoService;
+import com.pavelsklenar.service.TooManyRequestsException;
+
+/**
+ * Checks every search page at its own pace instead of checking all pages by
+ * the single cron expression of {@link WebCheckerJobImpl}.<br />
+ * Pages wait in a priority queue ordered by the time of their next check. The
+ * interval of a page is halved whenever the page brings new results and
+ * stretched by half when it does not, always within the bounds of the page
+ * (or the global defaults), so pages changing often are checked often and
+ * quiet pages are left alone. Due pages are handed over to
+ * {@link WebCheckerJobImpl#submitPage(SearchPage, Set)}, the list of pages is
+ * reloaded periodically. Pages are checked continuously, so there is no end of
+ * a cycle and digests are sent once per the shortest default interval.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@ConditionalOnExpression("${job.webChecker.run:false} && '${job.webChecker.cron:}' != ''"
+        + " && '${job.webChecker.scheduling:cron}' == 'adaptive'")
+@Component
+class AdaptivePageScheduler implements PublicMetrics {
+
+    static final String ADAPTIVE = "adaptive";
+
+    // protects hosts against a misconfigured page checked in a loop
+    private static final long SHORTEST_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptivePageScheduler.class);
+
+    private final WebCheckerJobImpl webCheckerJob;
+
+    private final SearchRepoService searchRepoService;
+
+    private final DigestCollector digestCollector;
+
+    private final long defaultMinIntervalMillis;
+
+    private final long defaultMaxIntervalMillis;
+
+    private final long refreshMillis;
+
+    private final ScheduledExecutorService timer;
+
+    private final Map<Long, PageSchedule> schedules = new HashMap<Long, PageSchedule>();
+
+    private final PriorityQueue<PageSchedule> queue = new PriorityQueue<PageSchedule>();
+
+    // URLs reported by pages in flight, the same listing can be found by more pages at once
+    private final Set<String> urlsInFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    private ScheduledFuture<?> nextTick;
+
+    private long refreshAt;
+
+    private int inFlight;
+
+    private boolean started;
+
+    private final AtomicLong checks = new AtomicLong();
+
+    private final AtomicLong checksWithNewResults = new AtomicLong();
+
+    /**
+     * @param minIntervalMinutes the shortest interval of pages without their own setting
+     * @param maxIntervalMinutes the longest interval of pages without their own setting
+     * @param refreshSeconds how often the list of pages is reloaded
+     */
+    @Autowired
+    public AdaptivePageScheduler(WebCheckerJobImpl webCheckerJob, SearchRepoService searchRepoService,
+            DigestCollector digestCollector,
+            @Value("${job.webChecker.adaptive.minIntervalMinutes:5}") long minIntervalMinutes,
+            @Value("${job.webChecker.adaptive.maxIntervalMinutes:240}") long maxIntervalMinutes,
+            @Value("${job.webChecker.adaptive.refreshSeconds:60}") long refreshSeconds) {
+        this.webCheckerJob = webCheckerJob;
+        this.searchRepoService = searchRepoService;
+        this.digestCollector = digestCollector;
+        this.defaultMinIntervalMillis = TimeUnit.MINUTES.toMillis(minIntervalMinutes);
+        this.defaultMaxIntervalMillis = Math.max(defaultMinIntervalMillis, TimeUnit.MINUTES.toMillis(maxIntervalMinutes));
+        this.refreshMillis = TimeUnit.SECONDS.toMillis(refreshSeconds);
+        this.timer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("page-scheduler-"));
+    }
+
+    /**
+     * Start checking pages once the application is ready
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            LOG.info("Adaptive scheduling of search pages started.");
+            timer.execute(tick);
+            timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    digestCollector.endOfCycle();
+                }
+            }, defaultMinIntervalMillis, defaultMinIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    @Override
+    public synchronized Collection<Metric<?>> metrics() {
+        long minInterval = 0;
+        long maxInterval = 0;
+        long totalInterval = 0;
+        for (PageSchedule schedule : schedules.values()) {
+            minInterval = minInterval == 0 ? schedule.intervalMillis : Math.min(minInterval, schedule.intervalMillis);
+            maxInterval = Math.max(maxInterval, schedule.intervalMillis);
+            totalInterval += schedule.intervalMillis;
+        }
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Integer>("scheduler.pages", schedules.size()));
+        result.add(new Metric<Integer>("scheduler.inFlight", inFlight));
+        result.add(new Metric<Long>("scheduler.checks", checks.get()));
+        result.add(new Metric<Long>("scheduler.checksWithNewResults", checksWithNewResults.get()));
+        result.add(new Metric<Long>("scheduler.interval.min", TimeUnit.MILLISECONDS.toSeconds(minInterval)));
+        result.add(new Metric<Long>("scheduler.interval.max", TimeUnit.MILLISECONDS.toSeconds(maxInterval)));
+        result.add(new Metric<Long>("scheduler.interval.avg",
+                schedules.isEmpty() ? 0 : TimeUnit.MILLISECONDS.toSeconds(totalInterval / schedules.size())));
+        return result;
+    }
+
+    /**
+     * Reload pages when it is time, dispatch all due pages and plan the next
+     * tick
+     */
+    private synchronized void tick() {
+        long now = System.currentTimeMillis();
+        if (now >= refreshAt) {
+            try {
+                refresh(now);
+            } catch (Exception e) {
+                LOG.error("Cannot load search pages, the current schedule is kept.", e);
+            }
+            refreshAt = now + refreshMillis;
+        }
+        PageSchedule head;
+        while ((head = queue.peek()) != null && head.nextCheckAt <= now) {
+            dispatch(queue.poll());
+        }
+        long wakeAt = head == null ? refreshAt : Math.min(refreshAt, head.nextCheckAt);
+        if (nextTick != null) {
+            nextTick.cancel(false);
+        }
+        if (!timer.isShutdown()) {
+            nextTick = timer.schedule(tick, Math.max(0, wakeAt - now), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Add new pages, update settings of known ones and forget removed or
+     * disabled pages
+     */
+    private void refresh(long now) {
+        Set<Long> current = new HashSet<Long>();
+        for (SearchPage page : searchRepoService.iterateSearchPages()) {
+            if (!page.isEnabled()) {
+                continue;
+            }
+            current.add(page.getId());
+            PageSchedule schedule = schedules.get(page.getId());
+            if (schedule == null) {
+                schedule = new PageSchedule(page, minIntervalOf(page), maxIntervalOf(page), now);
+                schedules.put(page.getId(), schedule);
+                queue.add(schedule);
+                LOG.debug("Search page {} scheduled, the first check is due now.", page.getName());
+            } else {
+                schedule.update(page, minIntervalOf(page), maxIntervalOf(page));
+            }
+        }
+        for (Iterator<PageSchedule> iterator = schedules.values().iterator(); iterator.hasNext();) {
+            PageSchedule schedule = iterator.next();
+            if (!current.contains(schedule.page.getId())) {
+                iterator.remove();
+                queue.remove(schedule);
+            }
+        }
+    }
+
+    private void dispatch(final PageSchedule schedule) {
+        final SearchPage page = schedule.page;
+        inFlight++;
+        webCheckerJob.submitPage(page, urlsInFlight).whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer reported, Throwable failure) {
+                schedule.lastReported = reported == null ? -1 : reported;
+                completed(schedule, failure);
+            }
+        });
+    }
+
+    private synchronized void completed(PageSchedule schedule, Throwable failure) {
+        inFlight--;
+        if (inFlight == 0) {
+            // all reported URLs are saved or wait in digests by now, they are deduplicated there
+            urlsInFlight.clear();
+        }
+        long now = System.currentTimeMillis();
+        if (failure != null || schedule.lastReported < 0) {
+            if (failure instanceof TooManyRequestsException) {
+                LOG.warn("Search page {} refused repeatedly, it is checked again later.", schedule.page.getName());
+            } else if (failure != null) {
+                LOG.error("Unexpected error when processing search page " + schedule.page.getName(), failure);
+            }
+            // refused or skipped pages keep their interval
+            schedule.nextCheckAt = now + schedule.intervalMillis;
+        } else {
+            checks.incrementAndGet();
+            if (schedule.lastReported > 0) {
+                checksWithNewResults.incrementAndGet();
+            }
+            long previous = schedule.intervalMillis;
+            schedule.checked(schedule.lastReported, now);
+            if (previous != schedule.intervalMillis) {
+                LOG.info("Check interval of search page {} changed to {} min.", schedule.page.getName(),
+                        TimeUnit.MILLISECONDS.toMinutes(schedule.intervalMillis));
+            }
+        }
+        schedule.lastReported = -1;
+        if (schedules.get(schedule.page.getId()) == schedule) {
+            queue.add(schedule);
+            if (!timer.isShutdown()) {
+                timer.execute(tick);
+            }
+        }
+    }
+
+    private long minIntervalOf(SearchPage page) {
+        return page.getMinCheckIntervalMinutes() == null ? defaultMinIntervalMillis
+                : TimeUnit.MINUTES.toMillis(page.getMinCheckIntervalMinutes());
+    }
+
+    private long maxIntervalOf(SearchPage page) {
+        return page.getMaxCheckIntervalMinutes() == null ? defaultMaxIntervalMillis
+                : TimeUnit.MINUTES.toMillis(page.getMaxCheckIntervalMinutes());
+    }
+
+    /**
+     * Schedule of one search page, ordered by the time of its next check
+     */
+    static class PageSchedule implements Comparable<PageSchedule> {
+
+        private SearchPage page;
+
+        private long minIntervalMillis;
+
+        private long maxIntervalMillis;
+
+        private long intervalMillis;
+
+        private long nextCheckAt;
+
+        // number of results reported by the check in flight, -1 when the page was not processed
+        private volatile int lastReported = -1;
+
+        PageSchedule(SearchPage page, long minIntervalMillis, long maxIntervalMillis, long now) {
+            update(page, minIntervalMillis, maxIntervalMillis);
+            this.intervalMillis = this.minIntervalMillis;
+            this.nextCheckAt = now;
+        }
+
+        /**
+         * Take new settings of the page, the current interval is kept within
+         * the new bounds
+         */
+        void update(SearchPage page, long minIntervalMillis, long maxIntervalMillis) {
+            this.page = page;
+            this.minIntervalMillis = Math.max(SHORTEST_INTERVAL_MILLIS, minIntervalMillis);
+            this.maxIntervalMillis = Math.max(this.minIntervalMillis, maxIntervalMillis);
+            this.intervalMillis = clamp(intervalMillis);
+        }
+
+        /**
+         * Adapt the interval to the result of a finished check and plan the
+         * next one
+         *
+         * @param newResults number of new results found by the check
+         * @param now time the check finished
+         */
+        void checked(int newResults, long now) {
+            intervalMillis = clamp(newResults > 0 ? intervalMillis / 2 : intervalMillis + intervalMillis / 2);
+            nextCheckAt = now + intervalMillis;
+        }
+
+        long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        long getNextCheckAt() {
+            return nextCheckAt;
+        }
+
+        private long clamp(long interval) {
+            return Math.min(maxIntervalMillis, Math.max(minIntervalMillis, interval));
+        }
+
+        @Override
+        public int compareTo(PageSchedule other) {
+            return nextCheckAt < other.nextCheckAt ? -1 : (nextCheckAt == other.nextCheckAt ? 0 : 1);
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.pavelsklenar.service.impl;
+
+/**
+ * Bloom filter over 64-bit fingerprints, bit positions are derived from the
+ * two halves of the fingerprint (Kirsch-Mitzenmacher double hashing).<br />
+ * Not thread-safe, callers synchronize access.
+ *
+ * @author pavel.sklenar
+ *
+ */
+class BloomFilter {
+
+    private final long[] bits;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    private final int expectedInsertions;
+
+    /**
+     * @param expectedInsertions number of values the filter is sized for
+     * @param falsePositiveRate wanted false positive rate at the expected number of values
+     */
+    BloomFilter(int expectedInsertions, double falsePositiveRate) {
+        this.expectedInsertions = Math.max(expectedInsertions, 1);
+        long optimalBits = (long) Math.ceil(-this.expectedInsertions * Math.log(falsePositiveRate)
+                / (Math.log(2) * Math.log(2)));
+        this.bits = new long[(int) Math.max((optimalBits + 63) / 64, 1)];
+        this.bitCount = bits.length * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / this.expectedInsertions * Math.log(2)));
+    }
+
+    void put(long fingerprint) {
+        int low = (int) fingerprint;
+        int high = (int) (fingerprint >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = bitIndex(low + i * high);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(long fingerprint) {
+        int low = (int) fingerprint;
+        int high = (int) (fingerprint >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = bitIndex(low + i * high);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    long memoryBytes() {
+        return bits.length * 8L;
+    }
+
+    /**
+     * @param insertions number of values put into the filter
+     * @return theoretical false positive rate for the given number of values
+     */
+    double expectedFalsePositiveRate(long insertions) {
+        return Math.pow(1 - Math.exp(-hashCount * (double) insertions / bitCount), hashCount);
+    }
+
+    private long bitIndex(int combinedHash) {
+        return (combinedHash & 0x7fffffffL) % bitCount;
+    }
+
+}
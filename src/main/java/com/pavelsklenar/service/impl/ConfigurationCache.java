@@ -0,0 +1,241 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.EmailAddress;
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Cache of the crawl configuration, i.e. all {@link SearchPage}s and their
+ * {@link EmailAddress}es, read through by {@link SearchRepoServiceImpl}.<br />
+ * The cache is dropped when a page or an address is saved or deleted (see
+ * {@link ConfigurationChanges}), when it is older than the time to live and
+ * by the JMX operation evict, e.g. after editing the DB by hand. When there
+ * are more pages than its size, nothing is cached and pages are read from DB.
+ * <br />
+ * Every reader gets its own copies of the cached pages, pages are processed
+ * by more threads and their recipients are set by each of them.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+@ManagedResource(objectName = "com.pavelsklenar:type=ConfigurationCache", description = "Cache of search pages and their recipients")
+public class ConfigurationCache implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigurationCache.class);
+
+    private final boolean enabled;
+
+    private final int maxPages;
+
+    private final long ttlMillis;
+
+    private final ConfigurationChanges configurationChanges;
+
+    private volatile Snapshot snapshot;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param enabled whether the configuration is cached at all
+     * @param maxPages the most pages cached
+     * @param ttlMinutes how long the cache is used, 0 until it is evicted
+     */
+    @Autowired
+    public ConfigurationCache(ConfigurationChanges configurationChanges,
+            @Value("${configCache.enabled:true}") boolean enabled,
+            @Value("${configCache.maxPages:10000}") int maxPages,
+            @Value("${configCache.ttlMinutes:60}") long ttlMinutes) {
+        this.configurationChanges = configurationChanges;
+        this.enabled = enabled;
+        this.maxPages = maxPages;
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(ttlMinutes);
+    }
+
+    /**
+     * @return stamp to be passed with configuration which is going to be read
+     *         from DB
+     */
+    public long stamp() {
+        return configurationChanges.version();
+    }
+
+    /**
+     * @return the most pages cached, -1 when the cache is disabled
+     */
+    public int getMaxPages() {
+        return enabled ? maxPages : -1;
+    }
+
+    /**
+     * @return copies of all pages ordered by id, null when they are not
+     *         cached
+     */
+    public List<SearchPage> getPages() {
+        Snapshot current = current();
+        if (current == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copiesOf(current.pages);
+    }
+
+    /**
+     * Cache all pages, unless the configuration has changed since they were
+     * read
+     *
+     * @param pages all pages ordered by id
+     * @param stamp value of {@link #stamp()} before the pages were read
+     */
+    public void putPages(List<SearchPage> pages, long stamp) {
+        if (!enabled || pages.size() > maxPages || stamp != configurationChanges.version()) {
+            return;
+        }
+        // the given pages are processed by the caller meanwhile
+        snapshot = new Snapshot(Collections.unmodifiableList(copiesOf(pages)), stamp);
+        LOG.debug("Configuration of {} search pages cached.", pages.size());
+    }
+
+    /**
+     * @return recipients of the page, null when they are not cached
+     */
+    public Collection<EmailAddress> getEmailAddresses(Long searchPageId) {
+        Snapshot current = current();
+        Collection<EmailAddress> emailAddresses = current == null ? null : current.emailAddresses.get(searchPageId);
+        if (emailAddresses == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return emailAddresses;
+    }
+
+    /**
+     * Cache recipients of a cached page, unless the configuration has changed
+     * since they were read
+     *
+     * @param stamp value of {@link #stamp()} before the recipients were read
+     */
+    public void putEmailAddresses(Long searchPageId, Collection<EmailAddress> emailAddresses, long stamp) {
+        Snapshot current = current();
+        if (current != null && current.stamp == stamp && current.emailAddresses.size() < maxPages) {
+            current.emailAddresses.put(searchPageId,
+                    Collections.unmodifiableList(new ArrayList<EmailAddress>(emailAddresses)));
+        }
+    }
+
+    @ManagedOperation(description = "Drop the cached configuration, it is read from DB again")
+    public void evict() {
+        if (snapshot != null) {
+            snapshot = null;
+            evictions.incrementAndGet();
+        }
+    }
+
+    @ManagedAttribute(description = "Whether the configuration is cached")
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @ManagedAttribute(description = "Number of cached search pages")
+    public int getSize() {
+        Snapshot current = snapshot;
+        return current == null ? 0 : current.pages.size();
+    }
+
+    @ManagedAttribute(description = "Number of reads answered by the cache")
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute(description = "Number of reads which had to query DB")
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedAttribute(description = "Number of times the cached configuration was dropped")
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        Snapshot current = snapshot;
+        result.add(new Metric<Integer>("configCache.pages", current == null ? 0 : current.pages.size()));
+        result.add(new Metric<Integer>("configCache.recipients", current == null ? 0 : current.emailAddresses.size()));
+        result.add(new Metric<Long>("configCache.hits", hits.get()));
+        result.add(new Metric<Long>("configCache.misses", misses.get()));
+        result.add(new Metric<Long>("configCache.evictions", evictions.get()));
+        return result;
+    }
+
+    /**
+     * @return the cached configuration when it is still current, null
+     *         otherwise
+     */
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return null;
+        }
+        if (current.stamp != configurationChanges.version()
+                || (ttlMillis > 0 && System.currentTimeMillis() - current.created > ttlMillis)) {
+            if (snapshot == current) {
+                snapshot = null;
+                evictions.incrementAndGet();
+            }
+            return null;
+        }
+        return current;
+    }
+
+    private static List<SearchPage> copiesOf(List<SearchPage> pages) {
+        List<SearchPage> copies = new ArrayList<SearchPage>(pages.size());
+        for (SearchPage page : pages) {
+            copies.add(page.copy());
+        }
+        return copies;
+    }
+
+    private static class Snapshot {
+
+        private final List<SearchPage> pages;
+
+        private final long stamp;
+
+        private final long created = System.currentTimeMillis();
+
+        private final ConcurrentMap<Long, Collection<EmailAddress>> emailAddresses = new ConcurrentHashMap<Long, Collection<EmailAddress>>();
+
+        private Snapshot(List<SearchPage> pages, long stamp) {
+            this.pages = pages;
+            this.stamp = stamp;
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.pavelsklenar.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.service.SearchResultProcessor;
+
+/**
+ * Stage comparing results of fetched search pages with already saved results
+ * by {@link SearchResultProcessor}, so workers of {@link HostDispatcher} fetch
+ * further pages while DB is queried. New and changed results are handed over
+ * to {@link NotifyStage}.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@DependsOn("notifyStage")
+@Component
+class DedupStage extends PipelineStage {
+
+    /**
+     * @param workers number of threads comparing results, 0 compares them by
+     *            the fetching worker
+     * @param capacity the most fetched pages waiting for comparison
+     * @param drainTimeoutSeconds how long queued pages are compared on
+     *            shutdown
+     */
+    @Autowired
+    public DedupStage(PipelineMetrics pipelineMetrics, @Value("${dedupStage.workers:2}") int workers,
+            @Value("${dedupStage.queueCapacity:8}") int capacity,
+            @Value("${dedupStage.drainTimeoutSeconds:60}") long drainTimeoutSeconds) {
+        super("dedupStage", PipelineMetrics.DEDUP_QUEUE_WAIT, pipelineMetrics, workers, capacity,
+                drainTimeoutSeconds);
+    }
+
+}
@@ -0,0 +1,321 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.EmailAddress;
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.service.EmailService;
+
+/**
+ * Collects new results of all search pages per recipient and sends every
+ * recipient one digest with results grouped by pages, instead of one e-mail
+ * per page.<br />
+ * Digests are sent at the end of every check cycle or, when a window is
+ * configured, once per window. Results collected but not sent yet are sent on
+ * shutdown.<br />
+ * Collected results are saved only once all digests with them are sent, a
+ * digest which cannot be sent is put back and sent by the next flush. Results
+ * waiting in digests are not collected again by later checks.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class DigestCollector implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DigestCollector.class);
+
+    private final EmailService emailService;
+
+    private final boolean enabled;
+
+    private final long windowMillis;
+
+    private ScheduledExecutorService timer;
+
+    // results by recipient address and page
+    private Map<String, Digest> digests = new LinkedHashMap<String, Digest>();
+
+    // URLs of collected results which are not saved yet
+    private final Set<String> pendingUrls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong collected = new AtomicLong();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    /**
+     * @param emailService service sending the digests
+     * @param enabled whether results are collected into digests
+     * @param windowMinutes how often digests are sent, 0 means at the end of every cycle
+     */
+    @Autowired
+    public DigestCollector(EmailService emailService,
+            @Value("${notification.digest.enabled:false}") boolean enabled,
+            @Value("${notification.digest.windowMinutes:0}") long windowMinutes) {
+        this.emailService = emailService;
+        this.enabled = enabled;
+        this.windowMillis = TimeUnit.MINUTES.toMillis(windowMinutes);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled && windowMillis > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("digest-"));
+            timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        flush();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Add new results of the page to digests of all its recipients
+     * 
+     * @param whenSent saves the results, called once all digests with them are
+     *            sent, by the thread which has sent the last one
+     */
+    public void add(SearchPage searchPage, List<SearchResult> searchResults, Runnable whenSent) {
+        if (searchResults == null || searchResults.isEmpty()) {
+            whenSent.run();
+            return;
+        }
+        if (searchPage.getEmailAddresses() == null || searchPage.getEmailAddresses().isEmpty()) {
+            LOG.warn("SearchPage {} has empty e-mail addresses of recipients, no e-mail will be sent.",
+                    searchPage.getName());
+            whenSent.run();
+            return;
+        }
+        // the caller goes on with its list
+        List<SearchResult> results = new ArrayList<SearchResult>(searchResults);
+        Batch batch = new Batch(results, whenSent);
+        pendingUrls.addAll(batch.urls);
+        synchronized (this) {
+            for (EmailAddress emailAddress : searchPage.getEmailAddresses()) {
+                String key = keyOf(emailAddress.getEmailAddress());
+                Digest digest = digests.get(key);
+                if (digest == null) {
+                    digest = new Digest(emailAddress.getEmailAddress());
+                    digests.put(key, digest);
+                }
+                digest.add(searchPage, results, batch);
+            }
+        }
+        collected.addAndGet(results.size());
+    }
+
+    /**
+     * @return true when a result with the URL waits in a digest and is not
+     *         saved yet
+     */
+    public boolean isPending(String url) {
+        return pendingUrls.contains(url);
+    }
+
+    /**
+     * Called when all pages of a cycle are processed, digests are sent unless
+     * they are sent by the window
+     */
+    public void endOfCycle() {
+        if (enabled && windowMillis == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Send all collected digests
+     */
+    public void flush() {
+        Map<String, Digest> toSend;
+        synchronized (this) {
+            if (digests.isEmpty()) {
+                return;
+            }
+            toSend = digests;
+            digests = new LinkedHashMap<String, Digest>();
+        }
+        for (final Digest digest : toSend.values()) {
+            emailService.submitDigest(digest.emailAddress, digest.resultsByPage())
+                    .whenComplete(new BiConsumer<Void, Throwable>() {
+                        @Override
+                        public void accept(Void result, Throwable failure) {
+                            if (failure != null) {
+                                LOG.error("Cannot send digest to " + digest.emailAddress
+                                        + ", it is sent again by the next flush.", failure);
+                                putBack(digest);
+                            } else {
+                                sent.incrementAndGet();
+                                reported(digest);
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Results of a digest which cannot be sent wait for the next flush
+     */
+    private synchronized void putBack(Digest digest) {
+        String key = keyOf(digest.emailAddress);
+        Digest collectedMeanwhile = digests.put(key, digest);
+        if (collectedMeanwhile != null) {
+            digest.addAll(collectedMeanwhile);
+        }
+    }
+
+    /**
+     * Save results of all batches whose digests are all sent now
+     */
+    private void reported(Digest digest) {
+        List<Batch> done = new ArrayList<Batch>();
+        synchronized (this) {
+            for (Batch batch : digest.batches) {
+                if (--batch.digests == 0) {
+                    done.add(batch);
+                }
+            }
+        }
+        for (Batch batch : done) {
+            try {
+                batch.whenSent.run();
+            } finally {
+                pendingUrls.removeAll(batch.urls);
+            }
+        }
+    }
+
+    private static String keyOf(String emailAddress) {
+        return emailAddress.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    @Override
+    public synchronized Collection<Metric<?>> metrics() {
+        int pendingResults = 0;
+        for (Digest digest : digests.values()) {
+            pendingResults += digest.count;
+        }
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Integer>("notification.digest.pending.recipients", digests.size()));
+        result.add(new Metric<Integer>("notification.digest.pending.results", pendingResults));
+        result.add(new Metric<Long>("notification.digest.collected", collected.get()));
+        result.add(new Metric<Long>("notification.digest.sent", sent.get()));
+        return result;
+    }
+
+    /**
+     * Results of one page added at once, saved when all their digests are sent
+     */
+    private static class Batch {
+
+        private final List<String> urls = new ArrayList<String>();
+
+        private final Runnable whenSent;
+
+        // digests with the results which are not sent yet
+        private int digests;
+
+        Batch(List<SearchResult> results, Runnable whenSent) {
+            for (SearchResult searchResult : results) {
+                urls.add(searchResult.getUrl());
+            }
+            this.whenSent = whenSent;
+        }
+    }
+
+    /**
+     * Results waiting for one recipient
+     */
+    private static class Digest {
+
+        private final String emailAddress;
+
+        // pages of different cycles are different instances of the same page
+        private final Map<Object, SearchPage> pages = new LinkedHashMap<Object, SearchPage>();
+
+        private final Map<Object, List<SearchResult>> results = new LinkedHashMap<Object, List<SearchResult>>();
+
+        private final List<Batch> batches = new ArrayList<Batch>();
+
+        private int count;
+
+        Digest(String emailAddress) {
+            this.emailAddress = emailAddress;
+        }
+
+        void add(SearchPage searchPage, List<SearchResult> searchResults, Batch batch) {
+            if (batches.contains(batch)) {
+                // the page lists the recipient more times
+                return;
+            }
+            batches.add(batch);
+            batch.digests++;
+            add(searchPage.getId() != null ? searchPage.getId() : searchPage, searchPage, searchResults);
+        }
+
+        void addAll(Digest other) {
+            for (Map.Entry<Object, List<SearchResult>> entry : other.results.entrySet()) {
+                add(entry.getKey(), other.pages.get(entry.getKey()), entry.getValue());
+            }
+            batches.addAll(other.batches);
+        }
+
+        private void add(Object key, SearchPage searchPage, List<SearchResult> searchResults) {
+            List<SearchResult> pageResults = results.get(key);
+            if (pageResults == null) {
+                pageResults = new ArrayList<SearchResult>();
+                results.put(key, pageResults);
+            }
+            pages.put(key, searchPage);
+            pageResults.addAll(searchResults);
+            count += searchResults.size();
+        }
+
+        Map<SearchPage, List<SearchResult>> resultsByPage() {
+            Map<SearchPage, List<SearchResult>> resultsByPage = new LinkedHashMap<SearchPage, List<SearchResult>>();
+            for (Map.Entry<Object, List<SearchResult>> entry : results.entrySet()) {
+                resultsByPage.put(pages.get(entry.getKey()), entry.getValue());
+            }
+            return resultsByPage;
+        }
+    }
+
+}
@@ -1,9 +1,18 @@
 package com.pavelsklenar.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
@@ -11,8 +20,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.Context;
@@ -21,6 +32,7 @@ import com.pavelsklenar.domain.EmailAddress;
 import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
 import com.pavelsklenar.service.EmailService;
+import com.pavelsklenar.service.ErrorSummary;
 
 @Component
 public class EmailServiceImpl implements EmailService {
@@ -35,12 +47,26 @@ public class EmailServiceImpl implements EmailService {
     @Autowired
     private TemplateEngine templateEngine;
 
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private PipelineEvents pipelineEvents;
+
     @Value("${email.error}")
     private String errorEmail;
 
     @Value("${email.from}")
     private String emailFrom;
 
+    @Value("${email.batchSize:50}")
+    private int batchSize;
+
+    @Value("${email.fanOutThreads:2}")
+    private int fanOutThreads;
+
+    private ExecutorService fanOut;
+
     /*
      * (non-Javadoc)
      *
@@ -51,7 +77,28 @@ public class EmailServiceImpl implements EmailService {
             LOG.info("Cannot send emails, it would be empty, no results to send.");
             return;
         }
-        LOG.info("Trying to send mails with {} new search results", listToSend.size());
+        if (searchPage.getEmailAddresses().isEmpty()) {
+            LOG.warn("SearchPage {} has empty e-mail addresses of recipients, no e-mail will be sent.",
+                    searchPage.getName());
+            return;
+        }
+        LOG.info("Trying to send mails with {} new search results to {} recipients", listToSend.size(),
+                searchPage.getEmailAddresses().size());
+        PipelineEvents.Span span = pipelineEvents.begin(PipelineEvents.SEND_RESULTS, searchPage);
+        try {
+            sendSearchResultsInternal(searchPage, listToSend);
+        } finally {
+            span.end(listToSend.size());
+        }
+        LOG.info("Email successfully send.");
+
+    }
+
+    /**
+     * Render the e-mail of the page once and send it to every recipient
+     */
+    private void sendSearchResultsInternal(SearchPage searchPage, List<SearchResult> listToSend)
+            throws MessagingException {
         // Prepare the evaluation context
         final Context ctx = new Context(Locale.getDefault());
         ctx.setVariable("name", listToSend.get(0).getSearchPage().getName());
@@ -59,35 +106,79 @@ public class EmailServiceImpl implements EmailService {
         ctx.setVariable("subscriptionDate", new Date());
         ctx.setVariable("results", listToSend);
 
-        // Prepare message using a Spring helper
-        final MimeMessage mimeMessage = this.mailSender.createMimeMessage();
-        final MimeMessageHelper message = new MimeMessageHelper(mimeMessage, UTF_8);
+        final String subject;
         if (listToSend.size() == 1) {
-            message.setSubject(listToSend.get(0).getTitle() + ", " + listToSend.get(0).getPrice());
+            subject = listToSend.get(0).getTitle() + ", " + listToSend.get(0).getPrice();
         } else {
-            message.setSubject(
-                    listToSend.get(0).getSearchPage().getName() + " - nové nemovistosti (" + listToSend.size() + ")");
+            subject = listToSend.get(0).getSearchPage().getName()
+                    + (hasChanges(listToSend) ? " - nové a změněné nemovitosti (" : " - nové nemovistosti (")
+                    + listToSend.size() + ")";
         }
 
-        message.setFrom(emailFrom);
-        if (searchPage.getEmailAddresses().isEmpty()) {
-            LOG.warn("SearchPage {} has empty e-mail addresses of recipients, no e-mail will be sent.",
-                    searchPage.getName());
-        }
+        // Create the HTML body using Thymeleaf, once for all recipients
+        long start = pipelineMetrics.start();
+        final String htmlContent = this.templateEngine.process("email", ctx);
+        pipelineMetrics.record(PipelineMetrics.RENDER, searchPage, start);
 
+        // Every recipient gets his own message
+        List<MimeMessage> messages = new ArrayList<MimeMessage>();
         for (EmailAddress emailAddress : searchPage.getEmailAddresses()) {
+            final MimeMessage mimeMessage = this.mailSender.createMimeMessage();
+            final MimeMessageHelper message = new MimeMessageHelper(mimeMessage, UTF_8);
+            message.setSubject(subject);
+            message.setFrom(emailFrom);
             message.setTo(emailAddress.getEmailAddress());
+            message.setText(htmlContent, true /* isHtml */);
+            messages.add(mimeMessage);
         }
 
-        // Create the HTML body using Thymeleaf
-        final String htmlContent = this.templateEngine.process("email", ctx);
+        // Send emails
+        start = pipelineMetrics.start();
+        sendInBatches(messages);
+        pipelineMetrics.record(PipelineMetrics.SMTP_SEND, searchPage, start, messages.size());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.pavelsklenar.service.EmailService#sendDigest(java.lang.String, java.util.Map)
+     */
+    @Override
+    public void sendDigest(String emailAddress, Map<SearchPage, List<SearchResult>> resultsByPage)
+            throws MessagingException {
+        int count = 0;
+        for (List<SearchResult> results : resultsByPage.values()) {
+            count += results.size();
+        }
+        if (count == 0) {
+            LOG.info("Cannot send digest, it would be empty, no results to send.");
+            return;
+        }
+        LOG.info("Trying to send digest with {} new search results of {} pages", count, resultsByPage.size());
+        // Prepare the evaluation context
+        final Context ctx = new Context(Locale.getDefault());
+        ctx.setVariable("resultsByPage", resultsByPage);
+        ctx.setVariable("count", count);
+        ctx.setVariable("subscriptionDate", new Date());
+
+        // Prepare message using a Spring helper
+        final MimeMessage mimeMessage = this.mailSender.createMimeMessage();
+        final MimeMessageHelper message = new MimeMessageHelper(mimeMessage, UTF_8);
+        message.setSubject("Web-checker - nové nemovitosti (" + count + ")");
+        message.setFrom(emailFrom);
+        message.setTo(emailAddress);
+
+        long start = pipelineMetrics.start();
+        final String htmlContent = this.templateEngine.process("digest", ctx);
+        pipelineMetrics.record(PipelineMetrics.RENDER, null, start);
         message.setText(htmlContent, true /* isHtml */);
 
         // Send email
+        start = pipelineMetrics.start();
         this.mailSender.send(mimeMessage);
+        pipelineMetrics.record(PipelineMetrics.SMTP_SEND, null, start);
 
-        LOG.info("Email successfully send.");
-
+        LOG.info("Digest successfully send.");
     }
 
     /**
@@ -121,10 +212,126 @@ public class EmailServiceImpl implements EmailService {
         LOG.info("Email with error successfully send.");
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.pavelsklenar.service.EmailService#sendErrorSummary(java.util.Collection)
+     */
+    public void sendErrorSummary(Collection<ErrorSummary> errors) throws MessagingException {
+        int count = 0;
+        List<String> stackTraces = new ArrayList<String>();
+        for (ErrorSummary error : errors) {
+            count += error.getCount();
+            stackTraces.add(stackTraceToHtmlString(error.getFirstException()));
+        }
+        LOG.info("Trying to send an email with summary of {} repeated errors", count);
+        final Context ctx = new Context(Locale.getDefault());
+        ctx.setVariable("errors", errors);
+        ctx.setVariable("stackTraces", stackTraces);
+        ctx.setVariable("generatedDate", new Date());
+
+        final MimeMessage mimeMessage = this.mailSender.createMimeMessage();
+        final MimeMessageHelper message = new MimeMessageHelper(mimeMessage, UTF_8);
+        message.setSubject("Web-checker: " + count + " repeated errors of " + errors.size() + " kinds");
+        message.setFrom(emailFrom);
+        message.setTo(errorEmail);
+
+        final String htmlContent = this.templateEngine.process("error-summary", ctx);
+        message.setText(htmlContent, true /* isHtml */);
+
+        this.mailSender.send(mimeMessage);
+
+        LOG.info("Email with summary of errors successfully send.");
+    }
+
     public void setMailSender(JavaMailSender mailSender) {
         this.mailSender = mailSender;
     }
 
+    /**
+     * @param batchSize number of messages sent at once over one connection
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void init() {
+        fanOut = Executors.newFixedThreadPool(fanOutThreads, new CustomizableThreadFactory("mail-fan-out-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fanOut.shutdown();
+    }
+
+    /**
+     * Send messages in batches, more batches are sent in parallel. Messages
+     * failing in some of the batches are only logged, the others would be
+     * duplicated by repeating the whole notification.
+     */
+    private void sendInBatches(List<MimeMessage> messages) throws MessagingException {
+        if (messages.size() == 1) {
+            this.mailSender.send(messages.get(0));
+            return;
+        }
+        if (messages.size() <= batchSize) {
+            this.mailSender.send(messages.toArray(new MimeMessage[messages.size()]));
+            return;
+        }
+        List<MimeMessage[]> batches = new ArrayList<MimeMessage[]>();
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        for (int from = 0; from < messages.size(); from += batchSize) {
+            final MimeMessage[] batch = messages.subList(from, Math.min(from + batchSize, messages.size()))
+                    .toArray(new MimeMessage[0]);
+            batches.add(batch);
+            results.add(fanOut.submit(new Runnable() {
+                @Override
+                public void run() {
+                    mailSender.send(batch);
+                }
+            }));
+        }
+        int failed = 0;
+        Throwable lastFailure = null;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("Interrupted while sending emails");
+            } catch (ExecutionException e) {
+                lastFailure = e.getCause();
+                failed += failedMessagesOf(e.getCause(), batches.get(i).length);
+            }
+        }
+        if (lastFailure == null) {
+            return;
+        }
+        if (failed >= messages.size()) {
+            throw new MessagingException("No email could be sent: " + lastFailure.getMessage(),
+                    lastFailure instanceof Exception ? (Exception) lastFailure : null);
+        }
+        LOG.error("Only " + (messages.size() - failed) + " of " + messages.size() + " emails were sent.",
+                lastFailure);
+    }
+
+    private int failedMessagesOf(Throwable failure, int batchLength) {
+        if (failure instanceof MailSendException && !((MailSendException) failure).getFailedMessages().isEmpty()) {
+            return ((MailSendException) failure).getFailedMessages().size();
+        }
+        return batchLength;
+    }
+
+    private static boolean hasChanges(List<SearchResult> searchResults) {
+        for (SearchResult searchResult : searchResults) {
+            if (searchResult.getChange() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private String stackTraceToHtmlString(Throwable e) {
         StringBuilder sb = new StringBuilder();
         for (StackTraceElement element : e.getStackTrace()) {
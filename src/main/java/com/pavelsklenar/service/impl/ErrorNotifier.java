@@ -0,0 +1,183 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.service.EmailService;
+import com.pavelsklenar.service.ErrorSummary;
+
+/**
+ * Reports errors of processing search pages by e-mail without flooding the
+ * mailbox: the first error of a signature (type, message and place of the
+ * error) is sent at once, its repetitions are only counted and sent together
+ * in a periodic summary. A signature not repeated for a whole period is
+ * forgotten, so its next error is sent at once again.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class ErrorNotifier implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ErrorNotifier.class);
+
+    private static final int MAX_MESSAGE_LENGTH = 200;
+
+    private final EmailService emailService;
+
+    private final long summaryMillis;
+
+    private ScheduledExecutorService timer;
+
+    // time of the last error of every known signature
+    private final Map<String, Long> lastSeen = new HashMap<String, Long>();
+
+    // repeated errors since the last summary
+    private Map<String, ErrorSummary> repeated = new LinkedHashMap<String, ErrorSummary>();
+
+    private final AtomicLong sentAtOnce = new AtomicLong();
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private final AtomicLong summaries = new AtomicLong();
+
+    /**
+     * @param emailService service sending the e-mails
+     * @param summaryMinutes how often repeated errors are summarized
+     */
+    @Autowired
+    public ErrorNotifier(EmailService emailService,
+            @Value("${errorNotification.summaryMinutes:60}") long summaryMinutes) {
+        this.emailService = emailService;
+        this.summaryMillis = TimeUnit.MINUTES.toMillis(summaryMinutes);
+    }
+
+    @PostConstruct
+    public void init() {
+        timer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("error-summary-"));
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sendSummary();
+            }
+        }, summaryMillis, summaryMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        sendSummary();
+    }
+
+    /**
+     * Report an error
+     *
+     * @param page name of the search page failing, may be null
+     * @param exception the error
+     */
+    public void report(String page, Exception exception) {
+        String signature = signatureOf(exception);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (lastSeen.put(signature, now) != null) {
+                ErrorSummary summary = repeated.get(signature);
+                if (summary == null) {
+                    summary = new ErrorSummary(signature, exception, new Date(now));
+                    repeated.put(signature, summary);
+                }
+                summary.occurred(page, new Date(now));
+                suppressed.incrementAndGet();
+                LOG.debug("Error {} already reported, it is left for the summary.", signature);
+                return;
+            }
+        }
+        sentAtOnce.incrementAndGet();
+        try {
+            emailService.sendExcetionByEmail(exception);
+        } catch (Exception e) {
+            LOG.error("Cannot send e-mail with error", e);
+        }
+    }
+
+    /**
+     * Send the summary of errors repeated since the last one
+     */
+    public void sendSummary() {
+        Map<String, ErrorSummary> toSend;
+        synchronized (this) {
+            toSend = repeated;
+            repeated = new LinkedHashMap<String, ErrorSummary>();
+            long forgetBefore = System.currentTimeMillis() - summaryMillis;
+            for (Iterator<Long> iterator = lastSeen.values().iterator(); iterator.hasNext();) {
+                if (iterator.next() < forgetBefore) {
+                    iterator.remove();
+                }
+            }
+        }
+        if (toSend.isEmpty()) {
+            return;
+        }
+        summaries.incrementAndGet();
+        try {
+            emailService.sendErrorSummary(toSend.values());
+        } catch (Exception e) {
+            LOG.error("Cannot send e-mail with summary of errors", e);
+        }
+    }
+
+    @Override
+    public synchronized Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Integer>("errorNotification.signatures", lastSeen.size()));
+        result.add(new Metric<Long>("errorNotification.sentAtOnce", sentAtOnce.get()));
+        result.add(new Metric<Long>("errorNotification.suppressed", suppressed.get()));
+        result.add(new Metric<Long>("errorNotification.summaries", summaries.get()));
+        return result;
+    }
+
+    /**
+     * Signature of the error: type and message of the root cause, where
+     * numbers are left out, and the place it was thrown from
+     */
+    static String signatureOf(Throwable exception) {
+        Throwable root = exception;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        StringBuilder signature = new StringBuilder(root.getClass().getName());
+        if (root.getMessage() != null) {
+            String message = root.getMessage().replaceAll("\\d+", "#").replaceAll("\\s+", " ").trim();
+            if (message.length() > MAX_MESSAGE_LENGTH) {
+                message = message.substring(0, MAX_MESSAGE_LENGTH);
+            }
+            signature.append(": ").append(message);
+        }
+        if (root.getStackTrace().length > 0) {
+            StackTraceElement place = root.getStackTrace()[0];
+            signature.append(" at ").append(place.getClassName()).append('.').append(place.getMethodName());
+        }
+        return signature.toString();
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.ExtractionPlan;
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Cache of {@link ExtractionPlan}s, a plan is compiled again only when
+ * selectors of its {@link SearchPage} change
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class ExtractionPlanCache {
+
+    private final ConcurrentMap<Long, ExtractionPlan> plans = new ConcurrentHashMap<Long, ExtractionPlan>();
+
+    /**
+     * Get plan of the page, compile it when it does not exist yet or the page
+     * has changed. Plans of pages not saved yet are compiled every time, they
+     * are not cached.
+     *
+     * @param searchPage
+     * @return plan of the page
+     */
+    public ExtractionPlan getPlan(SearchPage searchPage) {
+        Long id = searchPage.getId();
+        if (id == null) {
+            return ExtractionPlan.compile(searchPage);
+        }
+        String signature = ExtractionPlan.signatureOf(searchPage);
+        ExtractionPlan plan = plans.get(id);
+        if (plan == null || !plan.getSignature().equals(signature)) {
+            plan = ExtractionPlan.compile(searchPage);
+            plans.put(id, plan);
+        }
+        return plan;
+    }
+
+}
@@ -0,0 +1,389 @@
+package com.pavelsklenar.service.impl;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.service.TooManyRequestsException;
+
+/**
+ * Runs tasks of search pages on a bounded pool of workers while being polite
+ * to every host: at most a given number of pages of the same host run at
+ * once, their starts are spaced by a minimal interval and the host is left
+ * alone for a while after it answers by {@link TooManyRequestsException}.<br />
+ * Waiting tasks are held in per-host queues and started by a timer, they never
+ * block a worker, so pages of other hosts run at full speed. Further requests
+ * of a running task wait for their turn by {@link #awaitTurn(String)}. State
+ * of hosts without any tasks is dropped once their pause and spacing are over.
+ * Tasks not started before shutdown are cancelled.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class HostDispatcher implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HostDispatcher.class);
+
+    private static final long EVICTION_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final int maxConcurrentPerHost;
+
+    private final long minSpacingMillis;
+
+    private final long defaultBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final long maxWaitMillis;
+
+    private final ExecutorService workers;
+
+    private final ScheduledExecutorService timer;
+
+    private final Map<String, HostState> hosts = new HashMap<String, HostState>();
+
+    private long evictedAt;
+
+    private boolean closed;
+
+    private final AtomicLong throttled = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * @param workers number of tasks running at once over all hosts
+     * @param maxConcurrentPerHost number of tasks running at once for one host
+     * @param minSpacingMillis minimal time between starts of two tasks of one host
+     * @param defaultBackoffSeconds pause of a host refusing requests without Retry-After, doubled on every repeated refusal
+     * @param maxBackoffSeconds the longest pause of a host
+     * @param maxWaitSeconds tasks of a host paused for a longer time are skipped until the next run
+     */
+    @Autowired
+    public HostDispatcher(@Value("${job.webChecker.workers:4}") int workers,
+            @Value("${hostPoliteness.maxConcurrentPerHost:1}") int maxConcurrentPerHost,
+            @Value("${hostPoliteness.minSpacingMillis:2000}") long minSpacingMillis,
+            @Value("${hostPoliteness.defaultBackoffSeconds:60}") long defaultBackoffSeconds,
+            @Value("${hostPoliteness.maxBackoffSeconds:3600}") long maxBackoffSeconds,
+            @Value("${hostPoliteness.maxWaitSeconds:120}") long maxWaitSeconds) {
+        this.maxConcurrentPerHost = maxConcurrentPerHost;
+        this.minSpacingMillis = minSpacingMillis;
+        this.defaultBackoffMillis = TimeUnit.SECONDS.toMillis(defaultBackoffSeconds);
+        this.maxBackoffMillis = TimeUnit.SECONDS.toMillis(maxBackoffSeconds);
+        this.maxWaitMillis = TimeUnit.SECONDS.toMillis(maxWaitSeconds);
+        this.workers = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("web-checker-"));
+        this.timer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("host-dispatcher-"));
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        List<DispatchedTask> notStarted = new ArrayList<DispatchedTask>();
+        synchronized (hosts) {
+            closed = true;
+            for (HostState state : hosts.values()) {
+                notStarted.addAll(state.pending);
+                state.pending.clear();
+            }
+        }
+        timer.shutdownNow();
+        for (Runnable waiting : workers.shutdownNow()) {
+            if (waiting instanceof StartTask) {
+                notStarted.add(((StartTask) waiting).task);
+            }
+        }
+        // callers waiting for the tasks must not wait forever
+        for (DispatchedTask task : notStarted) {
+            task.future.completeExceptionally(new CancellationException("Dispatcher stopped"));
+        }
+        workers.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Submit a task working with the given URL
+     *
+     * @param url URL the task is going to request, it determines the host
+     * @param task task to run
+     * @return future of the task, a task skipped due to a long pause of its
+     *         host is completed without running
+     */
+    public CompletableFuture<Void> submit(String url, Callable<Void> task) {
+        String host = hostOf(url);
+        DispatchedTask dispatched = new DispatchedTask(task);
+        synchronized (hosts) {
+            if (closed) {
+                dispatched.future.completeExceptionally(new CancellationException("Dispatcher stopped"));
+                return dispatched.future;
+            }
+            evictIdleHosts(System.currentTimeMillis());
+            HostState state = hosts.get(host);
+            if (state == null) {
+                state = new HostState();
+                hosts.put(host, state);
+            }
+            state.pending.addLast(dispatched);
+        }
+        drain(host);
+        return dispatched.future;
+    }
+
+    /**
+     * Wait for the turn of a further request of a running task, e.g. for the
+     * next page of results. The task keeps its place among the tasks running
+     * for the host, the request is spaced from other requests of the host and
+     * waits for the end of its pause like a start of a task.
+     *
+     * @param url URL the task is going to request, it determines the host
+     * @return false when the request must not be made, the host is paused for
+     *         a longer time or the dispatcher is stopped
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean awaitTurn(String url) throws InterruptedException {
+        String host = hostOf(url);
+        long wait;
+        synchronized (hosts) {
+            if (closed) {
+                return false;
+            }
+            HostState state = hosts.get(host);
+            if (state == null) {
+                state = new HostState();
+                hosts.put(host, state);
+            }
+            long now = System.currentTimeMillis();
+            if (state.pausedUntil - now > maxWaitMillis) {
+                return false;
+            }
+            long startAt = Math.max(now, Math.max(state.nextStartAt, state.pausedUntil));
+            state.nextStartAt = startAt + minSpacingMillis;
+            wait = startAt - now;
+        }
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+        return true;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        int pending = 0;
+        int active = 0;
+        int pausedHosts = 0;
+        int knownHosts;
+        long now = System.currentTimeMillis();
+        synchronized (hosts) {
+            knownHosts = hosts.size();
+            for (HostState state : hosts.values()) {
+                pending += state.pending.size();
+                active += state.active;
+                if (state.pausedUntil > now) {
+                    pausedHosts++;
+                }
+            }
+        }
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Integer>("hostDispatcher.pending", pending));
+        result.add(new Metric<Integer>("hostDispatcher.active", active));
+        result.add(new Metric<Integer>("hostDispatcher.pausedHosts", pausedHosts));
+        result.add(new Metric<Integer>("hostDispatcher.hosts", knownHosts));
+        result.add(new Metric<Long>("hostDispatcher.throttled", throttled.get()));
+        result.add(new Metric<Long>("hostDispatcher.skipped", skipped.get()));
+        return result;
+    }
+
+    /**
+     * Start as many waiting tasks of the host as allowed, schedule the next
+     * attempt when the host has to wait
+     */
+    private void drain(final String host) {
+        List<DispatchedTask> toStart = new ArrayList<DispatchedTask>();
+        List<DispatchedTask> toSkip = new ArrayList<DispatchedTask>();
+        synchronized (hosts) {
+            HostState state = hosts.get(host);
+            if (state == null || closed) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (state.pausedUntil - now > maxWaitMillis) {
+                toSkip.addAll(state.pending);
+                state.pending.clear();
+            }
+            while (!state.pending.isEmpty() && state.active < maxConcurrentPerHost) {
+                long startAt = Math.max(state.nextStartAt, state.pausedUntil);
+                if (startAt > now) {
+                    if (!state.drainScheduled) {
+                        state.drainScheduled = true;
+                        timer.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                synchronized (hosts) {
+                                    hosts.get(host).drainScheduled = false;
+                                }
+                                drain(host);
+                            }
+                        }, startAt - now, TimeUnit.MILLISECONDS);
+                    }
+                    break;
+                }
+                DispatchedTask task = state.pending.pollFirst();
+                if (task.future.isDone()) {
+                    // cancelled while waiting
+                    continue;
+                }
+                state.active++;
+                state.nextStartAt = now + minSpacingMillis;
+                toStart.add(task);
+            }
+        }
+        for (DispatchedTask task : toSkip) {
+            LOG.warn("Host {} is paused by its server, the page is skipped until the next run.", host);
+            skipped.incrementAndGet();
+            task.future.complete(null);
+        }
+        for (DispatchedTask task : toStart) {
+            workers.execute(new StartTask(host, task));
+        }
+    }
+
+    /**
+     * Drop state of hosts which have no tasks and whose pause and spacing are
+     * over, it is checked at most once per interval
+     */
+    private void evictIdleHosts(long now) {
+        if (now - evictedAt < EVICTION_INTERVAL_MILLIS) {
+            return;
+        }
+        evictedAt = now;
+        for (Iterator<HostState> iterator = hosts.values().iterator(); iterator.hasNext();) {
+            HostState state = iterator.next();
+            if (state.active == 0 && state.pending.isEmpty() && !state.drainScheduled && state.refusals == 0
+                    && state.pausedUntil <= now && state.nextStartAt <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void runTask(String host, DispatchedTask task) {
+        try {
+            if (task.future.isDone()) {
+                // cancelled while waiting for a worker
+                return;
+            }
+            task.task.call();
+            task.future.complete(null);
+            synchronized (hosts) {
+                hosts.get(host).refusals = 0;
+            }
+        } catch (TooManyRequestsException e) {
+            throttled.incrementAndGet();
+            synchronized (hosts) {
+                HostState state = hosts.get(host);
+                long pause = e.getRetryAfterMillis() >= 0 ? e.getRetryAfterMillis()
+                        : defaultBackoffMillis << Math.min(state.refusals, 16);
+                pause = Math.min(pause, maxBackoffMillis);
+                state.refusals++;
+                state.pausedUntil = Math.max(state.pausedUntil, System.currentTimeMillis() + pause);
+                LOG.warn("Host {} refused a request, it is paused for {} s: {}", host,
+                        TimeUnit.MILLISECONDS.toSeconds(pause), e.getMessage());
+                if (!task.retried && !closed) {
+                    // try once more after the pause, or skip it with the rest of the host
+                    task.retried = true;
+                    state.pending.addFirst(task);
+                } else {
+                    task.future.completeExceptionally(e);
+                }
+            }
+        } catch (Throwable e) {
+            task.future.completeExceptionally(e);
+        } finally {
+            synchronized (hosts) {
+                hosts.get(host).active--;
+            }
+            drain(host);
+        }
+    }
+
+    static String hostOf(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase(Locale.ENGLISH);
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    private static class HostState {
+
+        private final Deque<DispatchedTask> pending = new ArrayDeque<DispatchedTask>();
+
+        private int active;
+
+        private long nextStartAt;
+
+        private long pausedUntil;
+
+        private int refusals;
+
+        private boolean drainScheduled;
+    }
+
+    /**
+     * Start of a task on a worker, tasks never started are cancelled on
+     * shutdown
+     */
+    private class StartTask implements Runnable {
+
+        private final String host;
+
+        private final DispatchedTask task;
+
+        StartTask(String host, DispatchedTask task) {
+            this.host = host;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            runTask(host, task);
+        }
+    }
+
+    private static class DispatchedTask {
+
+        private final Callable<Void> task;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+        private boolean retried;
+
+        DispatchedTask(Callable<Void> task) {
+            this.task = task;
+        }
+    }
+
+}
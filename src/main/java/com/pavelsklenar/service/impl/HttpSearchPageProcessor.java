@@ -0,0 +1,320 @@
+package com.pavelsklenar.service.impl;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+import com.gargoylesoftware.htmlunit.ProxyConfig;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.html.DomElement;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HTMLParser;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.pavelsklenar.domain.ExtractionPlan;
+import com.pavelsklenar.domain.ExtractionPlan.Selector;
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.service.FetchedSearchPage;
+import com.pavelsklenar.service.FetchedSearchPage.Status;
+import com.pavelsklenar.service.SearchPageVersion;
+import com.pavelsklenar.service.TooManyRequestsException;
+
+/**
+ * Processor of {@link SearchPage}s which do not need JavaScript, the page is
+ * downloaded by a plain HTTP request and parsed in-process without any
+ * browser.<br />
+ * The request is conditional (ETag, Last-Modified) when the previous version
+ * of the page is known. Further pages of results are read as long as
+ * {@link Pagination} allows, the version is that of the first page.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class HttpSearchPageProcessor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpSearchPageProcessor.class);
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    @Value("${httpProxy.url:}")
+    private String httpProxyUrl;
+
+    @Value("${httpProxy.port:3128}")
+    private Integer httpProxyPort;
+
+    @Value("${httpFetch.timeoutSeconds:30}")
+    private int timeoutSeconds;
+
+    @Autowired
+    private ExtractionPlanCache extractionPlanCache;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private Pagination pagination;
+
+    /**
+     * Download and parse {@link SearchPage} and return list of found
+     * {@link SearchResult}, the page is not extracted when it is the same as
+     * the previous version
+     *
+     * @param searchPageToProcess
+     * @param previous the last processed version, null to process the page in
+     *            any case
+     * @return found results or information that the page has not changed
+     * @throws Exception
+     */
+    public FetchedSearchPage processSearch(SearchPage searchPageToProcess, SearchPageVersion previous)
+            throws Exception {
+        List<SearchResult> result = new ArrayList<SearchResult>();
+        if (!searchPageToProcess.isEnabled()) {
+            return FetchedSearchPage.changed(null, result);
+        }
+        WebClient webClient = createWebClient();
+        try {
+            long start = pipelineMetrics.start();
+            WebResponse response;
+            HtmlPage htmlPage;
+            try {
+                response = loadResponse(webClient, searchPageToProcess.getUrl(), previous);
+                if (previous != null && response.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                    return FetchedSearchPage.unchanged(Status.NOT_MODIFIED, previous);
+                }
+                htmlPage = parsePage(webClient, searchPageToProcess.getUrl(), response);
+            } finally {
+                // refused and failed requests are measured too
+                pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, searchPageToProcess, start);
+            }
+            LOG.trace("Page found {}", htmlPage.asXml());
+            ExtractionPlan plan = extractionPlanCache.getPlan(searchPageToProcess);
+            start = pipelineMetrics.start();
+            List<DomNode> searchResultsElements = selectAll(htmlPage, plan.getListOfResults());
+            LOG.info("Number of result found: {}", searchResultsElements.size());
+            SearchPageVersion version = new SearchPageVersion(response.getResponseHeaderValue("ETag"),
+                    response.getResponseHeaderValue("Last-Modified"), contentHashOf(searchResultsElements));
+            if (version.hasSameContent(previous)) {
+                // the rows were read to be compared, results are not counted as they are not processed
+                pipelineMetrics.record(PipelineMetrics.EXTRACT, searchPageToProcess, start,
+                        searchResultsElements.size());
+                return FetchedSearchPage.unchanged(Status.SAME_CONTENT, version);
+            }
+            List<SearchResult> resultsOfPage = extract(searchPageToProcess, plan, htmlPage, searchResultsElements);
+            result.addAll(resultsOfPage);
+            Pagination.Crawl crawl = pagination.begin(searchPageToProcess, plan);
+            crawl.pageExtracted(resultsOfPage);
+            while (crawl.hasNext()) {
+                String nextUrl = getUrlIfExistsFromElement(htmlPage, htmlPage.getDocumentElement(),
+                        plan.getNextPage(), "href");
+                if (!crawl.follow(nextUrl)) {
+                    break;
+                }
+                try {
+                    start = pipelineMetrics.start();
+                    try {
+                        htmlPage = parsePage(webClient, nextUrl, loadResponse(webClient, nextUrl, null));
+                    } finally {
+                        pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, searchPageToProcess, start);
+                    }
+                    resultsOfPage = extract(searchPageToProcess, plan, htmlPage,
+                            selectAll(htmlPage, plan.getListOfResults()));
+                } catch (TooManyRequestsException e) {
+                    // the dispatcher pauses the host and checks the whole page again later
+                    throw e;
+                } catch (Exception e) {
+                    // results of the pages read so far are still processed
+                    LOG.warn("Next page {} of search page {} cannot be read: {}", nextUrl,
+                            searchPageToProcess.getUrl(), e.toString());
+                    break;
+                }
+                result.addAll(resultsOfPage);
+                crawl.pageExtracted(resultsOfPage);
+            }
+            return FetchedSearchPage.changed(version, result);
+        } finally {
+            webClient.close();
+        }
+    }
+
+    /**
+     * Extract results of one page of results
+     */
+    private List<SearchResult> extract(SearchPage searchPageToProcess, ExtractionPlan plan, HtmlPage htmlPage,
+            List<DomNode> searchResultsElements) {
+        long start = pipelineMetrics.start();
+        List<SearchResult> result = new ArrayList<SearchResult>();
+        for (DomNode node : searchResultsElements) {
+            if (!(node instanceof DomElement)) {
+                continue;
+            }
+            DomElement element = (DomElement) node;
+            if (plan.shouldBeOmitted(element.getAttribute("class"))) {
+                LOG.info("Element will omitted due to the present element.");
+                continue;
+            }
+            SearchResult searchResult = new SearchResult(searchPageToProcess);
+            searchResult.setPrice(getTextIfExistsFromElement(element, plan.getPrice()));
+            searchResult.setTitle(getTextIfExistsFromElement(element, plan.getTitle()));
+            searchResult.setDescription(getTextIfExistsFromElement(element, plan.getDescription()));
+            searchResult.setUrl(getUrlIfExistsFromElement(htmlPage, element, plan.getUrl(), "href"));
+            searchResult.setImageUrl(getUrlIfExistsFromElement(htmlPage, element, plan.getImage(), "src"));
+            if (searchResult.getUrl() == null) {
+                LOG.info("SearchResult will be skipped due to the empty url: {}", searchResult);
+            } else {
+                LOG.info("Found element: {}", searchResult.toString());
+                result.add(searchResult);
+            }
+        }
+        pipelineMetrics.record(PipelineMetrics.EXTRACT, searchPageToProcess, start, searchResultsElements.size());
+        pipelineMetrics.count(PipelineMetrics.FOUND, searchPageToProcess, searchResultsElements.size());
+        pipelineMetrics.count(PipelineMetrics.OMITTED, searchPageToProcess,
+                searchResultsElements.size() - result.size());
+        return result;
+    }
+
+    /**
+     * Download the page, conditionally when validators of the previous
+     * version are known. No other resources (frames, scripts, images,
+     * styles) are downloaded.
+     */
+    private WebResponse loadResponse(WebClient webClient, String url, SearchPageVersion previous)
+            throws Exception {
+        WebRequest request = new WebRequest(new URL(url));
+        if (previous != null && previous.getEtag() != null) {
+            request.setAdditionalHeader("If-None-Match", previous.getEtag());
+        }
+        if (previous != null && previous.getLastModified() != null) {
+            request.setAdditionalHeader("If-Modified-Since", previous.getLastModified());
+        }
+        WebResponse response = webClient.loadWebResponse(request);
+        String retryAfter = response.getResponseHeaderValue("Retry-After");
+        if (response.getStatusCode() == SC_TOO_MANY_REQUESTS
+                || (response.getStatusCode() == HttpStatus.SC_SERVICE_UNAVAILABLE && retryAfter != null)) {
+            throw new TooManyRequestsException("Search page " + url + " refused by status "
+                    + response.getStatusCode() + ", Retry-After: " + retryAfter, parseRetryAfter(retryAfter));
+        }
+        if (response.getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
+            throw new FailingHttpStatusCodeException(response);
+        }
+        return response;
+    }
+
+    /**
+     * @return delay in milliseconds given by seconds or by a HTTP date, -1
+     *         when it is missing or invalid
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(retryAfter.trim());
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    private HtmlPage parsePage(WebClient webClient, String url, WebResponse response) throws Exception {
+        String contentType = response.getContentType();
+        if (!contentType.isEmpty() && !contentType.contains("html")) {
+            throw new IllegalStateException("Search page " + url
+                    + " is not a HTML page, content type: " + contentType);
+        }
+        return HTMLParser.parseHtml(response, webClient.getCurrentWindow());
+    }
+
+    /**
+     * Hash of the markup of all results, the rest of the page (ads,
+     * timestamps, counters) does not matter
+     */
+    private String contentHashOf(List<DomNode> searchResultsElements) {
+        List<String> markup = new ArrayList<String>(searchResultsElements.size());
+        for (DomNode node : searchResultsElements) {
+            markup.add(node.asXml());
+        }
+        return SearchPageVersion.hashOf("html", markup);
+    }
+
+    private WebClient createWebClient() {
+        WebClient webClient = new WebClient(BrowserVersion.getDefault());
+        webClient.getOptions().setJavaScriptEnabled(false);
+        webClient.getOptions().setCssEnabled(false);
+        webClient.getOptions().setAppletEnabled(false);
+        webClient.getOptions().setDownloadImages(false);
+        webClient.getOptions().setTimeout((int) TimeUnit.SECONDS.toMillis(timeoutSeconds));
+        if (httpProxyUrl != null && !httpProxyUrl.isEmpty()) {
+            webClient.getOptions().setProxyConfig(new ProxyConfig(httpProxyUrl, httpProxyPort));
+        }
+        return webClient;
+    }
+
+    private String getTextIfExistsFromElement(DomElement element, Selector selector) {
+        DomNode node = selectFirst(element, selector);
+        return node == null ? null : node.asText();
+    }
+
+    /**
+     * Get attribute containing an URL, relative URLs are resolved against the
+     * page (the same way as a browser does)
+     */
+    private String getUrlIfExistsFromElement(HtmlPage htmlPage, DomElement element, Selector selector,
+            String attribute) {
+        DomNode node = selectFirst(element, selector);
+        if (!(node instanceof DomElement)) {
+            return null;
+        }
+        String value = ((DomElement) node).getAttribute(attribute);
+        if (value == DomElement.ATTRIBUTE_NOT_DEFINED) {
+            return null;
+        }
+        try {
+            return htmlPage.getFullyQualifiedUrl(value).toString();
+        } catch (Exception e) {
+            LOG.warn("Value {} of attribute {} is not a valid URL", value, attribute);
+            return value;
+        }
+    }
+
+    private List<DomNode> selectAll(DomNode context, Selector selector) {
+        if (selector.isCss()) {
+            return context.querySelectorAll(selector.getExpression());
+        }
+        List<DomNode> result = new ArrayList<DomNode>();
+        for (Object node : context.getByXPath(selector.getExpression())) {
+            if (node instanceof DomNode) {
+                result.add((DomNode) node);
+            }
+        }
+        return result;
+    }
+
+    private DomNode selectFirst(DomElement element, Selector selector) {
+        if (element == null || selector == null) {
+            return null;
+        }
+        Object node = selector.isCss() ? element.querySelector(selector.getExpression())
+                : element.getFirstByXPath(selector.getExpression());
+        if (node instanceof DomNode) {
+            return (DomNode) node;
+        }
+        LOG.debug("Selector {} cannot be located in element {}", selector, element);
+        return null;
+    }
+
+}
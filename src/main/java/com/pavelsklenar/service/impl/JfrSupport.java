@@ -0,0 +1,154 @@
+package com.pavelsklenar.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+
+import com.pavelsklenar.domain.SearchPage;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+
+/**
+ * All use of the Flight Recorder API, the class is loaded only when the JVM
+ * provides it, see {@link PipelineEvents}
+ *
+ * @author pavel.sklenar
+ *
+ */
+final class JfrSupport {
+
+    private static final String CATEGORY = "Web Checker";
+
+    private JfrSupport() {
+    }
+
+    static boolean isAvailable() {
+        return FlightRecorder.isAvailable();
+    }
+
+    /**
+     * @return begun event of the stage, null when the event is not enabled in
+     *         any running recording
+     */
+    static StageEvent begin(String stage, SearchPage searchPage) {
+        StageEvent event;
+        if (PipelineEvents.PROCESS_SEARCH.equals(stage)) {
+            event = new ProcessSearchEvent();
+        } else if (PipelineEvents.PROCESS_COMPARE.equals(stage)) {
+            event = new ProcessCompareEvent();
+        } else if (PipelineEvents.SAVE_RESULTS.equals(stage)) {
+            event = new SaveResultsEvent();
+        } else if (PipelineEvents.SEND_RESULTS.equals(stage)) {
+            event = new SendResultsEvent();
+        } else {
+            throw new IllegalArgumentException("Unknown stage " + stage);
+        }
+        if (!event.isEnabled()) {
+            return null;
+        }
+        if (searchPage != null) {
+            event.pageId = searchPage.getId() == null ? -1 : searchPage.getId();
+            event.pageName = searchPage.getName();
+            event.url = searchPage.getUrl();
+        }
+        event.begin();
+        return event;
+    }
+
+    static void commit(StageEvent event, int rows) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+    static ContinuousRecording startRecording(long maxAgeMillis, long maxSizeBytes) throws Exception {
+        Recording recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("web-checker");
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMillis(maxAgeMillis));
+        recording.setMaxSize(maxSizeBytes);
+        for (Class<? extends StageEvent> type : ContinuousRecording.STAGE_EVENTS) {
+            recording.enable(type).withoutStackTrace();
+        }
+        recording.start();
+        return new ContinuousRecording(recording);
+    }
+
+    /**
+     * Running recording, a wrapper which does not expose the Flight Recorder
+     * API
+     */
+    static final class ContinuousRecording {
+
+        @SuppressWarnings("unchecked")
+        private static final Class<? extends StageEvent>[] STAGE_EVENTS = new Class[] { ProcessSearchEvent.class,
+                ProcessCompareEvent.class, SaveResultsEvent.class, SendResultsEvent.class };
+
+        private final Recording recording;
+
+        private ContinuousRecording(Recording recording) {
+            this.recording = recording;
+        }
+
+        void dump(File file) throws IOException {
+            recording.dump(file.toPath());
+        }
+
+        void close() {
+            recording.close();
+        }
+    }
+
+    @Category(CATEGORY)
+    @StackTrace(false)
+    abstract static class StageEvent extends Event {
+
+        @Label("Page Id")
+        long pageId;
+
+        @Label("Page")
+        String pageName;
+
+        @Label("URL")
+        String url;
+
+        @Label("Rows")
+        @Description("Number of search results processed")
+        int rows;
+    }
+
+    @Name("com.pavelsklenar.ProcessSearch")
+    @Label("Process Search Page")
+    @Description("Loading of a search page and extraction of its results")
+    static class ProcessSearchEvent extends StageEvent {
+    }
+
+    @Name("com.pavelsklenar.ProcessCompare")
+    @Label("Compare Search Results")
+    @Description("Lookup of already known search results")
+    static class ProcessCompareEvent extends StageEvent {
+    }
+
+    @Name("com.pavelsklenar.SaveSearchResults")
+    @Label("Save Search Results")
+    @Description("Saving of new search results to DB")
+    static class SaveResultsEvent extends StageEvent {
+    }
+
+    @Name("com.pavelsklenar.SendSearchResults")
+    @Label("Send Search Results")
+    @Description("Rendering and sending e-mails with new search results")
+    static class SendResultsEvent extends StageEvent {
+    }
+
+}
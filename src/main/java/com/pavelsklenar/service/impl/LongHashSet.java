@@ -0,0 +1,111 @@
+package com.pavelsklenar.service.impl;
+
+/**
+ * Open-addressing hash set of primitive longs, 8 bytes per slot with no
+ * per-entry objects.<br />
+ * Not thread-safe, callers synchronize access.
+ *
+ * @author pavel.sklenar
+ *
+ */
+class LongHashSet {
+
+    private static final long EMPTY = 0L;
+
+    /**
+     * Zero marks an empty slot, so the value zero is tracked aside
+     */
+    private boolean containsZero;
+
+    private long[] slots;
+
+    private int size;
+
+    LongHashSet(int expectedSize) {
+        slots = new long[capacityFor(expectedSize)];
+    }
+
+    boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int index = indexOf(value, slots);
+        if (slots[index] == value) {
+            return false;
+        }
+        slots[index] = value;
+        size++;
+        if (size > slots.length / 2) {
+            rehash(slots.length * 2);
+        }
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsZero;
+        }
+        return slots[indexOf(value, slots)] == value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes allocated by the slot table
+     */
+    long memoryBytes() {
+        return slots.length * 8L;
+    }
+
+    /**
+     * @return copy of all values in the set
+     */
+    long[] toArray() {
+        long[] values = new long[size];
+        int i = 0;
+        if (containsZero) {
+            values[i++] = EMPTY;
+        }
+        for (long slot : slots) {
+            if (slot != EMPTY) {
+                values[i++] = slot;
+            }
+        }
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        long[] rehashed = new long[capacity];
+        for (long slot : slots) {
+            if (slot != EMPTY) {
+                rehashed[indexOf(slot, rehashed)] = slot;
+            }
+        }
+        slots = rehashed;
+    }
+
+    private static int indexOf(long value, long[] table) {
+        int mask = table.length - 1;
+        int index = (int) (value ^ (value >>> 32)) & mask;
+        while (table[index] != EMPTY && table[index] != value) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.pavelsklenar.service.impl;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.service.EmailService;
+
+/**
+ * Last stage of processing of search pages, new and changed results found by
+ * {@link DedupStage} are handed over to {@link EmailService} (or collected
+ * into digests). Results are saved once the e-mail, or every digest with
+ * them, is sent, so they are never saved without being reported. Comparison
+ * and reporting of further pages go on meanwhile.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class NotifyStage extends PipelineStage {
+
+    /**
+     * @param workers number of threads reporting and saving results, 0 does
+     *            it by the comparing thread
+     * @param capacity the most pages waiting to be reported
+     * @param drainTimeoutSeconds how long queued pages are reported on
+     *            shutdown
+     */
+    @Autowired
+    public NotifyStage(PipelineMetrics pipelineMetrics, @Value("${notifyStage.workers:2}") int workers,
+            @Value("${notifyStage.queueCapacity:8}") int capacity,
+            @Value("${notifyStage.drainTimeoutSeconds:60}") long drainTimeoutSeconds) {
+        super("notifyStage", PipelineMetrics.NOTIFY_QUEUE_WAIT, pipelineMetrics, workers, capacity,
+                drainTimeoutSeconds);
+    }
+
+}
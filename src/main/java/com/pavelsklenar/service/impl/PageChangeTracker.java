@@ -0,0 +1,114 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.ExtractionPlan;
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.service.FetchedSearchPage;
+import com.pavelsklenar.service.FetchedSearchPage.Status;
+import com.pavelsklenar.service.SearchPageVersion;
+
+/**
+ * Remembers the last fully processed {@link SearchPageVersion} of every
+ * {@link SearchPage} and counts how many pages were found unchanged.<br />
+ * A version is remembered only for the same URL and selectors, any change of
+ * the page configuration forces a full processing.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class PageChangeTracker implements PublicMetrics {
+
+    @Value("${searchPage.skipUnchanged:true}")
+    private boolean enabled;
+
+    private final ConcurrentMap<Object, ConfirmedVersion> versions = new ConcurrentHashMap<Object, ConfirmedVersion>();
+
+    private final Map<Status, AtomicLong> counters = new EnumMap<Status, AtomicLong>(Status.class);
+
+    PageChangeTracker() {
+        for (Status status : Status.values()) {
+            counters.put(status, new AtomicLong());
+        }
+    }
+
+    /**
+     * @param searchPage
+     * @return the last confirmed version of the page, null when there is no
+     *         usable version
+     */
+    public SearchPageVersion getConfirmedVersion(SearchPage searchPage) {
+        if (!enabled) {
+            return null;
+        }
+        ConfirmedVersion confirmed = versions.get(keyOf(searchPage));
+        if (confirmed == null || !confirmed.configuration.equals(configurationOf(searchPage))) {
+            return null;
+        }
+        return confirmed.version;
+    }
+
+    /**
+     * Remember the version of a fully processed page
+     *
+     * @param searchPage
+     * @param fetched
+     */
+    public void confirm(SearchPage searchPage, FetchedSearchPage fetched) {
+        if (!enabled) {
+            return;
+        }
+        if (fetched.getVersion() == null) {
+            versions.remove(keyOf(searchPage));
+        } else {
+            versions.put(keyOf(searchPage), new ConfirmedVersion(configurationOf(searchPage), fetched.getVersion()));
+        }
+    }
+
+    public void record(Status status) {
+        counters.get(status).incrementAndGet();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Long>("searchPage.changed", counters.get(Status.CHANGED).get()));
+        result.add(new Metric<Long>("searchPage.unchanged.notModified", counters.get(Status.NOT_MODIFIED).get()));
+        result.add(new Metric<Long>("searchPage.unchanged.sameContent", counters.get(Status.SAME_CONTENT).get()));
+        return result;
+    }
+
+    private static Object keyOf(SearchPage searchPage) {
+        return searchPage.getId() != null ? searchPage.getId() : searchPage.getUrl();
+    }
+
+    private static String configurationOf(SearchPage searchPage) {
+        return searchPage.getUrl() + '\n' + searchPage.isJavascriptEnabled() + '\n'
+                + ExtractionPlan.signatureOf(searchPage);
+    }
+
+    private static class ConfirmedVersion {
+
+        private final String configuration;
+
+        private final SearchPageVersion version;
+
+        ConfirmedVersion(String configuration, SearchPageVersion version) {
+            this.configuration = configuration;
+            this.version = version;
+        }
+    }
+
+}
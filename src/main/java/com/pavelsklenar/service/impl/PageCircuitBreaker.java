@@ -0,0 +1,198 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Stops checking a search page which keeps failing, e.g. when its portal is
+ * down, so it does not waste the time of workers and browsers.<br />
+ * After a given number of consecutive failures the circuit of the page opens
+ * and the page is skipped. When the pause is over, one check is let through as
+ * a probe: its success closes the circuit, its failure opens it again for a
+ * doubled pause, up to a maximum.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class PageCircuitBreaker implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageCircuitBreaker.class);
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final boolean enabled;
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private final long maxOpenMillis;
+
+    private final Map<Object, Circuit> circuits = new HashMap<Object, Circuit>();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong opened = new AtomicLong();
+
+    /**
+     * @param enabled whether failing pages are skipped
+     * @param failureThreshold number of consecutive failures opening the circuit
+     * @param openSeconds the first pause of a failing page
+     * @param maxOpenSeconds the longest pause of a failing page
+     */
+    @Autowired
+    public PageCircuitBreaker(@Value("${circuitBreaker.enabled:true}") boolean enabled,
+            @Value("${circuitBreaker.failureThreshold:3}") int failureThreshold,
+            @Value("${circuitBreaker.openSeconds:600}") long openSeconds,
+            @Value("${circuitBreaker.maxOpenSeconds:21600}") long maxOpenSeconds) {
+        this.enabled = enabled;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = TimeUnit.SECONDS.toMillis(openSeconds);
+        this.maxOpenMillis = Math.max(openMillis, TimeUnit.SECONDS.toMillis(maxOpenSeconds));
+    }
+
+    /**
+     * Decide whether the page may be checked now, every allowed check has to
+     * be followed by {@link #recordSuccess(SearchPage)},
+     * {@link #recordFailure(SearchPage)} or
+     * {@link #recordInconclusive(SearchPage)}
+     */
+    public boolean allowRequest(SearchPage searchPage) {
+        return allowRequest(searchPage, System.currentTimeMillis());
+    }
+
+    public void recordSuccess(SearchPage searchPage) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (circuits) {
+            Circuit circuit = circuits.remove(keyOf(searchPage));
+            if (circuit != null && circuit.state != State.CLOSED) {
+                LOG.info("Search page {} works again, its circuit is closed.", searchPage.getName());
+            }
+        }
+    }
+
+    public void recordFailure(SearchPage searchPage) {
+        recordFailure(searchPage, System.currentTimeMillis());
+    }
+
+    /**
+     * The check ended without telling whether the page works, e.g. its host
+     * refused the request, a probe is let through again next time
+     */
+    public void recordInconclusive(SearchPage searchPage) {
+        synchronized (circuits) {
+            Circuit circuit = circuits.get(keyOf(searchPage));
+            if (circuit != null && circuit.state == State.HALF_OPEN) {
+                circuit.state = State.OPEN;
+            }
+        }
+    }
+
+    State stateOf(SearchPage searchPage) {
+        synchronized (circuits) {
+            Circuit circuit = circuits.get(keyOf(searchPage));
+            return circuit == null ? State.CLOSED : circuit.state;
+        }
+    }
+
+    boolean allowRequest(SearchPage searchPage, long now) {
+        if (!enabled) {
+            return true;
+        }
+        synchronized (circuits) {
+            Circuit circuit = circuits.get(keyOf(searchPage));
+            if (circuit == null || circuit.state == State.CLOSED) {
+                return true;
+            }
+            if (circuit.state == State.OPEN && now >= circuit.openUntil) {
+                LOG.info("Pause of search page {} is over, trying it again.", searchPage.getName());
+                circuit.state = State.HALF_OPEN;
+                return true;
+            }
+            // still paused, or the probe has not finished yet
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    void recordFailure(SearchPage searchPage, long now) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (circuits) {
+            Object key = keyOf(searchPage);
+            Circuit circuit = circuits.get(key);
+            if (circuit == null) {
+                circuit = new Circuit();
+                circuits.put(key, circuit);
+            }
+            circuit.failures++;
+            if (circuit.state == State.HALF_OPEN || circuit.failures >= failureThreshold) {
+                long pause = Math.min(maxOpenMillis, openMillis << Math.min(circuit.opened, 16));
+                circuit.opened++;
+                circuit.state = State.OPEN;
+                circuit.openUntil = now + pause;
+                opened.incrementAndGet();
+                LOG.warn("Search page {} failed {} times in a row, it is paused for {} min.", searchPage.getName(),
+                        circuit.failures, TimeUnit.MILLISECONDS.toMinutes(pause));
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        int open = 0;
+        int halfOpen = 0;
+        synchronized (circuits) {
+            for (Circuit circuit : circuits.values()) {
+                if (circuit.state == State.OPEN) {
+                    open++;
+                } else if (circuit.state == State.HALF_OPEN) {
+                    halfOpen++;
+                }
+            }
+        }
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Integer>("circuitBreaker.open", open));
+        result.add(new Metric<Integer>("circuitBreaker.halfOpen", halfOpen));
+        result.add(new Metric<Long>("circuitBreaker.opened", opened.get()));
+        result.add(new Metric<Long>("circuitBreaker.rejected", rejected.get()));
+        return result;
+    }
+
+    private Object keyOf(SearchPage searchPage) {
+        return searchPage.getId() != null ? searchPage.getId() : searchPage.getUrl();
+    }
+
+    private static class Circuit {
+
+        private State state = State.CLOSED;
+
+        private int failures;
+
+        // number of times the circuit opened without closing in between
+        private int opened;
+
+        private long openUntil;
+    }
+
+}
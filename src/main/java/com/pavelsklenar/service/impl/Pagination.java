@@ -0,0 +1,161 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.ExtractionPlan;
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.service.SearchRepoService;
+
+/**
+ * Decides whether the next page of results of a {@link SearchPage} is read.
+ * Pages are followed up to a limit and crawling stops early when a run of
+ * consecutive results is already known, i.e. saved or seen on an earlier page
+ * of the same crawl. Listings sorted by the newest are then read only until
+ * the results of the previous check are reached.<br />
+ * Results are looked up in {@link SeenUrlIndex}, in DB until it is loaded.
+ * Every further page waits for its turn by {@link HostDispatcher}, so it is
+ * spaced from other requests to the host and never sent while the host is
+ * paused.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class Pagination {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Pagination.class);
+
+    /** The most pages read in one check, unless the page sets its own limit */
+    @Value("${pagination.maxPages:5}")
+    private int maxPages = 5;
+
+    /** Number of consecutive known results which stops crawling, 0 never stops */
+    @Value("${pagination.stopAfterKnown:5}")
+    private int stopAfterKnown = 5;
+
+    private final SeenUrlIndex seenUrlIndex;
+
+    private final SearchRepoService searchRepoService;
+
+    private final PipelineMetrics pipelineMetrics;
+
+    private final HostDispatcher hostDispatcher;
+
+    @Autowired
+    public Pagination(SeenUrlIndex seenUrlIndex, SearchRepoService searchRepoService,
+            PipelineMetrics pipelineMetrics, HostDispatcher hostDispatcher) {
+        this.seenUrlIndex = seenUrlIndex;
+        this.searchRepoService = searchRepoService;
+        this.pipelineMetrics = pipelineMetrics;
+        this.hostDispatcher = hostDispatcher;
+    }
+
+    /**
+     * Begin a crawl of the page, the first page has been loaded from the URL
+     * of the page
+     */
+    public Crawl begin(SearchPage searchPage, ExtractionPlan plan) {
+        int limit = searchPage.getMaxPages() != null ? searchPage.getMaxPages() : maxPages;
+        return new Crawl(searchPage, plan.getNextPage() == null ? 1 : Math.max(1, limit));
+    }
+
+    /**
+     * Pages read in one check of a {@link SearchPage}, not thread safe
+     */
+    class Crawl {
+
+        private final SearchPage searchPage;
+
+        private final int limit;
+
+        private final Set<String> visitedUrls = new HashSet<String>();
+
+        private final Set<String> crawledUrls = new HashSet<String>();
+
+        private int pages = 1;
+
+        private int knownRun;
+
+        private Crawl(SearchPage searchPage, int limit) {
+            this.searchPage = searchPage;
+            this.limit = limit;
+            visitedUrls.add(searchPage.getUrl());
+        }
+
+        /**
+         * @return true when another page may follow the current one, the link
+         *         to it needs to be looked up
+         */
+        public boolean hasNext() {
+            return pages < limit && (stopAfterKnown <= 0 || knownRun < stopAfterKnown);
+        }
+
+        /**
+         * Check the results of the page just read one by one in their order,
+         * the run of known results continues from the previous page
+         */
+        public void pageExtracted(List<SearchResult> resultsOfPage) {
+            if (pages >= limit || stopAfterKnown <= 0) {
+                // no further page is read, the results need not be checked
+                return;
+            }
+            Set<String> savedUrls = seenUrlIndex.isLoaded() ? null : findSavedUrls(resultsOfPage);
+            for (SearchResult searchResult : resultsOfPage) {
+                String url = searchResult.getUrl();
+                boolean known = !crawledUrls.add(url)
+                        || (savedUrls == null ? seenUrlIndex.contains(url) : savedUrls.contains(url));
+                knownRun = known ? knownRun + 1 : 0;
+                if (knownRun >= stopAfterKnown) {
+                    LOG.info("Crawling of search page {} stops at page {}, {} consecutive results are known.",
+                            searchPage.getUrl(), pages, knownRun);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @param nextUrl absolute URL of the next page, null when the page has
+         *            no link to it
+         * @return true when the next page is to be read, it is counted as read
+         * @throws InterruptedException when interrupted while waiting for the
+         *             turn of the host
+         */
+        public boolean follow(String nextUrl) throws InterruptedException {
+            if (nextUrl == null || !hasNext()) {
+                return false;
+            }
+            if (!visitedUrls.add(nextUrl)) {
+                LOG.info("Next page {} of search page {} has already been read.", nextUrl, searchPage.getUrl());
+                return false;
+            }
+            if (!hostDispatcher.awaitTurn(nextUrl)) {
+                LOG.warn("Host of next page {} of search page {} is paused, the rest is left for the next run.",
+                        nextUrl, searchPage.getUrl());
+                return false;
+            }
+            pages++;
+            pipelineMetrics.count(PipelineMetrics.PAGES_FOLLOWED, searchPage, 1);
+            LOG.info("Following page {} of search page {}: {}", pages, searchPage.getUrl(), nextUrl);
+            return true;
+        }
+
+        private Set<String> findSavedUrls(List<SearchResult> resultsOfPage) {
+            List<String> urls = new ArrayList<String>(resultsOfPage.size());
+            for (SearchResult searchResult : resultsOfPage) {
+                urls.add(searchResult.getUrl());
+            }
+            return searchRepoService.findExistingUrls(urls);
+        }
+    }
+
+}
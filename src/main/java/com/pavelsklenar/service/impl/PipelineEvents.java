@@ -0,0 +1,194 @@
+package com.pavelsklenar.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Emits Java Flight Recorder events around the stages of processing a search
+ * page (fetch, compare, save, send), so slow cycles can be examined after the
+ * fact in a recording together with GC, I/O and thread events of the JVM.<br />
+ * The recording can run continuously in a bounded ring buffer and be started,
+ * dumped and stopped over JMX. When the JVM has no Flight Recorder the events
+ * are not emitted and the operations fail.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+@ManagedResource(objectName = "com.pavelsklenar:type=PipelineEvents", description = "Flight Recorder of search page processing")
+public class PipelineEvents {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineEvents.class);
+
+    static final String PROCESS_SEARCH = "processSearch";
+
+    static final String PROCESS_COMPARE = "processCompare";
+
+    static final String SAVE_RESULTS = "saveAllSearchResults";
+
+    static final String SEND_RESULTS = "sendSearchResults";
+
+    private static final Span NO_SPAN = new Span() {
+        @Override
+        public void end(int rows) {
+        }
+    };
+
+    private final boolean available = ClassUtils.isPresent("jdk.jfr.FlightRecorder",
+            PipelineEvents.class.getClassLoader()) && JfrSupport.isAvailable();
+
+    private final boolean continuous;
+
+    private final long maxAgeMillis;
+
+    private final long maxSizeBytes;
+
+    private final File dumpDirectory;
+
+    private JfrSupport.ContinuousRecording recording;
+
+    /**
+     * One measured stage, its duration is recorded when it ends
+     */
+    interface Span {
+
+        /**
+         * @param rows number of results processed by the stage
+         */
+        void end(int rows);
+    }
+
+    /**
+     * @param continuous whether the recording starts with the application
+     * @param maxAgeMinutes how old events are kept by the recording
+     * @param maxSizeMegabytes how much events are kept by the recording
+     * @param dumpDirectory where dumps of the recording are written
+     */
+    @Autowired
+    public PipelineEvents(@Value("${profiling.recording.continuous:false}") boolean continuous,
+            @Value("${profiling.recording.maxAgeMinutes:60}") long maxAgeMinutes,
+            @Value("${profiling.recording.maxSizeMegabytes:100}") long maxSizeMegabytes,
+            @Value("${profiling.recording.dumpDirectory:${java.io.tmpdir}}") String dumpDirectory) {
+        this.continuous = continuous;
+        this.maxAgeMillis = TimeUnit.MINUTES.toMillis(maxAgeMinutes);
+        this.maxSizeBytes = maxSizeMegabytes * 1024 * 1024;
+        this.dumpDirectory = new File(dumpDirectory);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!available) {
+            LOG.info("Flight Recorder is not available, events of search page processing are not emitted.");
+        } else if (continuous) {
+            startRecording();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            if (recording != null) {
+                recording.close();
+                recording = null;
+            }
+        }
+    }
+
+    /**
+     * Begin a stage of processing the page, the returned span has to be ended
+     * by the caller
+     *
+     * @param stage one of the stages defined by this class
+     * @param searchPage processed page
+     */
+    public Span begin(String stage, SearchPage searchPage) {
+        if (!available) {
+            return NO_SPAN;
+        }
+        final JfrSupport.StageEvent event = JfrSupport.begin(stage, searchPage);
+        if (event == null) {
+            return NO_SPAN;
+        }
+        return new Span() {
+            @Override
+            public void end(int rows) {
+                JfrSupport.commit(event, rows);
+            }
+        };
+    }
+
+    @ManagedAttribute(description = "Whether the JVM provides Flight Recorder")
+    public boolean isAvailable() {
+        return available;
+    }
+
+    @ManagedAttribute(description = "Whether the continuous recording is running")
+    public synchronized boolean isRecording() {
+        return recording != null;
+    }
+
+    @ManagedOperation(description = "Start the continuous recording, events older or larger than the limits are dropped")
+    public synchronized void startRecording() {
+        checkAvailable();
+        if (recording != null) {
+            return;
+        }
+        try {
+            recording = JfrSupport.startRecording(maxAgeMillis, maxSizeBytes);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot start Flight Recorder: " + e.getMessage(), e);
+        }
+        LOG.info("Flight Recorder started, it keeps {} min or {} MB of events.",
+                TimeUnit.MILLISECONDS.toMinutes(maxAgeMillis), maxSizeBytes / 1024 / 1024);
+    }
+
+    @ManagedOperation(description = "Write the events of the running recording to a file, returns its path")
+    public synchronized String dumpRecording() throws IOException {
+        checkAvailable();
+        if (recording == null) {
+            throw new IllegalStateException("Flight Recorder is not running.");
+        }
+        if (!dumpDirectory.isDirectory() && !dumpDirectory.mkdirs()) {
+            throw new IOException("Cannot create directory " + dumpDirectory);
+        }
+        File file = new File(dumpDirectory,
+                "web-checker-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".jfr");
+        recording.dump(file);
+        LOG.info("Flight Recorder dumped to {}", file);
+        return file.getAbsolutePath();
+    }
+
+    @ManagedOperation(description = "Stop the continuous recording, its events are discarded")
+    public synchronized void stopRecording() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+            LOG.info("Flight Recorder stopped.");
+        }
+    }
+
+    private void checkAvailable() {
+        if (!available) {
+            throw new IllegalStateException("Flight Recorder is not available in this JVM.");
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+package com.pavelsklenar.service.impl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Timers and counters of all stages of processing a search page, from
+ * getting a browser to sending e-mails.<br />
+ * Every value is kept in total, per host and per search page, so slow portals
+ * can be told from a slow stage. The values are published as metrics
+ * (pipeline.&lt;stage&gt;[.host.&lt;host&gt;|.page.&lt;page id&gt;].count,
+ * avgMillis, maxMillis) and periodically written to the log. Pages are keyed
+ * by their id, so renamed pages keep their values and pages of the same name
+ * are not mixed, pages not saved yet by their name.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class PipelineMetrics implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineMetrics.class);
+
+    static final String DRIVER_ACQUIRE = "driverAcquire";
+
+    static final String PAGE_LOAD = "pageLoad";
+
+    /** Time of extraction of one result row */
+    static final String EXTRACT = "extract";
+
+    /** Wait of a fetched page for comparison of its results */
+    static final String DEDUP_QUEUE_WAIT = "dedupQueueWait";
+
+    /** Wait of compared results for being reported and saved */
+    static final String NOTIFY_QUEUE_WAIT = "notifyQueueWait";
+
+    static final String DEDUP = "dedup";
+
+    /** Comparison of already saved results with their fingerprints */
+    static final String CHANGE_DIFF = "changeDiff";
+
+    static final String DB_SAVE = "dbSave";
+
+    static final String RENDER = "render";
+
+    static final String SMTP_SEND = "smtpSend";
+
+    static final String FOUND = "results.found";
+
+    static final String OMITTED = "results.omitted";
+
+    static final String NEW = "results.new";
+
+    static final String DUPLICATE = "results.duplicate";
+
+    static final String CHANGED = "results.changed";
+
+    /** Further pages of results read after the first one */
+    static final String PAGES_FOLLOWED = "pages.followed";
+
+    private static final String PREFIX = "pipeline.";
+
+    private static final int SLOWEST_PAGES_LOGGED = 5;
+
+    private final long logMillis;
+
+    private ScheduledExecutorService timer;
+
+    private final ConcurrentMap<String, Stage> stages = new ConcurrentHashMap<String, Stage>();
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    // names of pages by their keys, for the log only
+    private final ConcurrentMap<String, String> pageNames = new ConcurrentHashMap<String, String>();
+
+    /**
+     * @param logMinutes how often the metrics are written to the log, 0 never
+     */
+    @Autowired
+    public PipelineMetrics(@Value("${pipeline.metrics.logMinutes:15}") long logMinutes) {
+        this.logMillis = TimeUnit.MINUTES.toMillis(logMinutes);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (logMillis > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("pipeline-metrics-"));
+            timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    logMetrics();
+                }
+            }, logMillis, logMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * @return start of a measured stage, to be passed to
+     *         {@link #record(String, SearchPage, long)}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a stage which started at the given time and ends now
+     *
+     * @param stage name of the stage
+     * @param searchPage page processed by the stage, null when there is none
+     * @param startNanos value of {@link #start()}
+     */
+    public void record(String stage, SearchPage searchPage, long startNanos) {
+        record(stage, searchPage, startNanos, 1);
+    }
+
+    /**
+     * Record a stage processing more items at once, its average is computed
+     * per item
+     *
+     * @param units number of items processed by the stage
+     */
+    public void record(String stage, SearchPage searchPage, long startNanos, long units) {
+        long nanos = System.nanoTime() - startNanos;
+        for (String key : keysOf(stage, searchPage)) {
+            Stage measured = stages.get(key);
+            if (measured == null) {
+                Stage created = new Stage();
+                measured = stages.putIfAbsent(key, created);
+                if (measured == null) {
+                    measured = created;
+                }
+            }
+            measured.record(nanos, Math.max(1, units));
+        }
+    }
+
+    /**
+     * Add to a counter of results
+     */
+    public void count(String counter, SearchPage searchPage, long delta) {
+        if (delta <= 0) {
+            return;
+        }
+        for (String key : keysOf(counter, searchPage)) {
+            AtomicLong value = counters.get(key);
+            if (value == null) {
+                AtomicLong created = new AtomicLong();
+                value = counters.putIfAbsent(key, created);
+                if (value == null) {
+                    value = created;
+                }
+            }
+            value.addAndGet(delta);
+        }
+    }
+
+    /**
+     * @return number of recorded calls of the stage in total
+     */
+    long getCount(String stage) {
+        Stage measured = stages.get(PREFIX + stage);
+        return measured == null ? 0 : measured.count.get();
+    }
+
+    /**
+     * @return value of the counter in total, per host or per page
+     */
+    long getCounter(String name) {
+        AtomicLong value = counters.get(PREFIX + name);
+        return value == null ? 0 : value.get();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        for (Map.Entry<String, Stage> entry : new TreeMap<String, Stage>(stages).entrySet()) {
+            Stage stage = entry.getValue();
+            result.add(new Metric<Long>(entry.getKey() + ".count", stage.count.get()));
+            result.add(new Metric<Double>(entry.getKey() + ".avgMillis", stage.getAvgMillis()));
+            result.add(new Metric<Double>(entry.getKey() + ".maxMillis", stage.getMaxMillis()));
+        }
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            result.add(new Metric<Long>(entry.getKey(), entry.getValue().get()));
+        }
+        return result;
+    }
+
+    /**
+     * Write totals of all stages and counters and the slowest pages to the log
+     */
+    void logMetrics() {
+        if (stages.isEmpty() && counters.isEmpty()) {
+            return;
+        }
+        List<String> slowestPages = new ArrayList<String>();
+        for (Map.Entry<String, Stage> entry : new TreeMap<String, Stage>(stages).entrySet()) {
+            String key = entry.getKey();
+            Stage stage = entry.getValue();
+            if (key.indexOf('.', PREFIX.length()) < 0) {
+                LOG.info("Stage {}: {} calls, avg {} ms, max {} ms", key.substring(PREFIX.length()),
+                        stage.count.get(), String.format("%.1f", stage.getAvgMillis()),
+                        String.format("%.1f", stage.getMaxMillis()));
+            } else if (key.startsWith(PREFIX + PAGE_LOAD + ".page.")) {
+                slowestPages.add(key);
+            }
+        }
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            if (entry.getKey().indexOf('.', PREFIX.length() + "results.".length()) < 0) {
+                LOG.info("Counter {}: {}", entry.getKey().substring(PREFIX.length()), entry.getValue().get());
+            }
+        }
+        Collections.sort(slowestPages, new Comparator<String>() {
+            @Override
+            public int compare(String first, String second) {
+                return Double.compare(stages.get(second).getAvgMillis(), stages.get(first).getAvgMillis());
+            }
+        });
+        for (String key : slowestPages.subList(0, Math.min(SLOWEST_PAGES_LOGGED, slowestPages.size()))) {
+            String pageKey = key.substring((PREFIX + PAGE_LOAD + ".page.").length());
+            LOG.info("Slow page {} ({}): avg load {} ms", pageKey, pageNames.get(pageKey),
+                    String.format("%.1f", stages.get(key).getAvgMillis()));
+        }
+    }
+
+    private List<String> keysOf(String name, SearchPage searchPage) {
+        List<String> keys = new ArrayList<String>(3);
+        keys.add(PREFIX + name);
+        if (searchPage != null) {
+            keys.add(PREFIX + name + ".host." + sanitize(hostOf(searchPage)));
+            keys.add(PREFIX + name + ".page." + pageKeyOf(searchPage));
+        }
+        return keys;
+    }
+
+    private String pageKeyOf(SearchPage searchPage) {
+        String pageKey = searchPage.getId() != null ? String.valueOf(searchPage.getId())
+                : sanitize(String.valueOf(searchPage.getName()));
+        if (searchPage.getName() != null) {
+            pageNames.put(pageKey, searchPage.getName());
+        }
+        return pageKey;
+    }
+
+    private static String hostOf(SearchPage searchPage) {
+        try {
+            String host = new URI(searchPage.getUrl()).getHost();
+            return host == null ? "unknown" : host;
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Name usable as a part of metric name, dots would split it
+     */
+    static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9_-]+", "_");
+    }
+
+    private static class Stage {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong units = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos, long processedUnits) {
+            count.incrementAndGet();
+            units.addAndGet(processedUnits);
+            totalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // another thread updated the maximum, try again
+            }
+        }
+
+        private double getAvgMillis() {
+            long processedUnits = units.get();
+            return processedUnits == 0 ? 0 : totalNanos.get() / 1e6 / processedUnits;
+        }
+
+        private double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+    }
+
+}
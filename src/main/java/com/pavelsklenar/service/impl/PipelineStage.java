@@ -0,0 +1,206 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Stage of processing of search pages run by its own threads and fed by a
+ * bounded queue, see {@link DedupStage} and {@link NotifyStage}.<br />
+ * When the queue is full, the submitting thread waits for a free place, so
+ * only the queued pages and the pages being processed by the previous stages
+ * are held in memory. Pages still queued on shutdown are processed before the
+ * application stops, pages submitted later are processed by the caller. With
+ * no threads every page is processed by the caller.
+ *
+ * @author pavel.sklenar
+ *
+ */
+class PipelineStage implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineStage.class);
+
+    private final String name;
+
+    private final String queueWaitStage;
+
+    private final PipelineMetrics pipelineMetrics;
+
+    private final BlockingQueue<QueuedPage<?>> queue;
+
+    private final int capacity;
+
+    private final long drainTimeoutMillis;
+
+    private final ExecutorService workers;
+
+    private volatile boolean closed;
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong blocked = new AtomicLong();
+
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    /**
+     * @param name prefix of metrics and names of threads
+     * @param queueWaitStage stage of {@link PipelineMetrics} measuring the wait
+     *            in the queue
+     * @param workers number of threads of the stage, 0 processes pages by the
+     *            caller
+     * @param capacity the most pages waiting in the queue
+     * @param drainTimeoutSeconds how long queued pages are processed on
+     *            shutdown
+     */
+    PipelineStage(String name, String queueWaitStage, PipelineMetrics pipelineMetrics, int workers, int capacity,
+            long drainTimeoutSeconds) {
+        this.name = name;
+        this.queueWaitStage = queueWaitStage;
+        this.pipelineMetrics = pipelineMetrics;
+        this.capacity = Math.max(1, capacity);
+        this.queue = new ArrayBlockingQueue<QueuedPage<?>>(this.capacity);
+        this.drainTimeoutMillis = TimeUnit.SECONDS.toMillis(drainTimeoutSeconds);
+        if (workers > 0) {
+            this.workers = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory(name + "-"));
+            for (int i = 0; i < workers; i++) {
+                this.workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        processQueued();
+                    }
+                });
+            }
+        } else {
+            this.workers = null;
+        }
+    }
+
+    /**
+     * Queue a page, the caller waits while the queue is full
+     *
+     * @param searchPage processed page
+     * @param task work of the stage on the page
+     * @return future of the task
+     * @throws InterruptedException when interrupted while waiting for a free
+     *             place
+     */
+    public <T> CompletableFuture<T> submit(SearchPage searchPage, Callable<T> task) throws InterruptedException {
+        QueuedPage<T> queued = new QueuedPage<T>(searchPage, task);
+        if (workers == null || closed) {
+            queued.process();
+            return queued.future;
+        }
+        if (!queue.offer(queued)) {
+            blocked.incrementAndGet();
+            LOG.debug("Stage {} is full, the previous stage waits for a free place.", name);
+            queue.put(queued);
+        }
+        if (closed && queue.remove(queued)) {
+            // queued while the stage was stopping, its threads may have ended already
+            queued.process();
+        }
+        return queued.future;
+    }
+
+    /**
+     * Process all queued pages and stop the threads
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        closed = true;
+        if (workers == null) {
+            return;
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            workers.shutdownNow();
+            LOG.error("{} search pages were not processed by stage {} before shutdown.", queue.size(), name);
+        }
+        // frees the queue for callers still waiting in submit, they process their pages themselves
+        QueuedPage<?> left;
+        while ((left = queue.poll()) != null) {
+            left.future.completeExceptionally(new CancellationException("Stage " + name + " stopped"));
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Integer>(name + ".queue.size", queue.size()));
+        result.add(new Metric<Integer>(name + ".queue.capacity", capacity));
+        result.add(new Metric<Long>(name + ".queue.blocked", blocked.get()));
+        result.add(new Metric<Long>(name + ".queue.maxWaitMillis", maxWaitMillis.get()));
+        result.add(new Metric<Long>(name + ".processed", processed.get()));
+        return result;
+    }
+
+    private void processQueued() {
+        while (!closed || !queue.isEmpty()) {
+            QueuedPage<?> queued;
+            try {
+                queued = queue.poll(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (queued != null) {
+                recordWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued.queuedAt));
+                pipelineMetrics.record(queueWaitStage, queued.searchPage, queued.queuedAt);
+                queued.process();
+            }
+        }
+    }
+
+    private void recordWait(long waitMillis) {
+        long max;
+        while (waitMillis > (max = maxWaitMillis.get())) {
+            if (maxWaitMillis.compareAndSet(max, waitMillis)) {
+                break;
+            }
+        }
+    }
+
+    private class QueuedPage<T> {
+
+        private final SearchPage searchPage;
+
+        private final Callable<T> task;
+
+        private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        private final long queuedAt = pipelineMetrics.start();
+
+        QueuedPage(SearchPage searchPage, Callable<T> task) {
+            this.searchPage = searchPage;
+            this.task = task;
+        }
+
+        void process() {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                processed.incrementAndGet();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+/**
+ * {@link JavaMailSenderImpl} which keeps connected and authenticated SMTP
+ * transports in a small pool instead of connecting for every call of
+ * {@code send}.<br />
+ * A transport is closed after sending a configured number of messages or
+ * after staying idle for too long, as servers drop idle connections anyway. A
+ * message failing because the server closed the connection is sent once more
+ * over a new connection.
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class PooledJavaMailSender extends JavaMailSenderImpl implements PublicMetrics, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PooledJavaMailSender.class);
+
+    private static final String HEADER_MESSAGE_ID = "Message-ID";
+
+    private final int maxSize;
+
+    private int maxMessagesPerConnection = 100;
+
+    private long maxIdleMillis = TimeUnit.SECONDS.toMillis(30);
+
+    private long borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+
+    private final Semaphore permits;
+
+    private final LinkedBlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<PooledTransport>();
+
+    private volatile boolean closed;
+
+    private final AtomicLong connected = new AtomicLong();
+
+    private final AtomicLong reused = new AtomicLong();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param maxSize maximal number of connections open at the same time
+     */
+    public PooledJavaMailSender(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid SMTP connection pool size: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Send the messages over one pooled connection, the contract follows
+     * {@link JavaMailSenderImpl#doSend(MimeMessage[], Object[])}
+     */
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<Object, Exception>();
+        acquirePermit();
+        PooledTransport pooled = null;
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                Object original = (originalMessages != null ? originalMessages[i] : mimeMessages[i]);
+                MimeMessage mimeMessage = mimeMessages[i];
+                Address[] addresses;
+                try {
+                    prepare(mimeMessage);
+                    addresses = mimeMessage.getAllRecipients();
+                } catch (Exception ex) {
+                    failedMessages.put(original, ex);
+                    continue;
+                }
+                for (int attempt = 1;; attempt++) {
+                    if (pooled == null) {
+                        try {
+                            pooled = borrow();
+                        } catch (AuthenticationFailedException ex) {
+                            throw new MailAuthenticationException(ex);
+                        } catch (Exception ex) {
+                            // all remaining messages failed
+                            for (int j = i; j < mimeMessages.length; j++) {
+                                failedMessages.put(originalMessages != null ? originalMessages[j] : mimeMessages[j], ex);
+                            }
+                            failed.addAndGet(mimeMessages.length - i);
+                            throw new MailSendException("Mail server connection failed", ex, failedMessages);
+                        }
+                    }
+                    try {
+                        pooled.transport.sendMessage(mimeMessage, (addresses != null ? addresses : new Address[0]));
+                        pooled.messages++;
+                        sent.incrementAndGet();
+                        break;
+                    } catch (Exception ex) {
+                        if (pooled.isConnected()) {
+                            // the message itself was refused
+                            failed.incrementAndGet();
+                            failedMessages.put(original, ex);
+                            break;
+                        }
+                        // the server has closed the connection
+                        discard(pooled);
+                        pooled = null;
+                        if (attempt > 1) {
+                            failed.incrementAndGet();
+                            failedMessages.put(original, ex);
+                            break;
+                        }
+                        LOG.debug("SMTP connection lost, the message is sent over a new one.", ex);
+                    }
+                }
+            }
+        } finally {
+            if (pooled != null) {
+                release(pooled);
+            }
+            permits.release();
+        }
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        closed = true;
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Integer>("mail.pool.active", maxSize - permits.availablePermits()));
+        result.add(new Metric<Integer>("mail.pool.idle", idle.size()));
+        result.add(new Metric<Integer>("mail.pool.max", maxSize));
+        result.add(new Metric<Long>("mail.pool.connected", connected.get()));
+        result.add(new Metric<Long>("mail.pool.reused", reused.get()));
+        result.add(new Metric<Long>("mail.sent", sent.get()));
+        result.add(new Metric<Long>("mail.failed", failed.get()));
+        return result;
+    }
+
+    public long getConnectedCount() {
+        return connected.get();
+    }
+
+    /**
+     * @param maxMessagesPerConnection number of messages after which a connection is closed, 0 means unlimited
+     */
+    public void setMaxMessagesPerConnection(int maxMessagesPerConnection) {
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+    }
+
+    /**
+     * @param maxIdleSeconds idle time after which a connection is closed instead of being reused
+     */
+    public void setMaxIdleSeconds(long maxIdleSeconds) {
+        this.maxIdleMillis = TimeUnit.SECONDS.toMillis(maxIdleSeconds);
+    }
+
+    /**
+     * @param borrowTimeoutSeconds how long to wait for a free connection when all are in use
+     */
+    public void setBorrowTimeoutSeconds(long borrowTimeoutSeconds) {
+        this.borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(borrowTimeoutSeconds);
+    }
+
+    private void acquirePermit() {
+        if (closed) {
+            throw new MailSendException("SMTP connection pool has been already closed.");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new MailSendException("No SMTP connection available within " + borrowTimeoutMillis + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailSendException("Interrupted while waiting for SMTP connection.", e);
+        }
+    }
+
+    private PooledTransport borrow() throws MessagingException {
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pooled.releasedAt > maxIdleMillis) {
+                LOG.debug("Closing SMTP connection idle for too long.");
+                discard(pooled);
+            } else {
+                reused.incrementAndGet();
+                return pooled;
+            }
+        }
+        pooled = new PooledTransport(connectTransport());
+        connected.incrementAndGet();
+        return pooled;
+    }
+
+    private void release(PooledTransport pooled) {
+        if (closed || (maxMessagesPerConnection > 0 && pooled.messages >= maxMessagesPerConnection)) {
+            discard(pooled);
+        } else {
+            pooled.releasedAt = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        }
+    }
+
+    private void discard(PooledTransport pooled) {
+        try {
+            pooled.transport.close();
+        } catch (Exception e) {
+            LOG.debug("Exception when closing SMTP connection", e);
+        }
+    }
+
+    private void prepare(MimeMessage mimeMessage) throws MessagingException {
+        if (mimeMessage.getSentDate() == null) {
+            mimeMessage.setSentDate(new Date());
+        }
+        String messageId = mimeMessage.getMessageID();
+        mimeMessage.saveChanges();
+        if (messageId != null) {
+            // preserve explicitly specified message id
+            mimeMessage.setHeader(HEADER_MESSAGE_ID, messageId);
+        }
+    }
+
+    private static class PooledTransport {
+
+        private final Transport transport;
+
+        private int messages;
+
+        private long releasedAt;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        boolean isConnected() {
+            try {
+                return transport.isConnected();
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+
+}
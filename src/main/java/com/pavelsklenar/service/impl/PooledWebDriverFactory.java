@@ -0,0 +1,330 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import com.pavelsklenar.service.WebDriverFactory;
+
+/**
+ * {@link WebDriverFactory} which keeps created {@link WebDriver} instances in a
+ * pool and lends them out instead of starting a new browser process for every
+ * page.<br />
+ * Every driver is health-checked when borrowed and recycled after serving a
+ * configured number of pages or after reaching a configured age, to contain
+ * the memory growth of long running browser processes.
+ *
+ * @author pavel.sklenar
+ *
+ */
+public abstract class PooledWebDriverFactory implements WebDriverFactory, PublicMetrics, InitializingBean,
+        DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PooledWebDriverFactory.class);
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private int maxPagesPerDriver = 50;
+
+    private long maxAgeMillis = TimeUnit.MINUTES.toMillis(30);
+
+    private long borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(120);
+
+    private final Semaphore permits;
+
+    private final LinkedBlockingDeque<PooledDriver> idle = new LinkedBlockingDeque<PooledDriver>();
+
+    private final Map<WebDriver, PooledDriver> active = new IdentityHashMap<WebDriver, PooledDriver>();
+
+    private volatile boolean closed;
+
+    private final AtomicLong created = new AtomicLong();
+
+    private final AtomicLong recycled = new AtomicLong();
+
+    private final AtomicLong invalidated = new AtomicLong();
+
+    private final AtomicLong borrowed = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param minSize number of drivers started in advance
+     * @param maxSize maximal number of drivers existing at the same time
+     */
+    public PooledWebDriverFactory(int minSize, int maxSize) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException(
+                    "Invalid WebDriver pool size, min: " + minSize + ", max: " + maxSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Create a new {@link WebDriver} instance, it is called only when the pool
+     * has no idle driver to lend
+     *
+     * @return new driver
+     */
+    protected abstract WebDriver createWebDriver();
+
+    @Override
+    public void afterPropertiesSet() {
+        for (int i = 0; i < minSize; i++) {
+            try {
+                idle.offerLast(new PooledDriver(newDriver()));
+            } catch (Exception e) {
+                LOG.warn("Cannot pre-start WebDriver, it will be created on demand.", e);
+                break;
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.pavelsklenar.service.WebDriverFactory#getWebDriver()
+     */
+    @Override
+    public WebDriver getWebDriver() {
+        if (closed) {
+            throw new WebDriverException("WebDriver pool has been already closed.");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new WebDriverException("No WebDriver available within " + borrowTimeoutMillis + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebDriverException("Interrupted while waiting for WebDriver.", e);
+        }
+        recordWait(System.nanoTime() - start);
+        try {
+            PooledDriver pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (pooled.isWornOut()) {
+                    LOG.debug("Recycling WebDriver after {} pages.", pooled.pages);
+                    recycled.incrementAndGet();
+                    quit(pooled.driver);
+                } else if (!pooled.isHealthy()) {
+                    LOG.warn("Idle WebDriver failed health check, it will be replaced.");
+                    invalidated.incrementAndGet();
+                    quit(pooled.driver);
+                } else {
+                    break;
+                }
+            }
+            if (pooled == null) {
+                pooled = new PooledDriver(newDriver());
+            }
+            synchronized (active) {
+                active.put(pooled.driver, pooled);
+            }
+            borrowed.incrementAndGet();
+            return pooled.driver;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.pavelsklenar.service.WebDriverFactory#releaseWebDriver(org.openqa.
+     * selenium.WebDriver)
+     */
+    @Override
+    public void releaseWebDriver(WebDriver driver) {
+        PooledDriver pooled = removeActive(driver);
+        if (pooled == null) {
+            return;
+        }
+        pooled.pages++;
+        if (closed) {
+            quit(driver);
+        } else if (pooled.isWornOut()) {
+            LOG.debug("Recycling WebDriver after {} pages.", pooled.pages);
+            recycled.incrementAndGet();
+            quit(driver);
+        } else {
+            idle.offerFirst(pooled);
+        }
+        permits.release();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.pavelsklenar.service.WebDriverFactory#invalidateWebDriver(org.openqa.
+     * selenium.WebDriver)
+     */
+    @Override
+    public void invalidateWebDriver(WebDriver driver) {
+        PooledDriver pooled = removeActive(driver);
+        if (pooled == null) {
+            return;
+        }
+        invalidated.incrementAndGet();
+        quit(driver);
+        permits.release();
+    }
+
+    @Override
+    public void destroy() {
+        closed = true;
+        PooledDriver pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            quit(pooled.driver);
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        long borrowCount = borrowed.get();
+        result.add(new Metric<Integer>("webdriver.pool.active", getActiveCount()));
+        result.add(new Metric<Integer>("webdriver.pool.idle", getIdleCount()));
+        result.add(new Metric<Integer>("webdriver.pool.max", maxSize));
+        result.add(new Metric<Long>("webdriver.pool.created", created.get()));
+        result.add(new Metric<Long>("webdriver.pool.recycled", recycled.get()));
+        result.add(new Metric<Long>("webdriver.pool.invalidated", invalidated.get()));
+        result.add(new Metric<Long>("webdriver.pool.borrowed", borrowCount));
+        result.add(new Metric<Long>("webdriver.pool.wait.max",
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get())));
+        result.add(new Metric<Long>("webdriver.pool.wait.avg",
+                borrowCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / borrowCount)));
+        return result;
+    }
+
+    public int getActiveCount() {
+        synchronized (active) {
+            return active.size();
+        }
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getRecycledCount() {
+        return recycled.get();
+    }
+
+    /**
+     * @param maxPagesPerDriver number of pages after which a driver is recycled, 0 means unlimited
+     */
+    public void setMaxPagesPerDriver(int maxPagesPerDriver) {
+        this.maxPagesPerDriver = maxPagesPerDriver;
+    }
+
+    /**
+     * @param maxAgeMinutes age in minutes after which a driver is recycled, 0 means unlimited
+     */
+    public void setMaxAgeMinutes(long maxAgeMinutes) {
+        this.maxAgeMillis = TimeUnit.MINUTES.toMillis(maxAgeMinutes);
+    }
+
+    /**
+     * @param borrowTimeoutSeconds how long to wait for a free driver when the pool is exhausted
+     */
+    public void setBorrowTimeoutSeconds(long borrowTimeoutSeconds) {
+        this.borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(borrowTimeoutSeconds);
+    }
+
+    private WebDriver newDriver() {
+        WebDriver driver = createWebDriver();
+        long count = created.incrementAndGet();
+        LOG.info("New WebDriver created, total created: {}", count);
+        return driver;
+    }
+
+    private PooledDriver removeActive(WebDriver driver) {
+        if (driver == null) {
+            return null;
+        }
+        PooledDriver pooled;
+        synchronized (active) {
+            pooled = active.remove(driver);
+        }
+        if (pooled == null) {
+            LOG.warn("WebDriver {} does not belong to the pool, it will be quit.", driver);
+            quit(driver);
+        }
+        return pooled;
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.addAndGet(waitNanos);
+        long max;
+        while (waitNanos > (max = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(max, waitNanos)) {
+                break;
+            }
+        }
+    }
+
+    private void quit(WebDriver driver) {
+        try {
+            driver.quit();
+        } catch (Exception e) {
+            LOG.warn("Excetion when quiting driver", e);
+        }
+    }
+
+    private class PooledDriver {
+
+        private final WebDriver driver;
+
+        private final long createdAt = System.currentTimeMillis();
+
+        private int pages;
+
+        PooledDriver(WebDriver driver) {
+            this.driver = driver;
+        }
+
+        boolean isWornOut() {
+            return (maxPagesPerDriver > 0 && pages >= maxPagesPerDriver)
+                    || (maxAgeMillis > 0 && System.currentTimeMillis() - createdAt >= maxAgeMillis);
+        }
+
+        boolean isHealthy() {
+            try {
+                driver.getWindowHandles();
+                return true;
+            } catch (Exception e) {
+                LOG.debug("WebDriver health check failed", e);
+                return false;
+            }
+        }
+    }
+
+}
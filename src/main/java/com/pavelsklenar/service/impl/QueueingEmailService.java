@@ -0,0 +1,388 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.mail.MessagingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.service.EmailService;
+import com.pavelsklenar.service.ErrorSummary;
+
+/**
+ * {@link EmailService} which only puts notifications into a bounded queue,
+ * they are sent by dedicated sender threads through {@link EmailServiceImpl},
+ * so a slow mail server does not hold up checking of search pages.<br />
+ * When the queue is full, the caller waits for a free place for a limited time
+ * and then gets a {@link MessagingException}. Failed notifications are tried
+ * again after a delay. Notifications still queued on shutdown are sent before
+ * the application stops, those coming later are sent directly.<br />
+ * Futures returned by {@link #submitSearchResults(SearchPage, List)} and
+ * {@link #submitDigest(String, Map)} complete once the e-mail is really sent, or exceptionally when it is given
+ * up, so the caller can save the results only when they have been reported.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@ConditionalOnProperty(name = "notification.async", matchIfMissing = true)
+@Primary
+@Component
+class QueueingEmailService implements EmailService, PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueueingEmailService.class);
+
+    private final EmailService delegate;
+
+    private final BlockingQueue<Notification> queue;
+
+    private final int capacity;
+
+    private final int maxAttempts;
+
+    private final long retryDelayMillis;
+
+    private final long offerTimeoutMillis;
+
+    private final long drainTimeoutMillis;
+
+    private final ExecutorService senders;
+
+    private final ScheduledExecutorService retryTimer;
+
+    private volatile boolean closed;
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong retried = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong blocked = new AtomicLong();
+
+    private final AtomicLong maxLatencyMillis = new AtomicLong();
+
+    /**
+     * @param delegate service actually sending e-mails
+     * @param capacity the most notifications waiting in the queue
+     * @param senderThreads number of threads sending e-mails
+     * @param maxAttempts how many times a notification is tried before it is given up
+     * @param retryDelaySeconds delay before a failed notification is tried again
+     * @param offerTimeoutSeconds how long a caller waits when the queue is full
+     * @param drainTimeoutSeconds how long queued notifications are sent on shutdown
+     */
+    @Autowired
+    public QueueingEmailService(@Qualifier("emailServiceImpl") EmailService delegate,
+            @Value("${notification.queue.capacity:1000}") int capacity,
+            @Value("${notification.senders:2}") int senderThreads,
+            @Value("${notification.maxAttempts:3}") int maxAttempts,
+            @Value("${notification.retryDelaySeconds:30}") long retryDelaySeconds,
+            @Value("${notification.offerTimeoutSeconds:30}") long offerTimeoutSeconds,
+            @Value("${notification.drainTimeoutSeconds:60}") long drainTimeoutSeconds) {
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<Notification>(capacity);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelayMillis = TimeUnit.SECONDS.toMillis(retryDelaySeconds);
+        this.offerTimeoutMillis = TimeUnit.SECONDS.toMillis(offerTimeoutSeconds);
+        this.drainTimeoutMillis = TimeUnit.SECONDS.toMillis(drainTimeoutSeconds);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("notification-retry-"));
+        this.senders = Executors.newFixedThreadPool(senderThreads, new CustomizableThreadFactory("notification-sender-"));
+        for (int i = 0; i < senderThreads; i++) {
+            senders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendQueued();
+                }
+            });
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.pavelsklenar.service.EmailService#sendExcetionByEmail(java.lang.Exception)
+     */
+    @Override
+    public void sendExcetionByEmail(final Exception exception) throws MessagingException {
+        enqueue(new Notification("error " + exception.getLocalizedMessage()) {
+            @Override
+            void send() throws MessagingException {
+                delegate.sendExcetionByEmail(exception);
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.pavelsklenar.service.EmailService#sendSearchResults(com.pavelsklenar.domain.SearchPage, java.util.List)
+     */
+    @Override
+    public void sendSearchResults(SearchPage searchPage, List<SearchResult> listToSend)
+            throws MessagingException {
+        if (listToSend == null || listToSend.isEmpty()) {
+            return;
+        }
+        enqueue(searchResultsNotification(searchPage, listToSend));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.pavelsklenar.service.EmailService#submitSearchResults(com.pavelsklenar.domain.SearchPage, java.util.List)
+     */
+    @Override
+    public CompletableFuture<Void> submitSearchResults(SearchPage searchPage, List<SearchResult> listToSend) {
+        if (listToSend == null || listToSend.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Notification notification = searchResultsNotification(searchPage, listToSend);
+        try {
+            enqueue(notification);
+        } catch (MessagingException e) {
+            // the future of the notification has failed already
+        }
+        return notification.sent;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.pavelsklenar.service.EmailService#sendDigest(java.lang.String, java.util.Map)
+     */
+    @Override
+    public void sendDigest(String emailAddress, Map<SearchPage, List<SearchResult>> resultsByPage)
+            throws MessagingException {
+        enqueue(digestNotification(emailAddress, resultsByPage));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.pavelsklenar.service.EmailService#submitDigest(java.lang.String, java.util.Map)
+     */
+    @Override
+    public CompletableFuture<Void> submitDigest(String emailAddress, Map<SearchPage, List<SearchResult>> resultsByPage) {
+        Notification notification = digestNotification(emailAddress, resultsByPage);
+        try {
+            enqueue(notification);
+        } catch (MessagingException e) {
+            // the future of the notification has failed already
+        }
+        return notification.sent;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see com.pavelsklenar.service.EmailService#sendErrorSummary(java.util.Collection)
+     */
+    @Override
+    public void sendErrorSummary(final Collection<ErrorSummary> errors) throws MessagingException {
+        enqueue(new Notification("summary of " + errors.size() + " errors") {
+            @Override
+            void send() throws MessagingException {
+                delegate.sendErrorSummary(errors);
+            }
+        });
+    }
+
+    /**
+     * Send all queued notifications and stop sender threads
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        closed = true;
+        // waiting retries are not delayed any more
+        for (Runnable retry : retryTimer.shutdownNow()) {
+            retry.run();
+        }
+        senders.shutdown();
+        if (!senders.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            senders.shutdownNow();
+            LOG.error("{} notifications were not sent before shutdown.", queue.size());
+            List<Notification> unsent = new ArrayList<Notification>();
+            queue.drainTo(unsent);
+            for (Notification notification : unsent) {
+                notification.sent.completeExceptionally(new MessagingException(
+                        "Notification with " + notification.description + " was not sent before shutdown"));
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Integer>("notification.queue.size", queue.size()));
+        result.add(new Metric<Integer>("notification.queue.capacity", capacity));
+        result.add(new Metric<Long>("notification.queue.blocked", blocked.get()));
+        result.add(new Metric<Long>("notification.queue.rejected", rejected.get()));
+        result.add(new Metric<Long>("notification.sent", sent.get()));
+        result.add(new Metric<Long>("notification.retried", retried.get()));
+        result.add(new Metric<Long>("notification.failed", failed.get()));
+        result.add(new Metric<Long>("notification.latency.max", maxLatencyMillis.get()));
+        return result;
+    }
+
+    private Notification searchResultsNotification(final SearchPage searchPage, List<SearchResult> listToSend) {
+        // the caller goes on with its list
+        final List<SearchResult> results = new ArrayList<SearchResult>(listToSend);
+        return new Notification(results.size() + " results of " + searchPage.getName()) {
+            @Override
+            void send() throws MessagingException {
+                delegate.sendSearchResults(searchPage, results);
+            }
+        };
+    }
+
+    private Notification digestNotification(final String emailAddress,
+            final Map<SearchPage, List<SearchResult>> resultsByPage) {
+        return new Notification("digest of " + resultsByPage.size() + " pages to " + emailAddress) {
+            @Override
+            void send() throws MessagingException {
+                delegate.sendDigest(emailAddress, resultsByPage);
+            }
+        };
+    }
+
+    private void enqueue(Notification notification) throws MessagingException {
+        if (closed) {
+            try {
+                notification.send();
+            } catch (MessagingException e) {
+                notification.sent.completeExceptionally(e);
+                throw e;
+            }
+            notification.sent.complete(null);
+            return;
+        }
+        if (queue.offer(notification)) {
+            return;
+        }
+        blocked.incrementAndGet();
+        LOG.warn("Notification queue is full, waiting for a free place.");
+        try {
+            if (queue.offer(notification, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.incrementAndGet();
+        MessagingException e = new MessagingException(
+                "Notification queue is full, cannot send " + notification.description);
+        notification.sent.completeExceptionally(e);
+        throw e;
+    }
+
+    private void sendQueued() {
+        while (!closed || !queue.isEmpty()) {
+            Notification notification;
+            try {
+                notification = queue.poll(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (notification != null) {
+                send(notification);
+            }
+        }
+    }
+
+    private void send(final Notification notification) {
+        notification.attempts++;
+        try {
+            notification.send();
+        } catch (Exception e) {
+            if (notification.attempts >= maxAttempts) {
+                failed.incrementAndGet();
+                LOG.error("Notification with " + notification.description + " cannot be sent after "
+                        + notification.attempts + " attempts.", e);
+                notification.sent.completeExceptionally(e);
+                return;
+            }
+            retried.incrementAndGet();
+            LOG.warn("Notification with {} failed, it is tried again in {} s: {}", notification.description,
+                    TimeUnit.MILLISECONDS.toSeconds(retryDelayMillis), e.getLocalizedMessage());
+            Runnable retry = new Runnable() {
+                @Override
+                public void run() {
+                    requeue(notification);
+                }
+            };
+            if (closed) {
+                retry.run();
+            } else {
+                retryTimer.schedule(retry, retryDelayMillis, TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        sent.incrementAndGet();
+        recordLatency(System.currentTimeMillis() - notification.createdAt);
+        // whatever the caller does with the sent notification is done by this thread
+        notification.sent.complete(null);
+    }
+
+    private void requeue(Notification notification) {
+        if (!queue.offer(notification)) {
+            failed.incrementAndGet();
+            LOG.error("Notification queue is full, notification with {} is dropped.", notification.description);
+            notification.sent.completeExceptionally(new MessagingException(
+                    "Notification queue is full, notification with " + notification.description + " was dropped"));
+        }
+    }
+
+    private void recordLatency(long latencyMillis) {
+        long max;
+        while (latencyMillis > (max = maxLatencyMillis.get())) {
+            if (maxLatencyMillis.compareAndSet(max, latencyMillis)) {
+                break;
+            }
+        }
+    }
+
+    private abstract static class Notification {
+
+        private final String description;
+
+        private final long createdAt = System.currentTimeMillis();
+
+        // completed when the notification is sent or given up
+        private final CompletableFuture<Void> sent = new CompletableFuture<Void>();
+
+        private int attempts;
+
+        Notification(String description) {
+            this.description = description;
+        }
+
+        abstract void send() throws MessagingException;
+    }
+
+}
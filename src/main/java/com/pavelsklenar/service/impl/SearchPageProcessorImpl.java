@@ -1,23 +1,35 @@
 package com.pavelsklenar.service.impl;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
 
-import org.openqa.selenium.By;
+import javax.annotation.PostConstruct;
+
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
 
+import com.pavelsklenar.domain.ExtractionPlan;
+import com.pavelsklenar.domain.ExtractionPlan.Selector;
 import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.service.FetchedSearchPage;
+import com.pavelsklenar.service.FetchedSearchPage.Status;
 import com.pavelsklenar.service.SearchPageProcessor;
+import com.pavelsklenar.service.SearchPageVersion;
 import com.pavelsklenar.service.WebDriverFactory;
 
 @Component
@@ -25,10 +37,42 @@ public class SearchPageProcessorImpl implements SearchPageProcessor {
 
     private static final Logger LOG = org.slf4j.LoggerFactory.getLogger(SearchPageProcessorImpl.class);
 
+    private static final String EXTRACTION_MODE_SCRIPT = "script";
+
+    private static final String EXTRACTION_SCRIPT = "scripts/extractSearchResults.js";
+
     @Autowired
     private WebDriverFactory webDriverFactory;
 
-    private ReentrantLock lock = new ReentrantLock();
+    @Autowired
+    private HttpSearchPageProcessor httpSearchPageProcessor;
+
+    @Autowired
+    private ExtractionPlanCache extractionPlanCache;
+
+    @Autowired
+    private PageChangeTracker pageChangeTracker;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private Pagination pagination;
+
+    /**
+     * "script" extracts all results of a page by a single script, "element"
+     * queries every field of every result by a separate driver call
+     */
+    @Value("${webDriver.extraction.mode:" + EXTRACTION_MODE_SCRIPT + "}")
+    private String extractionMode;
+
+    private String extractionScript;
+
+    @PostConstruct
+    public void init() throws IOException {
+        extractionScript = StreamUtils.copyToString(new ClassPathResource(EXTRACTION_SCRIPT).getInputStream(),
+                StandardCharsets.UTF_8);
+    }
 
     /*
      * (non-Javadoc)
@@ -37,112 +81,305 @@ public class SearchPageProcessorImpl implements SearchPageProcessor {
      * pavelsklenar.domain.SearchPage)
      */
     public List<SearchResult> processSearch(SearchPage searchPageToProcess) throws Exception {
-        WebDriver driver = webDriverFactory.getWebDriver();
-        if (lock.tryLock(1000, TimeUnit.MILLISECONDS)) {
+        return process(searchPageToProcess, null).getSearchResults();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.pavelsklenar.service.SearchPageProcessor#processSearchIfChanged(com.
+     * pavelsklenar.domain.SearchPage)
+     */
+    public FetchedSearchPage processSearchIfChanged(SearchPage searchPageToProcess) throws Exception {
+        FetchedSearchPage fetched = process(searchPageToProcess,
+                pageChangeTracker.getConfirmedVersion(searchPageToProcess));
+        pageChangeTracker.record(fetched.getStatus());
+        if (fetched.isUnchanged()) {
+            LOG.info("Search page {} has not changed since the last processing ({}).", searchPageToProcess.getUrl(),
+                    fetched.getStatus());
+        }
+        return fetched;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * com.pavelsklenar.service.SearchPageProcessor#confirmProcessed(com.
+     * pavelsklenar.domain.SearchPage,
+     * com.pavelsklenar.service.FetchedSearchPage)
+     */
+    public void confirmProcessed(SearchPage searchPage, FetchedSearchPage fetched) {
+        pageChangeTracker.confirm(searchPage, fetched);
+    }
+
+    private FetchedSearchPage process(SearchPage searchPageToProcess, SearchPageVersion previous) throws Exception {
+        if (!searchPageToProcess.isJavascriptEnabled()) {
+            // static page, no browser is needed
+            return httpSearchPageProcessor.processSearch(searchPageToProcess, previous);
+        }
+        long start = pipelineMetrics.start();
+        WebDriver driver;
+        try {
+            driver = webDriverFactory.getWebDriver();
+        } finally {
+            // failed and timed out waits for a browser are measured too
+            pipelineMetrics.record(PipelineMetrics.DRIVER_ACQUIRE, searchPageToProcess, start);
+        }
+        try {
+            FetchedSearchPage result = processInternal(searchPageToProcess, driver, previous);
+            webDriverFactory.releaseWebDriver(driver);
+            return result;
+        } catch (Exception e) {
+            // the driver may be left in an unknown state, do not reuse it
+            webDriverFactory.invalidateWebDriver(driver);
+            throw e;
+        }
+    }
+
+    /**
+     * Process the page in the browser, browser does not allow conditional
+     * requests, so the page is compared with the previous version by the hash
+     * of its list of results only. Further pages of results are read as long
+     * as {@link Pagination} allows.
+     */
+    protected FetchedSearchPage processInternal(SearchPage searchPageToProcess, WebDriver driver,
+            SearchPageVersion previous) throws Exception {
+        if (!searchPageToProcess.isEnabled()) {
+            return FetchedSearchPage.changed(null, new ArrayList<SearchResult>());
+        }
+        URI siteBase = new URI(searchPageToProcess.getUrl());
+        try {
+            long start = pipelineMetrics.start();
             try {
-                return processInternal(searchPageToProcess, driver);
+                driver.get(siteBase.toString());
             } finally {
-                if (driver != null) {
+                pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, searchPageToProcess, start);
+            }
+            LOG.trace("Page found {}", driver.getPageSource());
+            ExtractionPlan plan = extractionPlanCache.getPlan(searchPageToProcess);
+            FetchedSearchPage fetched = extract(searchPageToProcess, plan, driver, previous);
+            if (fetched.isUnchanged()) {
+                return fetched;
+            }
+            List<SearchResult> result = new ArrayList<SearchResult>(fetched.getSearchResults());
+            Pagination.Crawl crawl = pagination.begin(searchPageToProcess, plan);
+            crawl.pageExtracted(fetched.getSearchResults());
+            while (crawl.hasNext()) {
+                String nextUrl = getNextPageUrl(driver, plan);
+                if (!crawl.follow(nextUrl)) {
+                    break;
+                }
+                List<SearchResult> resultsOfPage;
+                try {
+                    start = pipelineMetrics.start();
                     try {
-                        driver.quit();
-                    } catch (Exception e) {
-                        LOG.warn("Excetion when quiting driver", e);
+                        driver.get(nextUrl);
+                    } finally {
+                        pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, searchPageToProcess, start);
                     }
-
+                    resultsOfPage = extract(searchPageToProcess, plan, driver, null).getSearchResults();
+                } catch (Exception e) {
+                    // results of the pages read so far are still processed
+                    LOG.warn("Next page {} of search page {} cannot be read: {}", nextUrl,
+                            searchPageToProcess.getUrl(), e.toString());
+                    break;
                 }
-                lock.unlock();
+                result.addAll(resultsOfPage);
+                crawl.pageExtracted(resultsOfPage);
             }
-        } else {
-            // Avoid concurrent run
-            LOG.warn("Cannot process {}, search page processor is busy.", searchPageToProcess);
-            return Collections.emptyList();
+            return FetchedSearchPage.changed(fetched.getVersion(), result);
+        } finally {
+            leavePage(driver);
         }
+    }
 
+    private FetchedSearchPage extract(SearchPage searchPageToProcess, ExtractionPlan plan, WebDriver driver,
+            SearchPageVersion previous) {
+        if (isScriptExtractionAvailable(driver)) {
+            return extractByScript(searchPageToProcess, plan, (JavascriptExecutor) driver, previous);
+        }
+        return extractByElements(searchPageToProcess, plan, driver, previous);
     }
 
-    protected List<SearchResult> processInternal(SearchPage searchPageToProcess, WebDriver driver) throws Exception {
+    /**
+     * @return absolute URL of the link to the next page of results, null when
+     *         there is none
+     */
+    private String getNextPageUrl(WebDriver driver, ExtractionPlan plan) {
+        List<WebElement> links = driver.findElements(plan.getNextPage().getBy());
+        String href = links.isEmpty() ? null : links.get(0).getAttribute("href");
+        if (href == null || href.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            // some drivers return the attribute as written in the page
+            return new URI(driver.getCurrentUrl()).resolve(href.trim()).toString();
+        } catch (Exception e) {
+            LOG.warn("Link {} to the next page is not a valid URL", href);
+            return null;
+        }
+    }
+
+    /**
+     * Extract all results by a single script executed in the browser, i.e.
+     * one remote call per page
+     */
+    private FetchedSearchPage extractByScript(SearchPage searchPageToProcess, ExtractionPlan plan,
+            JavascriptExecutor executor, SearchPageVersion previous) {
+        long start = pipelineMetrics.start();
+        List<String> fieldSelectors = Arrays.asList(specificationOf(plan.getPrice()),
+                specificationOf(plan.getTitle()), specificationOf(plan.getDescription()),
+                specificationOf(plan.getUrl()), specificationOf(plan.getImage()));
+        Object response = executor.executeScript(extractionScript, plan.getListOfResults().getSpecification(),
+                fieldSelectors, new ArrayList<String>(plan.getOmitClasses()),
+                // some drivers do not accept null arguments
+                previous == null || previous.getContentHash() == null ? "" : previous.getContentHash());
+        if (!(response instanceof Map)) {
+            throw new IllegalStateException("Unexpected response of extraction script: " + response);
+        }
+        Map<?, ?> extracted = (Map<?, ?>) response;
+        SearchPageVersion version = new SearchPageVersion(null, null, asString(extracted.get("contentHash")));
+        if (Boolean.TRUE.equals(extracted.get("unchanged"))) {
+            pipelineMetrics.record(PipelineMetrics.EXTRACT, searchPageToProcess, start,
+                    asLong(extracted.get("total")));
+            return FetchedSearchPage.unchanged(Status.SAME_CONTENT, version);
+        }
+        LOG.info("Number of result found: {}, omitted: {}", extracted.get("total"), extracted.get("omitted"));
         List<SearchResult> result = new ArrayList<SearchResult>();
-        if (searchPageToProcess.isEnabled()) {
-            URI siteBase = new URI(searchPageToProcess.getUrl());
-            try {
-                driver.get(siteBase.toString());
-                LOG.trace("Page found {}", driver.getPageSource());
-                List<WebElement> searchResultsElements = driver
-                        .findElements(By.xpath(searchPageToProcess.getXpathToListOfResults()));
-                LOG.info("Number of result found: {}", searchResultsElements.size());
-                SearchResult searchResult = null;
-                List<String> omitClassesInSearchResultAsList = searchPageToProcess.getOmitClassesInSearchResultAsList();
-                for (WebElement webElement : searchResultsElements) {
-                    if (shouldBeOmitted(webElement, omitClassesInSearchResultAsList)) {
-                        LOG.info("Element will omitted due to the present element.");
-                        continue;
-                    }
-                    searchResult = new SearchResult(searchPageToProcess);
-                    LOG.trace("Trying to parse this element: {}", webElement.getText());
-
-                    searchResult
-                            .setPrice(getTextIfExistsFromElement(webElement, searchPageToProcess.getXpathToPrice()));
-                    searchResult
-                            .setTitle(getTextIfExistsFromElement(webElement, searchPageToProcess.getXpathToTitle()));
-                    searchResult.setDescription(
-                            getTextIfExistsFromElement(webElement, searchPageToProcess.getXpathToDescription()));
-                    searchResult.setUrl(
-                            getAttributeIfExistsFromElement(webElement, searchPageToProcess.getXpathToUrl(), "href"));
-                    searchResult.setImageUrl(
-                            getAttributeIfExistsFromElement(webElement, searchPageToProcess.getXpathToImage(), "src"));
-                    if (searchResult.getUrl() == null) {
-                        LOG.info("SearchResult will be skipped due to the empty url: {}", searchResult);
-                    } else {
-                        LOG.info("Found element: {}", searchResult.toString());
-                        result.add(searchResult);
-                    }
+        for (Object row : (List<?>) extracted.get("rows")) {
+            Map<?, ?> values = (Map<?, ?>) row;
+            SearchResult searchResult = new SearchResult(searchPageToProcess);
+            searchResult.setPrice(asString(values.get("price")));
+            searchResult.setTitle(asString(values.get("title")));
+            searchResult.setDescription(asString(values.get("description")));
+            searchResult.setUrl(asString(values.get("url")));
+            searchResult.setImageUrl(asString(values.get("imageUrl")));
+            addIfValid(searchResult, result);
+        }
+        recordExtraction(searchPageToProcess, start, asLong(extracted.get("total")), result.size());
+        return FetchedSearchPage.changed(version, result);
+    }
 
-                }
-            } catch (Exception e) {
-                throw e;
-            } finally {
-                driver.close();
+    /**
+     * Extract results element by element, several remote calls per result.
+     * The page is compared with the previous version by the extracted values,
+     * reading the markup would cost further remote calls.
+     */
+    private FetchedSearchPage extractByElements(SearchPage searchPageToProcess, ExtractionPlan plan,
+            WebDriver driver, SearchPageVersion previous) {
+        long start = pipelineMetrics.start();
+        List<WebElement> searchResultsElements = driver.findElements(plan.getListOfResults().getBy());
+        LOG.info("Number of result found: {}", searchResultsElements.size());
+        List<SearchResult> result = new ArrayList<SearchResult>();
+        SearchResult searchResult = null;
+        for (WebElement webElement : searchResultsElements) {
+            String classAttribute = webElement.getAttribute("class");
+            LOG.debug("Search result element contains these class: {}", classAttribute);
+            if (plan.shouldBeOmitted(classAttribute)) {
+                LOG.info("Element will omitted due to the present element.");
+                continue;
             }
+            searchResult = new SearchResult(searchPageToProcess);
+            LOG.trace("Trying to parse this element: {}", webElement.getText());
+
+            searchResult.setPrice(getTextIfExistsFromElement(webElement, plan.getPrice()));
+            searchResult.setTitle(getTextIfExistsFromElement(webElement, plan.getTitle()));
+            searchResult.setDescription(getTextIfExistsFromElement(webElement, plan.getDescription()));
+            searchResult.setUrl(getAttributeIfExistsFromElement(webElement, plan.getUrl(), "href"));
+            searchResult.setImageUrl(getAttributeIfExistsFromElement(webElement, plan.getImage(), "src"));
+            addIfValid(searchResult, result);
+        }
+        List<String> values = new ArrayList<String>();
+        for (SearchResult found : result) {
+            values.addAll(Arrays.asList(found.getUrl(), found.getTitle(), found.getPrice(), found.getDescription(),
+                    found.getImageUrl()));
         }
-        return result;
+        SearchPageVersion version = new SearchPageVersion(null, null, SearchPageVersion.hashOf("rows", values));
+        if (version.hasSameContent(previous)) {
+            // the rows were read to be compared, results are not counted as they are not processed
+            pipelineMetrics.record(PipelineMetrics.EXTRACT, searchPageToProcess, start, searchResultsElements.size());
+            return FetchedSearchPage.unchanged(Status.SAME_CONTENT, version);
+        }
+        recordExtraction(searchPageToProcess, start, searchResultsElements.size(), result.size());
+        return FetchedSearchPage.changed(version, result);
     }
 
-    private boolean shouldBeOmitted(WebElement webElement, List<String> omitClassesInSearchResult) {
-        String attribute = webElement.getAttribute("class");
-        LOG.debug("Search result element contains these class: {}", attribute);
-        if (attribute != null && !attribute.isEmpty()) {
-            List<String> classAttributesList = Arrays.asList(attribute.split(" "));
-            for (String existingAttribute : classAttributesList) {
-                if (omitClassesInSearchResult.contains(existingAttribute)) {
-                    LOG.debug("Existing class attribute {} was found in class attributes to be omitted.",
-                            existingAttribute);
-                    return true;
-                }
-            }
+    /**
+     * Record time of the extraction per found row and the rows left out
+     */
+    private void recordExtraction(SearchPage searchPage, long start, long found, int extracted) {
+        pipelineMetrics.record(PipelineMetrics.EXTRACT, searchPage, start, found);
+        pipelineMetrics.count(PipelineMetrics.FOUND, searchPage, found);
+        pipelineMetrics.count(PipelineMetrics.OMITTED, searchPage, found - extracted);
+    }
+
+    private void addIfValid(SearchResult searchResult, List<SearchResult> result) {
+        if (searchResult.getUrl() == null) {
+            LOG.info("SearchResult will be skipped due to the empty url: {}", searchResult);
+        } else {
+            LOG.info("Found element: {}", searchResult.toString());
+            result.add(searchResult);
         }
-        return false;
     }
 
-    private String getTextIfExistsFromElement(WebElement webElement, String xpathToElement) {
-        if (webElement == null || xpathToElement == null) {
-            return null;
+    /**
+     * Whether the results can be extracted by a single script, it requires a
+     * driver which executes JavaScript
+     */
+    private boolean isScriptExtractionAvailable(WebDriver driver) {
+        if (!EXTRACTION_MODE_SCRIPT.equalsIgnoreCase(extractionMode) || !(driver instanceof JavascriptExecutor)) {
+            return false;
         }
+        return !(driver instanceof HasCapabilities)
+                || ((HasCapabilities) driver).getCapabilities().isJavascriptEnabled();
+    }
+
+    private static String specificationOf(Selector selector) {
+        return selector == null ? null : selector.getSpecification();
+    }
+
+    private static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    /**
+     * Navigate away from processed page to release its resources, the driver
+     * itself is going to be reused
+     */
+    private void leavePage(WebDriver driver) {
         try {
-            return webElement.findElement(By.xpath(xpathToElement)).getText();
+            driver.get("about:blank");
         } catch (Exception e) {
-            LOG.warn("Xpath {} cannot be located in element {}", xpathToElement, webElement);
+            LOG.warn("Cannot leave processed page", e);
+        }
+    }
+
+    private String getTextIfExistsFromElement(WebElement webElement, Selector selector) {
+        if (webElement == null || selector == null) {
+            return null;
+        }
+        try {
+            return webElement.findElement(selector.getBy()).getText();
+        } catch (NoSuchElementException e) {
+            LOG.debug("Selector {} cannot be located in element {}", selector, webElement);
             return null;
         }
     }
 
-    private String getAttributeIfExistsFromElement(WebElement webElement, String xpathToElement, String attribute) {
-        if (webElement == null || attribute == null || xpathToElement == null) {
+    private String getAttributeIfExistsFromElement(WebElement webElement, Selector selector, String attribute) {
+        if (webElement == null || attribute == null || selector == null) {
             return null;
         }
         try {
-            return webElement.findElement(By.xpath(xpathToElement)).getAttribute(attribute);
-        } catch (Exception e) {
-            LOG.warn("Xpath {} cannot be located in element {}", xpathToElement, webElement);
+            return webElement.findElement(selector.getBy()).getAttribute(attribute);
+        } catch (NoSuchElementException e) {
+            LOG.debug("Selector {} cannot be located in element {}", selector, webElement);
             return null;
         }
     }
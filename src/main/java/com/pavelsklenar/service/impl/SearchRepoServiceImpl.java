@@ -1,17 +1,40 @@
 package com.pavelsklenar.service.impl;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
+import com.pavelsklenar.domain.EmailAddress;
 import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultChange;
+import com.pavelsklenar.domain.UrlFingerprint;
+import com.pavelsklenar.repository.EmailAddressRepository;
 import com.pavelsklenar.repository.SearchPageRepository;
+import com.pavelsklenar.repository.SearchResultArchiveRepository;
+import com.pavelsklenar.repository.SearchResultChangeRepository;
 import com.pavelsklenar.repository.SearchResultRepository;
 import com.pavelsklenar.service.SearchRepoService;
 
@@ -25,15 +48,50 @@ import com.pavelsklenar.service.SearchRepoService;
 @Transactional
 class SearchRepoServiceImpl implements SearchRepoService {
 
+	/**
+	 * Maximal number of URLs bound into one IN clause
+	 */
+	static final int URL_LOOKUP_BATCH_SIZE = 500;
+
 	private final SearchPageRepository searchPageRepository;
 
+	private final EmailAddressRepository emailAddressRepository;
+
 	private final SearchResultRepository searchResultRepository;
 
+	private final SearchResultArchiveRepository searchResultArchiveRepository;
+
+	private final SearchResultChangeRepository searchResultChangeRepository;
+
+	private final SeenUrlIndex seenUrlIndex;
+
+	private final ConfigurationCache configurationCache;
+
+	@Value("${searchPage.loadBatchSize:100}")
+	private int loadBatchSize = 100;
+
+	/**
+	 * Number of results sent to DB by one JDBC batch
+	 */
+	@Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+	private int insertBatchSize = 50;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
 	@Autowired
 	public SearchRepoServiceImpl(SearchPageRepository searchPageRepository,
-			SearchResultRepository searchResultRepository) {
+			EmailAddressRepository emailAddressRepository, SearchResultRepository searchResultRepository,
+			SearchResultArchiveRepository searchResultArchiveRepository,
+			SearchResultChangeRepository searchResultChangeRepository, SeenUrlIndex seenUrlIndex,
+			ConfigurationCache configurationCache) {
 		this.searchPageRepository = searchPageRepository;
+		this.emailAddressRepository = emailAddressRepository;
 		this.searchResultRepository = searchResultRepository;
+		this.searchResultArchiveRepository = searchResultArchiveRepository;
+		this.searchResultChangeRepository = searchResultChangeRepository;
+		this.seenUrlIndex = seenUrlIndex;
+		this.configurationCache = configurationCache;
 	}
 
 	public SearchPage getSearchPage(String name) {
@@ -46,18 +104,270 @@ class SearchRepoServiceImpl implements SearchRepoService {
 		return this.searchResultRepository.findBySearchPage(searchPage, pageable);
 	}
 
+	@Transactional(readOnly = true)
 	public List<SearchPage> getAllSearchPages() {
-		return this.searchPageRepository.findAll();
+		List<SearchPage> all = new ArrayList<SearchPage>();
+		for (SearchPage searchPage : iterateSearchPages()) {
+			all.add(searchPage);
+		}
+		return all;
 	}
 
+	public Iterable<SearchPage> iterateSearchPages() {
+		List<SearchPage> cached = configurationCache.getPages();
+		if (cached != null) {
+			return cached;
+		}
+		final long stamp = configurationCache.stamp();
+		return new Iterable<SearchPage>() {
+			@Override
+			public Iterator<SearchPage> iterator() {
+				return new SearchPageIterator(stamp);
+			}
+		};
+	}
+
+	@Transactional(readOnly = true)
+	public Collection<EmailAddress> loadEmailAddresses(SearchPage searchPage) {
+		Assert.notNull(searchPage, "searchPage must not be null");
+		if (searchPage.getId() == null) {
+			searchPage.setEmailAddresses(new ArrayList<EmailAddress>());
+			return searchPage.getEmailAddresses();
+		}
+		Collection<EmailAddress> emailAddresses = configurationCache.getEmailAddresses(searchPage.getId());
+		if (emailAddresses == null) {
+			long stamp = configurationCache.stamp();
+			emailAddresses = emailAddressRepository.findBySearchPageId(searchPage.getId());
+			configurationCache.putEmailAddresses(searchPage.getId(), emailAddresses, stamp);
+		}
+		searchPage.setEmailAddresses(emailAddresses);
+		return emailAddresses;
+	}
+
+	@Transactional(readOnly = true)
 	public List<SearchResult> findByUrl(String url) {
 		Assert.notNull(url, "URL must not be null");
-		return searchResultRepository.findByUrl(url);
+		String normalizedUrl = UrlFingerprint.normalize(url);
+		List<SearchResult> found = new ArrayList<SearchResult>();
+		for (SearchResult searchResult : searchResultRepository.findByUrlHash(UrlFingerprint.of(url))) {
+			// the hash only narrows the search, a collision must not be taken as a match
+			if (normalizedUrl.equals(UrlFingerprint.normalize(searchResult.getUrl()))) {
+				found.add(searchResult);
+			}
+		}
+		return found;
+	}
+
+	@Transactional(readOnly = true)
+	public Set<String> findExistingUrls(Collection<String> urls) {
+		Assert.notNull(urls, "URLs must not be null");
+		Map<Long, List<String>> urlsByHash = new HashMap<Long, List<String>>();
+		for (String url : urls) {
+			Assert.notNull(url, "URL must not be null");
+			Long urlHash = UrlFingerprint.of(url);
+			List<String> sameHash = urlsByHash.get(urlHash);
+			if (sameHash == null) {
+				sameHash = new ArrayList<String>(1);
+				urlsByHash.put(urlHash, sameHash);
+			}
+			sameHash.add(url);
+		}
+		Set<String> existing = new HashSet<String>();
+		List<Long> batch = new ArrayList<Long>(Math.min(urlsByHash.size(), URL_LOOKUP_BATCH_SIZE));
+		for (Long urlHash : urlsByHash.keySet()) {
+			batch.add(urlHash);
+			if (batch.size() == URL_LOOKUP_BATCH_SIZE) {
+				confirmExistingUrls(batch, urlsByHash, existing);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			confirmExistingUrls(batch, urlsByHash, existing);
+		}
+		return existing;
 	}
 
 	public void saveAllSearchResults(List<SearchResult> resultsToSave) {
 		if (resultsToSave != null && !resultsToSave.isEmpty()) {
-			searchResultRepository.save(resultsToSave);
+			persistInBatches(resultsToSave);
+			final List<String> savedUrls = new ArrayList<String>(resultsToSave.size());
+			for (SearchResult searchResult : resultsToSave) {
+				savedUrls.add(searchResult.getUrl());
+			}
+			// the index must not see URLs of a transaction which is rolled back
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					seenUrlIndex.addAll(savedUrls);
+				}
+			});
+		}
+	}
+
+	@Transactional(readOnly = true)
+	public List<SearchResultChange> findChanges(Collection<SearchResult> searchResults) {
+		Assert.notNull(searchResults, "searchResults must not be null");
+		Map<Long, List<SearchResult>> resultsByHash = new HashMap<Long, List<SearchResult>>();
+		for (SearchResult searchResult : searchResults) {
+			searchResult.updateContentHash();
+			Long urlHash = UrlFingerprint.of(searchResult.getUrl());
+			List<SearchResult> sameHash = resultsByHash.get(urlHash);
+			if (sameHash == null) {
+				sameHash = new ArrayList<SearchResult>(1);
+				resultsByHash.put(urlHash, sameHash);
+			}
+			sameHash.add(searchResult);
+		}
+		List<SearchResultChange> changes = new ArrayList<SearchResultChange>();
+		List<Long> batch = new ArrayList<Long>(Math.min(resultsByHash.size(), URL_LOOKUP_BATCH_SIZE));
+		for (Long urlHash : resultsByHash.keySet()) {
+			batch.add(urlHash);
+			if (batch.size() == URL_LOOKUP_BATCH_SIZE) {
+				compareContent(batch, resultsByHash, changes);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			compareContent(batch, resultsByHash, changes);
+		}
+		return changes;
+	}
+
+	public void saveChanges(Collection<SearchResultChange> changes) {
+		for (SearchResultChange change : changes) {
+			SearchResult current = change.getSearchResult();
+			if (searchResultRepository.updateContent(change.getSearchResultId(), current.getTitle(),
+					current.getPrice(), current.getPriceValue(), current.getDescription(), current.getContentHash()) == 0) {
+				// the result is archived, the next change is found against the archive again
+				searchResultArchiveRepository.updateContent(change.getSearchResultId(), current.getTitle(),
+						current.getPrice(), current.getPriceValue(), current.getDescription(), current.getContentHash());
+			}
+			searchResultChangeRepository.save(change);
+		}
+	}
+
+	/**
+	 * Insert new results without merging them, every batch is flushed by one
+	 * JDBC batch and detached, so the persistence context does not grow with
+	 * the number of results
+	 */
+	private void persistInBatches(List<SearchResult> resultsToSave) {
+		int batchSize = Math.max(1, insertBatchSize);
+		for (int from = 0; from < resultsToSave.size(); from += batchSize) {
+			List<SearchResult> batch = resultsToSave.subList(from, Math.min(from + batchSize, resultsToSave.size()));
+			for (SearchResult searchResult : batch) {
+				entityManager.persist(searchResult);
+			}
+			entityManager.flush();
+			for (SearchResult searchResult : batch) {
+				entityManager.detach(searchResult);
+			}
+		}
+	}
+
+	/**
+	 * Iterator reading the next batch of pages when the previous one is
+	 * consumed, every batch by its own query. Pages of a complete iteration
+	 * are cached when there are not more of them than the cache holds.
+	 */
+	private class SearchPageIterator implements Iterator<SearchPage> {
+
+		private Iterator<SearchPage> batch = Collections.<SearchPage> emptyList().iterator();
+
+		private long lastId;
+
+		private boolean exhausted;
+
+		private final long stamp;
+
+		private List<SearchPage> read = new ArrayList<SearchPage>();
+
+		private SearchPageIterator(long stamp) {
+			this.stamp = stamp;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!batch.hasNext() && !exhausted) {
+				List<SearchPage> next = searchPageRepository.findAfterId(lastId, new PageRequest(0, loadBatchSize));
+				exhausted = next.size() < loadBatchSize;
+				if (!next.isEmpty()) {
+					lastId = next.get(next.size() - 1).getId();
+				}
+				batch = next.iterator();
+				if (read != null) {
+					read.addAll(next);
+					if (read.size() > configurationCache.getMaxPages()) {
+						read = null;
+					}
+				}
+				if (exhausted && read != null) {
+					configurationCache.putPages(read, stamp);
+					read = null;
+				}
+			}
+			return batch.hasNext();
+		}
+
+		@Override
+		public SearchPage next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return batch.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Add changes of results whose saved fingerprint differs, results saved
+	 * before fingerprints existed are filled by {@link UrlHashBackfill}.
+	 * Archived results are compared as well, listings which are still found on
+	 * their pages are archived by their age too.
+	 */
+	private void compareContent(List<Long> urlHashes, Map<Long, List<SearchResult>> resultsByHash,
+			List<SearchResultChange> changes) {
+		List<Object[]> savedContents = new ArrayList<Object[]>(searchResultRepository.findContentByUrlHashIn(urlHashes));
+		savedContents.addAll(searchResultArchiveRepository.findContentByUrlHashIn(urlHashes));
+		for (Object[] saved : savedContents) {
+			String savedUrl = (String) saved[1];
+			Long savedContentHash = (Long) saved[2];
+			List<SearchResult> candidates = resultsByHash.get(UrlFingerprint.of(savedUrl));
+			if (candidates == null || savedContentHash == null) {
+				continue;
+			}
+			String normalizedSavedUrl = UrlFingerprint.normalize(savedUrl);
+			for (SearchResult candidate : candidates) {
+				if (normalizedSavedUrl.equals(UrlFingerprint.normalize(candidate.getUrl()))
+						&& !savedContentHash.equals(candidate.getContentHash())) {
+					changes.add(new SearchResultChange((Long) saved[0], (String) saved[3], (String) saved[4],
+							(BigDecimal) saved[5], savedContentHash, candidate));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add wanted URLs equal to the saved or archived URLs found by the given
+	 * hashes
+	 */
+	private void confirmExistingUrls(List<Long> urlHashes, Map<Long, List<String>> urlsByHash, Set<String> existing) {
+		List<String> savedUrls = new ArrayList<String>(searchResultRepository.findUrlsByUrlHashIn(urlHashes));
+		savedUrls.addAll(searchResultArchiveRepository.findUrlsByUrlHashIn(urlHashes));
+		for (String savedUrl : savedUrls) {
+			String normalizedSavedUrl = UrlFingerprint.normalize(savedUrl);
+			List<String> candidates = urlsByHash.get(UrlFingerprint.of(savedUrl));
+			if (candidates != null) {
+				for (String candidate : candidates) {
+					if (normalizedSavedUrl.equals(UrlFingerprint.normalize(candidate))) {
+						existing.add(candidate);
+					}
+				}
+			}
 		}
 	}
 }
@@ -0,0 +1,87 @@
+package com.pavelsklenar.service.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.pavelsklenar.domain.SearchResult;
+
+/**
+ * Move the next id of {@link SearchResult}s above the ids already used, e.g.
+ * by results saved before ids were allocated from
+ * {@link SearchResult#ID_TABLE}. Ids of archived results are never reused. It
+ * runs once after the start, before any result is saved.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class SearchResultIdSeed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SearchResultIdSeed.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * @param entityManagerFactory only to be created after the schema is
+     *            updated
+     */
+    @Autowired
+    public SearchResultIdSeed(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+            EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void run() {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                seed();
+            }
+        });
+    }
+
+    private void seed() {
+        Long maxId = jdbcTemplate.queryForObject("select max(id) from search_result", Long.class);
+        Long maxArchivedId = jdbcTemplate.queryForObject("select max(id) from search_result_archive", Long.class);
+        long firstFree = Math.max(maxId == null ? 0 : maxId, maxArchivedId == null ? 0 : maxArchivedId) + 1;
+        Long nextVal = jdbcTemplate.query(
+                "select next_val from " + SearchResult.ID_TABLE + " where sequence_name = ? for update",
+                new Object[] { SearchResult.ID_SEGMENT }, new SingleLongExtractor());
+        if (nextVal == null) {
+            jdbcTemplate.update("insert into " + SearchResult.ID_TABLE + " (sequence_name, next_val) values (?, ?)",
+                    SearchResult.ID_SEGMENT, firstFree);
+            LOG.info("Ids of SearchResults start at {}.", firstFree);
+        } else if (nextVal < firstFree) {
+            jdbcTemplate.update("update " + SearchResult.ID_TABLE + " set next_val = ? where sequence_name = ?",
+                    firstFree, SearchResult.ID_SEGMENT);
+            LOG.info("Ids of SearchResults moved from {} to {}.", nextVal, firstFree);
+        }
+    }
+
+    private static class SingleLongExtractor implements ResultSetExtractor<Long> {
+
+        @Override
+        public Long extractData(ResultSet rs) throws SQLException {
+            return rs.next() ? rs.getLong(1) : null;
+        }
+    }
+
+}
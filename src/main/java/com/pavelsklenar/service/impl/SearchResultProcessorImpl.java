@@ -1,14 +1,21 @@
 package com.pavelsklenar.service.impl;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultChange;
 import com.pavelsklenar.service.SearchRepoService;
 import com.pavelsklenar.service.SearchResultProcessor;
 
@@ -23,11 +30,21 @@ public class SearchResultProcessorImpl implements SearchResultProcessor {
 
 	SearchRepoService searchRepoService;
 
+	private final SeenUrlIndex seenUrlIndex;
+
+	private final PipelineMetrics pipelineMetrics;
+
+	@Value("${changeTracking.enabled:true}")
+	private boolean changeTracking = true;
+
 	private static final Logger LOG = LoggerFactory.getLogger(SearchResultProcessorImpl.class);
 
 	@Autowired
-	public SearchResultProcessorImpl(SearchRepoService searchRepoService) {
+	public SearchResultProcessorImpl(SearchRepoService searchRepoService, SeenUrlIndex seenUrlIndex,
+			PipelineMetrics pipelineMetrics) {
 		this.searchRepoService = searchRepoService;
+		this.seenUrlIndex = seenUrlIndex;
+		this.pipelineMetrics = pipelineMetrics;
 	}
 
 	/*
@@ -38,21 +55,92 @@ public class SearchResultProcessorImpl implements SearchResultProcessor {
 	 * util.List)
 	 */
 	public List<SearchResult> processCompare(List<SearchResult> resultsToCompare) {
-		List<SearchResult> newSearchResults = new ArrayList<SearchResult>();
+		// the same URL may be listed more than once on a page, keep the first occurrence only
+		Map<String, SearchResult> candidates = new LinkedHashMap<String, SearchResult>();
 		for (SearchResult searchResult : resultsToCompare) {
-			LOG.info("Trying to find SearchResult in DB: {}", searchResult);
-			List<SearchResult> findByUrl = searchRepoService.findByUrl(searchResult.getUrl());
-			for (SearchResult searchResultDB : findByUrl) {
-				LOG.debug("DB contains this SearchResult (matched by URL): {}", searchResultDB);
+			if (candidates.containsKey(searchResult.getUrl())) {
+				LOG.debug("Duplicate SearchResult in the same batch skipped: {}", searchResult);
+			} else {
+				candidates.put(searchResult.getUrl(), searchResult);
 			}
-			if (findByUrl.isEmpty()) {
+		}
+		List<SearchResult> newSearchResults = new ArrayList<SearchResult>();
+		if (candidates.isEmpty()) {
+			return newSearchResults;
+		}
+		SearchPage searchPage = resultsToCompare.get(0).getSearchPage();
+		long start = pipelineMetrics.start();
+		Set<String> existingUrls = findExistingUrls(candidates.keySet());
+		pipelineMetrics.record(PipelineMetrics.DEDUP, searchPage, start);
+		for (SearchResult searchResult : candidates.values()) {
+			if (existingUrls.contains(searchResult.getUrl())) {
+				LOG.debug("The same SearchResult found in DB (matched by URL): {}", searchResult);
+			} else {
 				LOG.info("SearchResult not found in DB: {}", searchResult);
 				newSearchResults.add(searchResult);
-			} else {
-				LOG.info("The same SearchResult found in DB.");
 			}
 		}
+		pipelineMetrics.count(PipelineMetrics.DUPLICATE, searchPage, resultsToCompare.size() - newSearchResults.size());
+		LOG.info("Compared {} SearchResults, {} of them are new.", candidates.size(), newSearchResults.size());
 		return newSearchResults;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.pavelsklenar.service.SearchResultProcessor#processChanges(java.util.
+	 * List, java.util.List)
+	 */
+	public List<SearchResult> processChanges(List<SearchResult> resultsToCompare,
+			List<SearchResult> newSearchResults) {
+		List<SearchResult> changedSearchResults = new ArrayList<SearchResult>();
+		if (!changeTracking) {
+			return changedSearchResults;
+		}
+		Set<String> newUrls = new HashSet<String>();
+		for (SearchResult searchResult : newSearchResults) {
+			newUrls.add(searchResult.getUrl());
+		}
+		Map<String, SearchResult> candidates = new LinkedHashMap<String, SearchResult>();
+		for (SearchResult searchResult : resultsToCompare) {
+			if (!newUrls.contains(searchResult.getUrl()) && !candidates.containsKey(searchResult.getUrl())) {
+				candidates.put(searchResult.getUrl(), searchResult);
+			}
+		}
+		if (candidates.isEmpty()) {
+			return changedSearchResults;
+		}
+		SearchPage searchPage = resultsToCompare.get(0).getSearchPage();
+		long start = pipelineMetrics.start();
+		for (SearchResultChange change : searchRepoService.findChanges(candidates.values())) {
+			LOG.info("SearchResult changed: {}", change);
+			change.getSearchResult().setChange(change);
+			changedSearchResults.add(change.getSearchResult());
+		}
+		pipelineMetrics.record(PipelineMetrics.CHANGE_DIFF, searchPage, start);
+		pipelineMetrics.count(PipelineMetrics.CHANGED, searchPage, changedSearchResults.size());
+		return changedSearchResults;
+	}
+
+	/**
+	 * Ask the seen URL index first, DB is consulted only when the index is
+	 * not loaded yet or when its hits should be confirmed
+	 */
+	private Set<String> findExistingUrls(Set<String> urls) {
+		if (!seenUrlIndex.isLoaded()) {
+			return searchRepoService.findExistingUrls(urls);
+		}
+		Set<String> possiblyExisting = new HashSet<String>();
+		for (String url : urls) {
+			if (seenUrlIndex.contains(url)) {
+				possiblyExisting.add(url);
+			}
+		}
+		if (seenUrlIndex.isVerifyHits() && !possiblyExisting.isEmpty()) {
+			return searchRepoService.findExistingUrls(possiblyExisting);
+		}
+		return possiblyExisting;
+	}
+
 }
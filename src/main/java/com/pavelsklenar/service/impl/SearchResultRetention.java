@@ -0,0 +1,146 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultArchive;
+import com.pavelsklenar.repository.SearchResultArchiveRepository;
+import com.pavelsklenar.repository.SearchResultRepository;
+
+/**
+ * Keeps only results of the last days in the table of {@link SearchResult}s,
+ * older results are moved to {@link SearchResultArchive} in batches, every
+ * batch by one insert-select and one delete in its own transaction.<br />
+ * Archived URLs are still known as seen, {@link SeenUrlIndex} loads them and
+ * {@link SearchRepoServiceImpl} looks them up in the archive as well. Results
+ * are archived by their age even when they are still listed, their changes
+ * are then found against the fingerprints kept in the archive.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class SearchResultRetention implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SearchResultRetention.class);
+
+    private final SearchResultRepository searchResultRepository;
+
+    private final SearchResultArchiveRepository searchResultArchiveRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${retention.hotDays:90}")
+    private int hotDays = 90;
+
+    @Value("${retention.batchSize:1000}")
+    private int batchSize = 1000;
+
+    private final AtomicLong archived = new AtomicLong();
+
+    private volatile long lastRunArchived;
+
+    private volatile long lastRunMillis;
+
+    @Autowired
+    public SearchResultRetention(SearchResultRepository searchResultRepository,
+            SearchResultArchiveRepository searchResultArchiveRepository, PlatformTransactionManager transactionManager) {
+        this.searchResultRepository = searchResultRepository;
+        this.searchResultArchiveRepository = searchResultArchiveRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Stamp results saved before the creation time was set on save, they are
+     * kept for the whole retention window from now
+     *
+     * @return number of stamped results
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public synchronized int stampMissingCreatedDates() {
+        int stamped = transactionTemplate.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                return searchResultRepository.setMissingCreatedDate(new Date());
+            }
+        });
+        if (stamped > 0) {
+            LOG.info("Creation time set for {} SearchResults saved without it.", stamped);
+        }
+        return stamped;
+    }
+
+    @Scheduled(cron = "${retention.cron:0 30 3 * * *}")
+    public void run() {
+        if (hotDays > 0) {
+            archiveCreatedBefore(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(hotDays)));
+        }
+    }
+
+    /**
+     * Move all results created before the given time to the archive
+     *
+     * @return number of archived results
+     */
+    public synchronized long archiveCreatedBefore(final Date before) {
+        long start = System.nanoTime();
+        long total = 0;
+        int moved;
+        // every batch is committed separately, rows of a committed batch are not selected again
+        while ((moved = transactionTemplate.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                List<Long> ids = searchResultRepository.findIdsCreatedBefore(before,
+                        new PageRequest(0, Math.max(1, batchSize)));
+                if (ids.isEmpty()) {
+                    return 0;
+                }
+                searchResultArchiveRepository.archive(ids);
+                return searchResultRepository.deleteByIdIn(ids);
+            }
+        })) > 0) {
+            total += moved;
+            archived.addAndGet(moved);
+        }
+        lastRunArchived = total;
+        lastRunMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (total > 0) {
+            LOG.info("{} SearchResults created before {} archived in {} ms.", total, before, lastRunMillis);
+        }
+        return total;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        result.add(new Metric<Long>("retention.archived", archived.get()));
+        result.add(new Metric<Long>("retention.lastRun.archived", lastRunArchived));
+        result.add(new Metric<Long>("retention.lastRun.millis", lastRunMillis));
+        return result;
+    }
+
+}
@@ -0,0 +1,330 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultArchive;
+import com.pavelsklenar.domain.UrlFingerprint;
+import com.pavelsklenar.repository.SearchResultArchiveRepository;
+import com.pavelsklenar.repository.SearchResultRepository;
+
+/**
+ * In-memory index of fingerprints of all saved {@link SearchResult} URLs.<br />
+ * A Bloom filter answers most lookups of unseen URLs without touching the
+ * set, the set of 64-bit fingerprints then confirms the possible hits. The
+ * index is loaded from DB in the background once the application context is
+ * started, so the startup is not held up, and until then {@link #isLoaded()}
+ * returns false and callers must ask the DB.<br />
+ * Fingerprints are the values of {@link SearchResult#getUrlHash()}, rows
+ * without the hash are loaded after {@link UrlHashBackfill} has filled it.
+ * URLs of results moved to {@link SearchResultArchive} stay in the index.
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class SeenUrlIndex implements PublicMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SeenUrlIndex.class);
+
+    @Value("${seenUrlIndex.enabled:true}")
+    private boolean enabled;
+
+    @Value("${seenUrlIndex.expectedUrls:1000000}")
+    private int expectedUrls;
+
+    @Value("${seenUrlIndex.falsePositiveRate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${seenUrlIndex.loadBatchSize:10000}")
+    private int loadBatchSize;
+
+    @Value("${seenUrlIndex.verifyHits:true}")
+    private boolean verifyHits;
+
+    private final SearchResultRepository searchResultRepository;
+
+    private final SearchResultArchiveRepository searchResultArchiveRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private LongHashSet fingerprints;
+
+    private BloomFilter bloomFilter;
+
+    private volatile boolean loaded;
+
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong bloomRejections = new AtomicLong();
+
+    private final AtomicLong bloomFalsePositives = new AtomicLong();
+
+    @Autowired
+    public SeenUrlIndex(SearchResultRepository searchResultRepository,
+            SearchResultArchiveRepository searchResultArchiveRepository) {
+        this.searchResultRepository = searchResultRepository;
+        this.searchResultArchiveRepository = searchResultArchiveRepository;
+    }
+
+    /**
+     * Start loading of the index by its own thread, DB is asked until it is
+     * loaded
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void loadInBackground() {
+        if (!enabled || loaded) {
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("seen-url-index-");
+        // the application may stop before the index is loaded
+        threadFactory.setDaemon(true);
+        threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } catch (RuntimeException e) {
+                    LOG.error("Seen URL index cannot be loaded, saved URLs are looked up in DB.", e);
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Load fingerprints of all saved and archived URLs, URLs saved during
+     * loading are added by {@link #addAll(Collection)} concurrently. A call
+     * made while the index is being loaded waits until it is loaded.
+     */
+    public synchronized void load() {
+        if (!enabled || loaded) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            fingerprints = new LongHashSet(expectedUrls);
+            bloomFilter = new BloomFilter(expectedUrls, falsePositiveRate);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long lastId = 0;
+        List<Object[]> batch;
+        do {
+            batch = searchResultRepository.findUrlHashesAfterId(lastId, new PageRequest(0, loadBatchSize));
+            lastId = addFingerprints(batch, lastId);
+        } while (batch.size() == loadBatchSize);
+        // the archive after the main table, a result archived meanwhile is read from one of them at least
+        lastId = 0;
+        do {
+            batch = searchResultArchiveRepository.findUrlHashesAfterId(lastId, new PageRequest(0, loadBatchSize));
+            lastId = addFingerprints(batch, lastId);
+        } while (batch.size() == loadBatchSize);
+        loaded = true;
+        LOG.info("Seen URL index loaded {} URLs in {} ms, {} bytes per million URLs, expected false positive rate {}",
+                size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), getBytesPerMillionUrls(),
+                getExpectedFalsePositiveRate());
+    }
+
+    /**
+     * Drop the loaded index, saved URLs are looked up in DB until
+     * {@link #load()} is called again
+     */
+    synchronized void unload() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+            fingerprints = null;
+            bloomFilter = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true when the index contains all saved URLs and may be used
+     *         instead of DB
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return true when hits of the index should be confirmed by DB
+     */
+    public boolean isVerifyHits() {
+        return verifyHits;
+    }
+
+    /**
+     * @param url URL to look for
+     * @return true when the URL has been very likely saved (64-bit fingerprint
+     *         matched), false when it has certainly not been saved
+     */
+    public boolean contains(String url) {
+        long fingerprint = UrlFingerprint.of(url);
+        lookups.incrementAndGet();
+        lock.readLock().lock();
+        try {
+            if (!bloomFilter.mightContain(fingerprint)) {
+                bloomRejections.incrementAndGet();
+                return false;
+            }
+            if (fingerprints.contains(fingerprint)) {
+                hits.incrementAndGet();
+                return true;
+            }
+            bloomFalsePositives.incrementAndGet();
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add URLs of just saved {@link SearchResult}s
+     *
+     * @param urls saved URLs
+     */
+    public void addAll(Collection<String> urls) {
+        long[] urlHashes = new long[urls.size()];
+        int i = 0;
+        for (String url : urls) {
+            urlHashes[i++] = UrlFingerprint.of(url);
+        }
+        addFingerprints(urlHashes);
+    }
+
+    /**
+     * @param batch pairs of id and URL hash
+     * @return the highest id of the batch
+     */
+    private long addFingerprints(List<Object[]> batch, long lastId) {
+        long[] urlHashes = new long[batch.size()];
+        for (int i = 0; i < urlHashes.length; i++) {
+            Object[] row = batch.get(i);
+            lastId = (Long) row[0];
+            urlHashes[i] = (Long) row[1];
+        }
+        addFingerprints(urlHashes);
+        return lastId;
+    }
+
+    private void addFingerprints(long[] urlHashes) {
+        if (!enabled || urlHashes.length == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (fingerprints == null) {
+                // not loaded yet, everything saved so far will be read by load()
+                return;
+            }
+            for (long fingerprint : urlHashes) {
+                if (fingerprints.add(fingerprint)) {
+                    bloomFilter.put(fingerprint);
+                }
+            }
+            if (fingerprints.size() > bloomFilter.getExpectedInsertions()) {
+                resizeBloomFilter();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        Collection<Metric<?>> result = new ArrayList<Metric<?>>();
+        long rejected = bloomRejections.get();
+        long falsePositives = bloomFalsePositives.get();
+        result.add(new Metric<Integer>("seenUrlIndex.urls", size()));
+        result.add(new Metric<Long>("seenUrlIndex.memory.bytes", getMemoryBytes()));
+        result.add(new Metric<Long>("seenUrlIndex.memory.bytesPerMillionUrls", getBytesPerMillionUrls()));
+        result.add(new Metric<Long>("seenUrlIndex.lookups", lookups.get()));
+        result.add(new Metric<Long>("seenUrlIndex.hits", hits.get()));
+        result.add(new Metric<Double>("seenUrlIndex.bloom.expectedFalsePositiveRate", getExpectedFalsePositiveRate()));
+        result.add(new Metric<Double>("seenUrlIndex.bloom.falsePositiveRate",
+                rejected + falsePositives == 0 ? 0d : (double) falsePositives / (rejected + falsePositives)));
+        return result;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return fingerprints == null ? 0 : fingerprints.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long getMemoryBytes() {
+        lock.readLock().lock();
+        try {
+            return fingerprints == null ? 0 : fingerprints.memoryBytes() + bloomFilter.memoryBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Memory is allocated in advance for the expected number of URLs, so it is
+     * related to the expected number until the index grows over it
+     */
+    private long getBytesPerMillionUrls() {
+        lock.readLock().lock();
+        try {
+            if (fingerprints == null) {
+                return 0;
+            }
+            long urls = Math.max(fingerprints.size(), bloomFilter.getExpectedInsertions());
+            return (fingerprints.memoryBytes() + bloomFilter.memoryBytes()) * 1000000L / urls;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private double getExpectedFalsePositiveRate() {
+        lock.readLock().lock();
+        try {
+            return bloomFilter == null ? 0d : bloomFilter.expectedFalsePositiveRate(fingerprints.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void resizeBloomFilter() {
+        int expected = (int) Math.min(Integer.MAX_VALUE, bloomFilter.getExpectedInsertions() * 2L);
+        LOG.info("Seen URL index exceeded {} URLs, resizing its Bloom filter for {} URLs.",
+                bloomFilter.getExpectedInsertions(), expected);
+        BloomFilter resized = new BloomFilter(expected, falsePositiveRate);
+        for (long fingerprint : fingerprints.toArray()) {
+            resized.put(fingerprint);
+        }
+        bloomFilter = resized;
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.repository.SearchResultRepository;
+
+/**
+ * Fill {@link SearchResult#getUrlHash()} and
+ * {@link SearchResult#getContentHash()} of results saved before the columns
+ * existed, it runs once after the start before {@link SeenUrlIndex} is loaded
+ *
+ * @author pavel.sklenar
+ *
+ */
+@Component
+class UrlHashBackfill {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UrlHashBackfill.class);
+
+    @Value("${seenUrlIndex.loadBatchSize:10000}")
+    private int batchSize;
+
+    private final SearchResultRepository searchResultRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public UrlHashBackfill(SearchResultRepository searchResultRepository,
+            PlatformTransactionManager transactionManager) {
+        this.searchResultRepository = searchResultRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * @return number of updated results
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public synchronized int run() {
+        int total = 0;
+        int updated;
+        // every batch is committed separately, rows of a committed batch are not selected again
+        while ((updated = transactionTemplate.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                List<SearchResult> batch = searchResultRepository.findWithoutHashes(new PageRequest(0, batchSize));
+                for (SearchResult searchResult : batch) {
+                    searchResult.updateHashes();
+                }
+                return batch.size();
+            }
+        })) > 0) {
+            total += updated;
+            LOG.info("URL hash and content hash filled for {} SearchResults so far.", total);
+        }
+        return total;
+    }
+
+}
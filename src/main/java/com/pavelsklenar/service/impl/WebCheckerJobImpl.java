@@ -1,25 +1,60 @@
 package com.pavelsklenar.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import javax.mail.MessagingException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultChange;
 import com.pavelsklenar.service.EmailService;
+import com.pavelsklenar.service.FetchedSearchPage;
 import com.pavelsklenar.service.SearchPageProcessor;
 import com.pavelsklenar.service.SearchRepoService;
 import com.pavelsklenar.service.SearchResultProcessor;
+import com.pavelsklenar.service.TooManyRequestsException;
 
 /**
- * The main job for start a checking of required web sites
+ * The main job for start a checking of required web sites<br />
+ * Search pages are fetched concurrently by {@link HostDispatcher}, which
+ * limits the load of every host, results of fetched pages are compared with
+ * saved results by {@link DedupStage}, new and changed ones are reported and
+ * saved by {@link NotifyStage}. Every stage works on further pages meanwhile.
+ * Every run waits until all pages of the cycle are finished. Pages which have
+ * not changed since the previous cycle are skipped. New results and already
+ * saved results with a changed title, price or description are e-mailed per
+ * page, or collected by {@link DigestCollector} into one e-mail per
+ * recipient. Results are saved only once the e-mail, or every digest with
+ * them, is sent, results which cannot be e-mailed are found again by the next
+ * check. Pages failing repeatedly are paused by
+ * {@link PageCircuitBreaker}, their errors are reported by
+ * {@link ErrorNotifier}. Every stage is measured by {@link PipelineMetrics}
+ * and emitted as an event by {@link PipelineEvents}.<br />
+ * When the adaptive scheduling is enabled, the cron run does nothing and every
+ * page is checked by {@link AdaptivePageScheduler} at its own pace.
  * 
  * @author pavel.sklenar
  *
@@ -40,24 +75,337 @@ public class WebCheckerJobImpl {
 	@Autowired
 	private EmailService emailService;
 
+	@Autowired
+	private HostDispatcher hostDispatcher;
+
+	@Autowired
+	private DedupStage dedupStage;
+
+	@Autowired
+	private NotifyStage notifyStage;
+
+	@Autowired
+	private DigestCollector digestCollector;
+
+	@Autowired
+	private PageCircuitBreaker pageCircuitBreaker;
+
+	@Autowired
+	private ErrorNotifier errorNotifier;
+
+	@Autowired
+	private PipelineMetrics pipelineMetrics;
+
+	@Autowired
+	private PipelineEvents pipelineEvents;
+
+	@Value("${job.webChecker.scheduling:cron}")
+	private String scheduling;
+
 	private static final Logger LOG = LoggerFactory.getLogger(WebCheckerJobImpl.class);
 
 	@Scheduled(cron = "${job.webChecker.cron}")
 	public void run() throws MessagingException {
+		if (AdaptivePageScheduler.ADAPTIVE.equals(scheduling)) {
+			LOG.debug("Adaptive scheduling is enabled, the cron run is skipped.");
+			return;
+		}
+
+		// URLs reported within this cycle, the same listing can be found by more pages at once
+		Set<String> urlsOfCycle = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		List<Future<Integer>> tasks = new ArrayList<Future<Integer>>();
+		for (SearchPage searchPage : searchRepoService.iterateSearchPages()) {
+			tasks.add(submitPage(searchPage, urlsOfCycle));
+		}
+		try {
+			awaitAll(tasks);
+		} finally {
+			digestCollector.endOfCycle();
+		}
+	}
 
-		List<SearchPage> allSearchPages = searchRepoService.getAllSearchPages();
-		for (SearchPage searchPage : allSearchPages) {
+	/**
+	 * Check one search page and report its new and changed results, the page is
+	 * fetched by {@link HostDispatcher} and its results are processed by
+	 * {@link DedupStage} and {@link NotifyStage}
+	 * 
+	 * @param searchPage page to check
+	 * @param urlsOfCycle URLs already reported by other pages being processed at the same time
+	 * @return future number of reported new and changed results, -1 when the page is paused due to its failures or
+	 *         skipped due to a long pause of its host
+	 */
+	CompletableFuture<Integer> submitPage(final SearchPage searchPage, final Set<String> urlsOfCycle) {
+		final CompletableFuture<Integer> reported = new CompletableFuture<Integer>();
+		final AtomicBoolean fetched = new AtomicBoolean();
+		final CompletableFuture<Void> dispatched = hostDispatcher.submit(searchPage.getUrl(), new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				fetchPage(searchPage, urlsOfCycle).whenComplete(new BiConsumer<Integer, Throwable>() {
+					@Override
+					public void accept(Integer result, Throwable failure) {
+						if (failure != null) {
+							reported.completeExceptionally(failure);
+						} else {
+							reported.complete(result);
+						}
+					}
+				});
+				fetched.set(true);
+				return null;
+			}
+		});
+		// the future of the dispatcher itself must be cancelled, not the one chained to it
+		dispatched.whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void result, Throwable failure) {
+				if (failure != null) {
+					reported.completeExceptionally(failure);
+				} else if (!fetched.get()) {
+					// skipped by the dispatcher
+					reported.complete(-1);
+				}
+			}
+		});
+		reported.whenComplete(new BiConsumer<Integer, Throwable>() {
+			@Override
+			public void accept(Integer result, Throwable failure) {
+				if (failure instanceof CancellationException) {
+					// a page still waiting for its host is not fetched any more
+					dispatched.cancel(false);
+				}
+			}
+		});
+		return reported;
+	}
+
+	/**
+	 * Fetch the page and hand its results over to {@link DedupStage}, the
+	 * worker of {@link HostDispatcher} waits only while the stage is full
+	 * 
+	 * @return future number of reported results
+	 */
+	private CompletableFuture<Integer> fetchPage(final SearchPage searchPage, final Set<String> urlsOfCycle)
+			throws Exception {
+		if (!pageCircuitBreaker.allowRequest(searchPage)) {
+			LOG.debug("Search page {} keeps failing, it is paused.", searchPage.getName());
+			return CompletableFuture.completedFuture(-1);
+		}
+		FetchedSearchPage fetched = null;
+		PipelineEvents.Span fetchSpan = pipelineEvents.begin(PipelineEvents.PROCESS_SEARCH, searchPage);
+		try {
+			fetched = searchPageProcessor.processSearchIfChanged(searchPage);
+			pageCircuitBreaker.recordSuccess(searchPage);
+		} catch (TooManyRequestsException e) {
+			// not an error, the dispatcher pauses the host and tries again later
+			pageCircuitBreaker.recordInconclusive(searchPage);
+			throw e;
+		} catch (Exception e) {
+			pageCircuitBreaker.recordFailure(searchPage);
+			reportError(searchPage, e);
+			return CompletableFuture.completedFuture(0);
+		} finally {
+			fetchSpan.end(fetched == null || fetched.isUnchanged() ? 0 : fetched.getSearchResults().size());
+		}
+		if (fetched.isUnchanged()) {
+			searchPageProcessor.confirmProcessed(searchPage, fetched);
+			return CompletableFuture.completedFuture(0);
+		}
+		final FetchedSearchPage changed = fetched;
+		return dedupStage.submit(searchPage, new Callable<CompletableFuture<Integer>>() {
+			@Override
+			public CompletableFuture<Integer> call() throws InterruptedException {
+				return compareResults(searchPage, changed, urlsOfCycle);
+			}
+		}).thenCompose(new Function<CompletableFuture<Integer>, CompletionStage<Integer>>() {
+			@Override
+			public CompletionStage<Integer> apply(CompletableFuture<Integer> reported) {
+				return reported;
+			}
+		});
+	}
+
+	/**
+	 * Deduplicate and compare results of the fetched page and hand the new and
+	 * changed ones over to {@link NotifyStage}
+	 * 
+	 * @return future number of reported new and changed results
+	 */
+	private CompletableFuture<Integer> compareResults(final SearchPage searchPage, final FetchedSearchPage fetched,
+			Set<String> urlsOfCycle) throws InterruptedException {
+		final List<SearchResult> onlyNewSearchResults;
+		final List<SearchResult> changedSearchResults;
+		try {
+			PipelineEvents.Span compareSpan = pipelineEvents.begin(PipelineEvents.PROCESS_COMPARE, searchPage);
+			try {
+				onlyNewSearchResults = searchResultProcessor.processCompare(fetched.getSearchResults());
+				changedSearchResults = searchResultProcessor.processChanges(fetched.getSearchResults(),
+						onlyNewSearchResults);
+			} finally {
+				// a failed comparison is emitted too
+				compareSpan.end(fetched.getSearchResults().size());
+			}
+			claimUrls(searchPage, onlyNewSearchResults, urlsOfCycle);
+			claimUrls(searchPage, changedSearchResults, urlsOfCycle);
+			pipelineMetrics.count(PipelineMetrics.NEW, searchPage, onlyNewSearchResults.size());
+		} catch (Exception e) {
+			reportError(searchPage, e);
+			return CompletableFuture.completedFuture(0);
+		}
+		return notifyStage.submit(searchPage, new Callable<CompletableFuture<Integer>>() {
+			@Override
+			public CompletableFuture<Integer> call() {
+				return sendResults(searchPage, fetched, onlyNewSearchResults, changedSearchResults);
+			}
+		}).thenCompose(new Function<CompletableFuture<Integer>, CompletionStage<Integer>>() {
+			@Override
+			public CompletionStage<Integer> apply(CompletableFuture<Integer> reported) {
+				return reported;
+			}
+		});
+	}
+
+	/**
+	 * Send the new and changed results of the page, they are saved once the
+	 * e-mail is sent, or once all digests with them are sent
+	 * 
+	 * @return future number of reported new and changed results, completed when
+	 *         they are saved or collected into digests
+	 */
+	private CompletableFuture<Integer> sendResults(final SearchPage searchPage, final FetchedSearchPage fetched,
+			final List<SearchResult> onlyNewSearchResults, final List<SearchResult> changedSearchResults) {
+		CompletableFuture<Void> sent;
+		try {
+			List<SearchResult> resultsToSend = new ArrayList<SearchResult>(onlyNewSearchResults);
+			resultsToSend.addAll(changedSearchResults);
+			if (!resultsToSend.isEmpty()) {
+				// pages are read without recipients, most of them have nothing to send
+				searchRepoService.loadEmailAddresses(searchPage);
+			}
+			if (digestCollector.isEnabled()) {
+				// the page is not held until the digests are sent, they wait
+				// for the end of the cycle or the window
+				digestCollector.add(searchPage, resultsToSend, new Runnable() {
+					@Override
+					public void run() {
+						saveResults(searchPage, fetched, onlyNewSearchResults, changedSearchResults);
+					}
+				});
+				return CompletableFuture.completedFuture(resultsToSend.size());
+			}
+			sent = emailService.submitSearchResults(searchPage, resultsToSend);
+		} catch (Exception e) {
+			reportError(searchPage, e);
+			return CompletableFuture.completedFuture(0);
+		}
+		// saved by the thread which has sent the e-mail
+		return sent.handle(new BiFunction<Void, Throwable, Integer>() {
+			@Override
+			public Integer apply(Void result, Throwable failure) {
+				if (failure != null) {
+					// nothing is saved, the results are found and sent again by the next check
+					reportError(searchPage, failure instanceof Exception ? (Exception) failure
+							: new ExecutionException(failure));
+					return 0;
+				}
+				return saveResults(searchPage, fetched, onlyNewSearchResults, changedSearchResults);
+			}
+		});
+	}
+
+	/**
+	 * Save the reported results of the page
+	 * 
+	 * @return number of saved new and changed results
+	 */
+	private int saveResults(SearchPage searchPage, FetchedSearchPage fetched, List<SearchResult> onlyNewSearchResults,
+			List<SearchResult> changedSearchResults) {
+		int reported = 0;
+		try {
+			int count = onlyNewSearchResults.size() + changedSearchResults.size();
+			if (count > 0) {
+				long start = pipelineMetrics.start();
+				PipelineEvents.Span saveSpan = pipelineEvents.begin(PipelineEvents.SAVE_RESULTS, searchPage);
+				try {
+					searchRepoService.saveAllSearchResults(onlyNewSearchResults);
+					searchRepoService.saveChanges(changesOf(changedSearchResults));
+				} finally {
+					saveSpan.end(count);
+					pipelineMetrics.record(PipelineMetrics.DB_SAVE, searchPage, start);
+				}
+			}
+			reported = count;
+			// only a completely processed page may be skipped next time
+			searchPageProcessor.confirmProcessed(searchPage, fetched);
+		} catch (Exception e) {
+			reportError(searchPage, e);
+		}
+		return reported;
+	}
+
+	private void reportError(SearchPage searchPage, Exception e) {
+		LOG.error("Cannot process page " + searchPage.getUrl() + " due to the error " + e.getLocalizedMessage(), e);
+		errorNotifier.report(searchPage.getName(), e);
+	}
+
+	/**
+	 * Remove results already reported by another page within the same cycle,
+	 * or still waiting in a digest of a previous cycle
+	 */
+	private void claimUrls(SearchPage searchPage, List<SearchResult> searchResults, Set<String> urlsOfCycle) {
+		for (Iterator<SearchResult> iterator = searchResults.iterator(); iterator.hasNext();) {
+			SearchResult searchResult = iterator.next();
+			if (digestCollector.isPending(searchResult.getUrl())) {
+				LOG.debug("SearchResult waits for a digest already: {}", searchResult);
+				iterator.remove();
+			} else if (!urlsOfCycle.add(searchResult.getUrl())) {
+				LOG.info("SearchResult already processed by another page in this cycle: {}", searchResult);
+				iterator.remove();
+				pipelineMetrics.count(PipelineMetrics.DUPLICATE, searchPage, 1);
+			}
+		}
+	}
+
+	private List<SearchResultChange> changesOf(List<SearchResult> changedSearchResults) {
+		List<SearchResultChange> changes = new ArrayList<SearchResultChange>(changedSearchResults.size());
+		for (SearchResult searchResult : changedSearchResults) {
+			changes.add(searchResult.getChange());
+		}
+		return changes;
+	}
+
+	/**
+	 * Wait until all pages of the cycle are processed
+	 */
+	private void awaitAll(List<Future<Integer>> tasks) throws MessagingException {
+		MessagingException failure = null;
+		for (Future<Integer> task : tasks) {
 			try {
-				List<SearchResult> allSearchResults = searchPageProcessor.processSearch(searchPage);
-				List<SearchResult> onlyNewSearchResults = searchResultProcessor.processCompare(allSearchResults);
-				emailService.sendSearchResults(searchPage, onlyNewSearchResults);
-				searchRepoService.saveAllSearchResults(onlyNewSearchResults);
-			} catch (Exception e) {
-				LOG.error("Cannot process page " + searchPage.getUrl() + " due to the error " + e.getLocalizedMessage(),
-						e);
-				emailService.sendExcetionByEmail(e);
+				task.get();
+			} catch (InterruptedException e) {
+				LOG.warn("Interrupted while waiting for search pages, the rest of the cycle is cancelled.");
+				for (Future<Integer> toCancel : tasks) {
+					toCancel.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				return;
+			} catch (CancellationException e) {
+				LOG.warn("Search page was cancelled, the application is stopping: {}", e.getMessage());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof MessagingException) {
+					if (failure == null) {
+						failure = (MessagingException) e.getCause();
+					}
+				} else if (e.getCause() instanceof TooManyRequestsException) {
+					LOG.warn("Search page refused repeatedly, it is left for the next run: {}",
+							e.getCause().getMessage());
+				} else {
+					LOG.error("Unexpected error when processing search page", e.getCause());
+				}
 			}
 		}
+		if (failure != null) {
+			throw failure;
+		}
 	}
 
 	public void setEmailService(EmailService emailService) {
@@ -0,0 +1,141 @@
+/*
+ * Extract all search results of a search page in a single call.
+ *
+ * arguments[0] - selector of list of results (evaluated against the document)
+ * arguments[1] - list of selectors (relative to a result) in this order:
+ *                price, title, description, url, image
+ *                Selectors are XPath expressions or CSS selectors prefixed
+ *                with "css:".
+ * arguments[2] - list of classes, results having any of them are omitted
+ * arguments[3] - content hash of the previously processed version, may be empty
+ *
+ * Returns object {total, omitted, rows, contentHash}, every row contains
+ * price, title, description, url, imageUrl and classes of the result element.
+ * When the markup of the results has the same hash as arguments[3], nothing
+ * is extracted and {unchanged: true, contentHash} is returned.
+ */
+var listSelector = arguments[0];
+var fieldSelectors = arguments[1];
+var omitClasses = arguments[2] || [];
+var previousHash = arguments[3];
+var CSS_PREFIX = 'css:';
+
+function isCss(selector) {
+    return selector.indexOf(CSS_PREFIX) === 0;
+}
+
+function all(context, selector) {
+    var result = [];
+    if (isCss(selector)) {
+        var nodes = context.querySelectorAll(selector.substring(CSS_PREFIX.length));
+        for (var i = 0; i < nodes.length; i++) {
+            result.push(nodes[i]);
+        }
+    } else {
+        var snapshot = document.evaluate(selector, context, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);
+        for (var i = 0; i < snapshot.snapshotLength; i++) {
+            result.push(snapshot.snapshotItem(i));
+        }
+    }
+    return result;
+}
+
+function first(context, selector) {
+    if (!selector) {
+        return null;
+    }
+    try {
+        if (isCss(selector)) {
+            return context.querySelector(selector.substring(CSS_PREFIX.length));
+        }
+        return document.evaluate(selector, context, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;
+    } catch (e) {
+        return null;
+    }
+}
+
+function text(node) {
+    if (!node) {
+        return null;
+    }
+    var value = node.innerText;
+    if (value === undefined || value === null) {
+        value = node.textContent;
+    }
+    if (value === null) {
+        return null;
+    }
+    // whitespace is collapsed the same way as WebDriver getText() does it
+    return value.replace(/[^\S\n]+/g, ' ').replace(/ ?\n ?/g, '\n').replace(/^\s+|\s+$/g, '');
+}
+
+function attribute(node, name) {
+    if (!node || !node.getAttribute) {
+        return null;
+    }
+    // property holds an absolute URL, the same as WebDriver returns
+    var value = node[name];
+    if (typeof value !== 'string' || value === '') {
+        value = node.getAttribute(name);
+    }
+    return value === undefined ? null : value;
+}
+
+/*
+ * Two FNV-1a 32-bit hashes with different offset bases over the markup of all
+ * results. Multiplication by the FNV prime is written as shifts, so that it
+ * stays exact without Math.imul.
+ */
+function contentHash(elements) {
+    var h1 = 0x811c9dc5, h2 = 0x050c5d1f;
+    for (var i = 0; i < elements.length; i++) {
+        var markup = (elements[i].outerHTML || elements[i].textContent || '') + '\u0000';
+        for (var j = 0; j < markup.length; j++) {
+            var c = markup.charCodeAt(j);
+            h1 ^= c;
+            h1 = (h1 + (h1 << 1) + (h1 << 4) + (h1 << 7) + (h1 << 8) + (h1 << 24)) >>> 0;
+            h2 ^= c;
+            h2 = (h2 + (h2 << 1) + (h2 << 4) + (h2 << 7) + (h2 << 8) + (h2 << 24)) >>> 0;
+        }
+    }
+    return 'js:' + ('0000000' + h1.toString(16)).slice(-8) + ('0000000' + h2.toString(16)).slice(-8)
+            + ':' + elements.length;
+}
+
+var elements = all(document, listSelector);
+var hash = contentHash(elements);
+if (previousHash && previousHash === hash) {
+    return {
+        unchanged : true,
+        contentHash : hash
+    };
+}
+var rows = [];
+var omitted = 0;
+for (var i = 0; i < elements.length; i++) {
+    var element = elements[i];
+    var classes = (element.getAttribute && element.getAttribute('class')) || '';
+    var classList = classes.split(/\s+/);
+    var omit = false;
+    for (var j = 0; j < classList.length && !omit; j++) {
+        omit = classList[j] !== '' && omitClasses.indexOf(classList[j]) >= 0;
+    }
+    if (omit) {
+        omitted++;
+        continue;
+    }
+    rows.push({
+        price : text(first(element, fieldSelectors[0])),
+        title : text(first(element, fieldSelectors[1])),
+        description : text(first(element, fieldSelectors[2])),
+        url : attribute(first(element, fieldSelectors[3]), 'href'),
+        imageUrl : attribute(first(element, fieldSelectors[4]), 'src'),
+        classes : classes
+    });
+}
+return {
+    total : elements.length,
+    omitted : omitted,
+    rows : rows,
+    contentHash : hash
+};
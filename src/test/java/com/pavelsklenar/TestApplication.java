@@ -9,7 +9,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 
-import com.pavelsklenar.service.WebDriverFactory;
+import com.pavelsklenar.service.impl.PooledWebDriverFactory;
 
 @SpringBootApplication
 public class TestApplication {
@@ -30,11 +30,11 @@ public class TestApplication {
     }
 
     @Bean
-    public WebDriverFactory createWebDriverFactory() {
-        return new WebDriverFactory() {
+    public PooledWebDriverFactory createWebDriverFactory() {
+        return new PooledWebDriverFactory(0, 2) {
             @Override
-            public WebDriver getWebDriver() {
-                HtmlUnitDriver driver = new HtmlUnitDriver(false);
+            protected WebDriver createWebDriver() {
+                HtmlUnitDriver driver = new HtmlUnitDriver(true);
                 if (httpProxyUrl != null && !httpProxyUrl.isEmpty()) {
                     ArrayList<String> proxyIgnore = new ArrayList<String>();
                     proxyIgnore.add("localhost");
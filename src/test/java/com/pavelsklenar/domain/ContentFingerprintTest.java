@@ -0,0 +1,39 @@
+package com.pavelsklenar.domain;
+
+import java.math.BigDecimal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test class for {@link ContentFingerprint}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class ContentFingerprintTest {
+
+    @Test
+    public void testParsePrice() {
+        assertPrice("2500000", "2 500 000 Kč");
+        assertPrice("2500000", "2 500 000,- Kč");
+        assertPrice("12500", "12.500,- Kč/měsíc");
+        assertPrice("1250.50", "1,250.50 EUR");
+        assertPrice("99.90", "99,90 Kč");
+        Assert.assertNull(ContentFingerprint.parsePrice("Info o ceně u RK"));
+        Assert.assertNull(ContentFingerprint.parsePrice(null));
+    }
+
+    @Test
+    public void testFingerprintIgnoresWhitespaceOnly() {
+        long fingerprint = ContentFingerprint.of("Flat 2+kk", "2 500 000 Kč", "Nice flat");
+        Assert.assertEquals(fingerprint, ContentFingerprint.of(" Flat  2+kk", "2 500 000 Kč", "Nice\n flat"));
+        Assert.assertNotEquals(fingerprint, ContentFingerprint.of("Flat 2+kk", "2 400 000 Kč", "Nice flat"));
+        Assert.assertNotEquals(ContentFingerprint.of("a", null, "b"), ContentFingerprint.of("a", "b", null));
+    }
+
+    private void assertPrice(String expected, String price) {
+        Assert.assertEquals(0, new BigDecimal(expected).compareTo(ContentFingerprint.parsePrice(price)));
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.pavelsklenar.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.pavelsklenar.TestApplication;
+import com.pavelsklenar.repository.SearchPageRepository;
+
+/**
+ * Test class for {@link ExtractionPlan}
+ *
+ * @author pavel.sklenar
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class ExtractionPlanTest {
+
+    @Autowired
+    private SearchPageRepository searchPageRepository;
+
+    @Test
+    public void testCompileXpathAndCssSelectors() {
+        SearchPage searchPage = createSearchPage();
+        searchPage.setXpathToPrice("css:span.price > b");
+        searchPage.setOmitClassesInSearchResult("paging, top ,");
+
+        ExtractionPlan plan = ExtractionPlan.compile(searchPage);
+
+        Assert.assertFalse(plan.getListOfResults().isCss());
+        Assert.assertTrue(plan.getPrice().isCss());
+        Assert.assertEquals("span.price > b", plan.getPrice().getExpression());
+        Assert.assertEquals("css:span.price > b", plan.getPrice().getSpecification());
+        Assert.assertNull(plan.getImage());
+        Assert.assertEquals(2, plan.getOmitClasses().size());
+        Assert.assertTrue(plan.shouldBeOmitted("item  top"));
+        Assert.assertFalse(plan.shouldBeOmitted("item topovana"));
+    }
+
+    @Test(expected = InvalidSelectorException.class)
+    public void testRejectInvalidXpath() {
+        SearchPage searchPage = createSearchPage();
+        searchPage.setXpathToTitle("div[[1]");
+        ExtractionPlan.compile(searchPage);
+    }
+
+    @Test(expected = InvalidSelectorException.class)
+    public void testRejectInvalidCss() {
+        SearchPage searchPage = createSearchPage();
+        searchPage.setXpathToTitle("css:div >> [");
+        ExtractionPlan.compile(searchPage);
+    }
+
+    @Test
+    public void testInvalidSelectorIsRejectedOnSave() {
+        SearchPage searchPage = createSearchPage();
+        searchPage.setXpathToUrl("a[@href");
+        try {
+            searchPageRepository.save(searchPage);
+            Assert.fail("Search page with invalid selector must not be saved");
+        } catch (Exception e) {
+            Assert.assertNull(searchPageRepository.findByName(searchPage.getName()));
+        }
+    }
+
+    private SearchPage createSearchPage() {
+        SearchPage searchPage = new SearchPage("plan", "http://localhost:8089/plan.html");
+        searchPage.setXpathToListOfResults("//div[@class='result']");
+        searchPage.setXpathToTitle("h2/a");
+        searchPage.setXpathToUrl("h2/a");
+        return searchPage;
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.service.impl.AdaptivePageScheduler.PageSchedule;
+
+/**
+ * Test class for adaptive intervals of {@link AdaptivePageScheduler}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class AdaptivePageSchedulerTest {
+
+    private static final long MIN = TimeUnit.MINUTES.toMillis(10);
+
+    private static final long MAX = TimeUnit.MINUTES.toMillis(60);
+
+    private final SearchPage page = new SearchPage("page", "http://www.example.org/search");
+
+    @Test
+    public void testFirstCheckIsDueImmediatelyWithShortestInterval() {
+        PageSchedule schedule = new PageSchedule(page, MIN, MAX, 1000);
+        Assert.assertEquals(1000, schedule.getNextCheckAt());
+        Assert.assertEquals(MIN, schedule.getIntervalMillis());
+    }
+
+    @Test
+    public void testQuietPageIsStretchedUpToMaximum() {
+        PageSchedule schedule = new PageSchedule(page, MIN, MAX, 0);
+        schedule.checked(0, 0);
+        Assert.assertEquals(MIN * 3 / 2, schedule.getIntervalMillis());
+        Assert.assertEquals(MIN * 3 / 2, schedule.getNextCheckAt());
+        for (int i = 0; i < 10; i++) {
+            schedule.checked(0, 0);
+        }
+        Assert.assertEquals(MAX, schedule.getIntervalMillis());
+    }
+
+    @Test
+    public void testPageWithNewResultsIsShrunkDownToMinimum() {
+        PageSchedule schedule = new PageSchedule(page, MIN, MAX, 0);
+        for (int i = 0; i < 10; i++) {
+            schedule.checked(0, 0);
+        }
+        schedule.checked(3, 5000);
+        Assert.assertEquals(MAX / 2, schedule.getIntervalMillis());
+        Assert.assertEquals(5000 + MAX / 2, schedule.getNextCheckAt());
+        for (int i = 0; i < 10; i++) {
+            schedule.checked(1, 0);
+        }
+        Assert.assertEquals(MIN, schedule.getIntervalMillis());
+    }
+
+    @Test
+    public void testChangedBoundsClampCurrentInterval() {
+        PageSchedule schedule = new PageSchedule(page, MIN, MAX, 0);
+        for (int i = 0; i < 10; i++) {
+            schedule.checked(0, 0);
+        }
+        schedule.update(page, MIN, MAX / 2);
+        Assert.assertEquals(MAX / 2, schedule.getIntervalMillis());
+        // maximum lower than minimum and intervals too short to be polite are corrected
+        schedule.update(page, 0, -1);
+        Assert.assertEquals(TimeUnit.MINUTES.toMillis(1), schedule.getIntervalMillis());
+    }
+
+    @Test
+    public void testQueueOrderedByNextCheck() {
+        PriorityQueue<PageSchedule> queue = new PriorityQueue<PageSchedule>();
+        PageSchedule late = new PageSchedule(page, MIN, MAX, 3000);
+        PageSchedule early = new PageSchedule(page, MIN, MAX, 1000);
+        PageSchedule middle = new PageSchedule(page, MIN, MAX, 2000);
+        queue.add(late);
+        queue.add(early);
+        queue.add(middle);
+        Assert.assertSame(early, queue.poll());
+        Assert.assertSame(middle, queue.poll());
+        Assert.assertSame(late, queue.poll());
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.pavelsklenar.domain.EmailAddress;
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.service.EmailService;
+import com.pavelsklenar.service.ErrorSummary;
+
+/**
+ * Test class for {@link DigestCollector}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class DigestCollectorTest {
+
+    private final Map<String, Map<SearchPage, List<SearchResult>>> digests = new LinkedHashMap<String, Map<SearchPage, List<SearchResult>>>();
+
+    private final List<String> saved = new ArrayList<String>();
+
+    private int failingDigests;
+
+    private final EmailService emailService = new EmailService() {
+
+        @Override
+        public void sendExcetionByEmail(Exception exception) throws MessagingException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendSearchResults(SearchPage searchPage, List<SearchResult> listToSend) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendDigest(String emailAddress, Map<SearchPage, List<SearchResult>> resultsByPage)
+                throws MessagingException {
+            if (failingDigests > 0) {
+                failingDigests--;
+                throw new MessagingException("Mail server is down");
+            }
+            digests.put(emailAddress, resultsByPage);
+        }
+
+        @Override
+        public void sendErrorSummary(Collection<ErrorSummary> errors) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    @Test
+    public void testOneDigestPerRecipientGroupedByPages() {
+        DigestCollector collector = new DigestCollector(emailService, true, 0);
+        EmailAddress both = createEmailAddress("both@xyz.com");
+        EmailAddress onlyFirst = createEmailAddress("first@xyz.com");
+        SearchPage first = createSearchPage("first", both, onlyFirst);
+        SearchPage second = createSearchPage("second", both);
+
+        collector.add(first, createResults(first, 2), save("first"));
+        collector.add(second, createResults(second, 3), save("second"));
+        Assert.assertTrue(digests.isEmpty());
+        collector.endOfCycle();
+
+        Assert.assertEquals(2, digests.size());
+        Map<SearchPage, List<SearchResult>> digest = digests.get("both@xyz.com");
+        Assert.assertEquals(Arrays.asList(first, second), new ArrayList<SearchPage>(digest.keySet()));
+        Assert.assertEquals(2, digest.get(first).size());
+        Assert.assertEquals(3, digest.get(second).size());
+        Assert.assertEquals(Collections.singleton(first), digests.get("first@xyz.com").keySet());
+        // the first page is saved once the digest of its second recipient is sent
+        Assert.assertEquals(Arrays.asList("second", "first"), saved);
+    }
+
+    @Test
+    public void testResultsOfMoreCyclesAreMergedWithinWindow() {
+        DigestCollector collector = new DigestCollector(emailService, true, 60);
+        EmailAddress recipient = createEmailAddress("email@xyz.com");
+        SearchPage page = createSearchPage("page", recipient);
+
+        collector.add(page, createResults(page, 1), save("first"));
+        collector.endOfCycle();
+        collector.add(page, createResults(page, 2), save("second"));
+        collector.endOfCycle();
+        Assert.assertTrue(digests.isEmpty());
+
+        collector.flush();
+        Assert.assertEquals(3, digests.get("email@xyz.com").get(page).size());
+        Assert.assertEquals(Arrays.asList("first", "second"), saved);
+        digests.clear();
+        collector.flush();
+        Assert.assertTrue(digests.isEmpty());
+    }
+
+    @Test
+    public void testDigestNotSentIsSentByNextFlush() {
+        DigestCollector collector = new DigestCollector(emailService, true, 0);
+        EmailAddress both = createEmailAddress("both@xyz.com");
+        EmailAddress other = createEmailAddress("other@xyz.com");
+        SearchPage page = createSearchPage("page", both, other);
+        List<SearchResult> results = createResults(page, 2);
+
+        failingDigests = 1;
+        collector.add(page, results, save("first"));
+        collector.endOfCycle();
+        // saved only once the digests of both recipients are sent
+        Assert.assertEquals(Collections.singleton("other@xyz.com"), digests.keySet());
+        Assert.assertTrue(saved.isEmpty());
+        Assert.assertTrue(collector.isPending(results.get(0).getUrl()));
+
+        SearchPage second = createSearchPage("second", both);
+        collector.add(second, createResults(second, 1), save("second"));
+        digests.clear();
+        collector.endOfCycle();
+        Map<SearchPage, List<SearchResult>> digest = digests.get("both@xyz.com");
+        Assert.assertEquals(1, digests.size());
+        Assert.assertEquals(Arrays.asList(page, second), new ArrayList<SearchPage>(digest.keySet()));
+        Assert.assertEquals(2, digest.get(page).size());
+        Assert.assertEquals(Arrays.asList("first", "second"), saved);
+        Assert.assertFalse(collector.isPending(results.get(0).getUrl()));
+    }
+
+    private Runnable save(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                saved.add(name);
+            }
+        };
+    }
+
+    private EmailAddress createEmailAddress(String address) {
+        EmailAddress emailAddress = new EmailAddress();
+        emailAddress.setEmailAddress(address);
+        return emailAddress;
+    }
+
+    private SearchPage createSearchPage(String name, EmailAddress... emailAddresses) {
+        SearchPage searchPage = new SearchPage(name, "http://www.example.org/" + name);
+        searchPage.setEmailAddresses(Arrays.asList(emailAddresses));
+        return searchPage;
+    }
+
+    private List<SearchResult> createResults(SearchPage searchPage, int count) {
+        List<SearchResult> results = new ArrayList<SearchResult>();
+        for (int i = 0; i < count; i++) {
+            SearchResult searchResult = new SearchResult(searchPage);
+            searchResult.setUrl(searchPage.getUrl() + "/detail/" + i);
+            results.add(searchResult);
+        }
+        return results;
+    }
+
+}
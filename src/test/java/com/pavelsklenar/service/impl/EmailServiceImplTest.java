@@ -1,9 +1,16 @@
 package com.pavelsklenar.service.impl;
 
 import java.io.InputStream;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
@@ -28,6 +35,8 @@ import com.pavelsklenar.TestApplication;
 import com.pavelsklenar.domain.EmailAddress;
 import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultChange;
+import com.pavelsklenar.service.ErrorSummary;
 
 /**
  * Test class for {@link EmailServiceImpl}
@@ -66,6 +75,83 @@ public class EmailServiceImplTest {
         Assert.assertEquals(RESULT_MAIL_TO, lastMimeMessage.getRecipients(RecipientType.TO)[0].toString());
     }
 
+    @Test
+    public void testSendEmailWithChangedResult() throws Exception {
+        SearchPage searchPage = createSearchPage();
+        SearchResult changed = createTestSearchResult(searchPage);
+        changed.updateContentHash();
+        changed.setChange(new SearchResultChange(1L, changed.getTitle(), "5 590 000 Kč", new BigDecimal("5590000"),
+                0L, changed));
+
+        emailService.sendSearchResults(searchPage, Arrays.asList(createTestSearchResult(searchPage), changed));
+
+        MimeMessage lastMimeMessage = myJavaMailSender.getLastMimeMessage();
+        Assert.assertTrue(lastMimeMessage.getSubject().contains("změněné"));
+        String html = (String) lastMimeMessage.getContent();
+        Assert.assertTrue(html.contains("5 590 000 Kč"));
+        Assert.assertTrue(html.contains("změna ceny -200000"));
+    }
+
+    @Test
+    public void testEveryRecipientGetsOwnEmail() throws MessagingException {
+        SearchPage searchPage = createSearchPage();
+        List<EmailAddress> emailAddresses = new ArrayList<EmailAddress>();
+        for (int i = 0; i < 120; i++) {
+            EmailAddress emailAddress = new EmailAddress();
+            emailAddress.setEmailAddress("email" + i + "@xyz.com");
+            emailAddresses.add(emailAddress);
+        }
+        searchPage.setEmailAddresses(emailAddresses);
+        emailService.setBatchSize(50);
+
+        emailService.sendSearchResults(searchPage, Collections.singletonList(createTestSearchResult(searchPage)));
+
+        List<MimeMessage> sentMessages = myJavaMailSender.getSentMimeMessages();
+        Assert.assertEquals(120, sentMessages.size());
+        Assert.assertEquals(Arrays.asList(50, 50, 20), myJavaMailSender.getBatchSizes());
+        Set<String> recipients = new HashSet<String>();
+        for (MimeMessage sentMessage : sentMessages) {
+            Assert.assertEquals(1, sentMessage.getRecipients(RecipientType.TO).length);
+            recipients.add(sentMessage.getRecipients(RecipientType.TO)[0].toString());
+        }
+        Assert.assertEquals(120, recipients.size());
+    }
+
+    @Test
+    public void testSendDigestGroupedByPages() throws Exception {
+        SearchPage first = createSearchPage();
+        SearchPage second = new SearchPage("remax", "http://localhost:8089/remax.html");
+        Map<SearchPage, List<SearchResult>> resultsByPage = new LinkedHashMap<SearchPage, List<SearchResult>>();
+        resultsByPage.put(first, Arrays.asList(createTestSearchResult(first), createTestSearchResult(first)));
+        resultsByPage.put(second, Collections.singletonList(createTestSearchResult(second)));
+
+        emailService.sendDigest(RESULT_MAIL_TO, resultsByPage);
+
+        MimeMessage lastMimeMessage = myJavaMailSender.getLastMimeMessage();
+        Assert.assertEquals(RESULT_MAIL_TO, lastMimeMessage.getRecipients(RecipientType.TO)[0].toString());
+        Assert.assertTrue(lastMimeMessage.getSubject().endsWith("(3)"));
+        String html = (String) lastMimeMessage.getContent();
+        Assert.assertTrue(html.contains("http://localhost:8089/sreality.html"));
+        Assert.assertTrue(html.contains("http://localhost:8089/remax.html"));
+        // style is shared with the e-mail of one page
+        Assert.assertTrue(html.contains("border-collapse"));
+    }
+
+    @Test
+    public void testSendErrorSummary() throws Exception {
+        ErrorSummary summary = new ErrorSummary("signature", new IllegalStateException("Page is down"), new Date());
+        summary.occurred("sreality", new Date());
+        summary.occurred("remax", new Date());
+
+        emailService.sendErrorSummary(Collections.singletonList(summary));
+
+        MimeMessage lastMimeMessage = myJavaMailSender.getLastMimeMessage();
+        Assert.assertTrue(lastMimeMessage.getSubject().contains("2 repeated errors"));
+        String html = (String) lastMimeMessage.getContent();
+        Assert.assertTrue(html.contains("Page is down"));
+        Assert.assertTrue(html.contains("sreality, remax"));
+    }
+
     /**
      * Create instance of {@link SearchPage} for testing purpose
      *
@@ -109,11 +195,21 @@ public class EmailServiceImplTest {
     private class MyJavaMailSender implements JavaMailSender {
         private boolean emailSent;
         private MimeMessage lastMimeMessage;
+        private final List<MimeMessage> sentMimeMessages = new ArrayList<MimeMessage>();
+        private final List<Integer> batchSizes = new ArrayList<Integer>();
 
         public MimeMessage getLastMimeMessage() {
             return lastMimeMessage;
         }
 
+        public List<MimeMessage> getSentMimeMessages() {
+            return sentMimeMessages;
+        }
+
+        public List<Integer> getBatchSizes() {
+            return batchSizes;
+        }
+
         private JavaMailSender mailSender = new JavaMailSenderImpl();
         private final Logger LOG = LoggerFactory.getLogger(MyJavaMailSender.class);
 
@@ -147,6 +243,11 @@ public class EmailServiceImplTest {
         }
 
         public void send(MimeMessage... arg0) throws MailException {
+            synchronized (sentMimeMessages) {
+                sentMimeMessages.addAll(Arrays.asList(arg0));
+                batchSizes.add(arg0.length);
+                Collections.sort(batchSizes, Collections.reverseOrder());
+            }
             emailSent = true;
 
         }
@@ -0,0 +1,100 @@
+package com.pavelsklenar.service.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.service.EmailService;
+import com.pavelsklenar.service.ErrorSummary;
+
+/**
+ * Test class for {@link ErrorNotifier}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class ErrorNotifierTest {
+
+    private final List<Exception> sentAtOnce = new ArrayList<Exception>();
+
+    private final List<Collection<ErrorSummary>> summaries = new ArrayList<Collection<ErrorSummary>>();
+
+    private final EmailService emailService = new EmailService() {
+
+        @Override
+        public void sendExcetionByEmail(Exception exception) {
+            sentAtOnce.add(exception);
+        }
+
+        @Override
+        public void sendSearchResults(SearchPage searchPage, List<SearchResult> listToSend) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendDigest(String emailAddress, Map<SearchPage, List<SearchResult>> resultsByPage) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendErrorSummary(Collection<ErrorSummary> errors) {
+            summaries.add(errors);
+        }
+    };
+
+    private ErrorNotifier errorNotifier;
+
+    @Before
+    public void setup() {
+        errorNotifier = new ErrorNotifier(emailService, 60);
+        errorNotifier.init();
+    }
+
+    @After
+    public void tearDown() {
+        errorNotifier.shutdown();
+    }
+
+    @Test
+    public void testRepeatedErrorsAreSummarized() {
+        for (int i = 0; i < 10; i++) {
+            errorNotifier.report(i % 2 == 0 ? "first" : "second", timeout(i));
+        }
+        errorNotifier.report("first", new IllegalStateException("Other error"));
+
+        Assert.assertEquals(2, sentAtOnce.size());
+        Assert.assertTrue(summaries.isEmpty());
+
+        errorNotifier.sendSummary();
+        Assert.assertEquals(1, summaries.size());
+        ErrorSummary summary = summaries.get(0).iterator().next();
+        Assert.assertEquals(9, summary.getCount());
+        Assert.assertEquals(2, summary.getPages().size());
+
+        // nothing repeated since the last summary
+        errorNotifier.sendSummary();
+        Assert.assertEquals(1, summaries.size());
+    }
+
+    @Test
+    public void testSignatureIgnoresNumbersAndWrapping() {
+        Assert.assertEquals(ErrorNotifier.signatureOf(timeout(1)),
+                ErrorNotifier.signatureOf(new RuntimeException("Cannot load page", timeout(20))));
+        Assert.assertNotEquals(ErrorNotifier.signatureOf(timeout(1)),
+                ErrorNotifier.signatureOf(new IOException("Connection refused")));
+    }
+
+    private Exception timeout(int i) {
+        return new IOException("Read timed out after " + (1000 + i) + " ms");
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.pavelsklenar.service.TooManyRequestsException;
+
+/**
+ * Test class for {@link HostDispatcher}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class HostDispatcherTest {
+
+    private HostDispatcher hostDispatcher = new HostDispatcher(4, 1, 200, 1, 10, 5);
+
+    private final Map<String, List<Long>> starts = new ConcurrentHashMap<String, List<Long>>();
+
+    @After
+    public void tearDown() throws InterruptedException {
+        hostDispatcher.shutdown();
+    }
+
+    @Test
+    public void testSpacingPerHostOnly() throws Exception {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(hostDispatcher.submit("http://slow.example.org/search?page=" + i, record("slow", 0)));
+            futures.add(hostDispatcher.submit("http://fast" + i + ".example.org/search", record("fast", 0)));
+        }
+        for (Future<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        List<Long> slow = starts.get("slow");
+        Assert.assertEquals(3, slow.size());
+        Assert.assertTrue(slow.get(1) - slow.get(0) >= 190);
+        Assert.assertTrue(slow.get(2) - slow.get(1) >= 190);
+        List<Long> fast = starts.get("fast");
+        // other hosts are not held back by the spacing of the slow one
+        Assert.assertTrue(fast.get(2) - fast.get(0) < 150);
+    }
+
+    @Test
+    public void testConcurrencyPerHost() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        hostDispatcher.shutdown();
+        hostDispatcher = new HostDispatcher(4, 2, 0, 1, 10, 5);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(hostDispatcher.submit("http://www.example.org/" + i, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    Thread.sleep(50);
+                    running.decrementAndGet();
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void testPauseHostAfterTooManyRequests() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        Future<Void> refused = hostDispatcher.submit("http://busy.example.org/1", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new TooManyRequestsException("429", 300);
+                }
+                return null;
+            }
+        });
+        refused.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(2, attempts.get());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 290);
+    }
+
+    @Test
+    public void testSkipHostPausedForLongTime() throws Exception {
+        Future<Void> refused = hostDispatcher.submit("http://busy.example.org/1", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new TooManyRequestsException("429", TimeUnit.MINUTES.toMillis(10));
+            }
+        });
+        Future<Void> waiting = hostDispatcher.submit("http://busy.example.org/2", record("busy", 0));
+        refused.get(5, TimeUnit.SECONDS);
+        waiting.get(5, TimeUnit.SECONDS);
+        Assert.assertNull(starts.get("busy"));
+    }
+
+    @Test
+    public void testFurtherRequestWaitsForTurnOfHost() throws Exception {
+        final List<Long> turns = new ArrayList<Long>();
+        hostDispatcher.submit("http://paged.example.org/search", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                turns.add(System.currentTimeMillis());
+                Assert.assertTrue(hostDispatcher.awaitTurn("http://paged.example.org/search?page=2"));
+                turns.add(System.currentTimeMillis());
+                return null;
+            }
+        }).get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(turns.get(1) - turns.get(0) >= 190);
+    }
+
+    @Test
+    public void testNoFurtherRequestToHostPausedForLongTime() throws Exception {
+        hostDispatcher.submit("http://busy.example.org/1", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new TooManyRequestsException("429", TimeUnit.MINUTES.toMillis(10));
+            }
+        }).get(5, TimeUnit.SECONDS);
+        Assert.assertFalse(hostDispatcher.awaitTurn("http://busy.example.org/1?page=2"));
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testFailureIsPassedToFuture() throws Exception {
+        hostDispatcher.submit("http://www.example.org/", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new IllegalStateException("failure");
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testTasksNotStartedAreCancelledOnShutdown() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        hostDispatcher.shutdown();
+        hostDispatcher = new HostDispatcher(1, 1, 200, 1, 10, 5);
+        Future<Void> running = hostDispatcher.submit("http://www.example.org/1", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                started.countDown();
+                Thread.sleep(100);
+                return null;
+            }
+        });
+        // waiting for the spacing of its host and for a free worker
+        Future<Void> spaced = hostDispatcher.submit("http://www.example.org/2", record("spaced", 0));
+        Future<Void> queued = hostDispatcher.submit("http://other.example.org/", record("queued", 0));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        hostDispatcher.shutdown();
+
+        for (Future<Void> future : Arrays.asList(spaced, queued)) {
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                Assert.fail("Task not started must be cancelled");
+            } catch (CancellationException e) {
+                // expected
+            }
+        }
+        Assert.assertTrue(running.isDone());
+        Assert.assertTrue(starts.isEmpty());
+    }
+
+    @Test
+    public void testCancelledTaskIsNotStarted() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        hostDispatcher.shutdown();
+        hostDispatcher = new HostDispatcher(1, 1, 0, 1, 10, 5);
+        Future<Void> running = hostDispatcher.submit("http://www.example.org/", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+        Future<Void> waiting = hostDispatcher.submit("http://other.example.org/", record("cancelled", 0));
+        waiting.cancel(false);
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        Assert.assertNull(starts.get("cancelled"));
+    }
+
+    private Callable<Void> record(final String group, final long sleepMillis) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                List<Long> groupStarts = starts.get(group);
+                if (groupStarts == null) {
+                    starts.putIfAbsent(group, Collections.synchronizedList(new ArrayList<Long>()));
+                    groupStarts = starts.get(group);
+                }
+                groupStarts.add(System.currentTimeMillis());
+                Thread.sleep(sleepMillis);
+                return null;
+            }
+        };
+    }
+
+}
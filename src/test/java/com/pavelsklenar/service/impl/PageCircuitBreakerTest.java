@@ -0,0 +1,98 @@
+package com.pavelsklenar.service.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.service.impl.PageCircuitBreaker.State;
+
+/**
+ * Test class for {@link PageCircuitBreaker}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class PageCircuitBreakerTest {
+
+    private static final long MINUTE = 60000;
+
+    private final PageCircuitBreaker breaker = new PageCircuitBreaker(true, 3, 60, 300);
+
+    private final SearchPage page = new SearchPage("page", "http://www.example.org/search");
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() {
+        breaker.recordFailure(page, 0);
+        breaker.recordFailure(page, 0);
+        Assert.assertTrue(breaker.allowRequest(page, 0));
+        breaker.recordFailure(page, 0);
+
+        Assert.assertEquals(State.OPEN, breaker.stateOf(page));
+        Assert.assertFalse(breaker.allowRequest(page, MINUTE - 1));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        breaker.recordFailure(page, 0);
+        breaker.recordFailure(page, 0);
+        breaker.recordSuccess(page);
+        breaker.recordFailure(page, 0);
+
+        Assert.assertEquals(State.CLOSED, breaker.stateOf(page));
+    }
+
+    @Test
+    public void testOnlyOneProbeAfterPause() {
+        open();
+
+        Assert.assertTrue(breaker.allowRequest(page, MINUTE));
+        Assert.assertEquals(State.HALF_OPEN, breaker.stateOf(page));
+        Assert.assertFalse(breaker.allowRequest(page, MINUTE));
+
+        breaker.recordSuccess(page);
+        Assert.assertEquals(State.CLOSED, breaker.stateOf(page));
+        Assert.assertTrue(breaker.allowRequest(page, MINUTE));
+    }
+
+    @Test
+    public void testFailedProbeDoublesPauseUpToMaximum() {
+        open();
+
+        Assert.assertTrue(breaker.allowRequest(page, MINUTE));
+        breaker.recordFailure(page, MINUTE);
+        Assert.assertFalse(breaker.allowRequest(page, 3 * MINUTE - 1));
+        Assert.assertTrue(breaker.allowRequest(page, 3 * MINUTE));
+        breaker.recordFailure(page, 3 * MINUTE);
+        Assert.assertFalse(breaker.allowRequest(page, 7 * MINUTE - 1));
+        Assert.assertTrue(breaker.allowRequest(page, 7 * MINUTE));
+        breaker.recordFailure(page, 7 * MINUTE);
+        // 8 minutes would exceed the maximum of 5
+        Assert.assertTrue(breaker.allowRequest(page, 12 * MINUTE));
+    }
+
+    @Test
+    public void testInconclusiveProbeIsRepeated() {
+        open();
+
+        Assert.assertTrue(breaker.allowRequest(page, MINUTE));
+        breaker.recordInconclusive(page);
+
+        Assert.assertEquals(State.OPEN, breaker.stateOf(page));
+        Assert.assertTrue(breaker.allowRequest(page, MINUTE));
+    }
+
+    @Test
+    public void testDisabledBreakerAllowsAll() {
+        PageCircuitBreaker disabled = new PageCircuitBreaker(false, 1, 60, 300);
+        disabled.recordFailure(page, 0);
+
+        Assert.assertTrue(disabled.allowRequest(page, 0));
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure(page, 0);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.pavelsklenar.service.impl;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.pavelsklenar.domain.SearchPage;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Test class for {@link PipelineEvents}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class PipelineEventsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PipelineEvents pipelineEvents;
+
+    @Before
+    public void setup() {
+        pipelineEvents = new PipelineEvents(false, 10, 10, folder.getRoot().getAbsolutePath());
+        pipelineEvents.init();
+        Assume.assumeTrue(pipelineEvents.isAvailable());
+    }
+
+    @After
+    public void tearDown() {
+        pipelineEvents.shutdown();
+    }
+
+    @Test
+    public void testStagesAreRecordedAndDumped() throws Exception {
+        SearchPage searchPage = new SearchPage("page", "http://www.example.org/search");
+        // nothing is recorded before the recording starts
+        pipelineEvents.begin(PipelineEvents.PROCESS_SEARCH, searchPage).end(1);
+
+        pipelineEvents.startRecording();
+        Assert.assertTrue(pipelineEvents.isRecording());
+        pipelineEvents.begin(PipelineEvents.PROCESS_SEARCH, searchPage).end(12);
+        pipelineEvents.begin(PipelineEvents.PROCESS_COMPARE, searchPage).end(12);
+        pipelineEvents.begin(PipelineEvents.SAVE_RESULTS, searchPage).end(3);
+        File dump = new File(pipelineEvents.dumpRecording());
+        pipelineEvents.stopRecording();
+        Assert.assertFalse(pipelineEvents.isRecording());
+
+        Map<String, Integer> rowsByEvent = new HashMap<String, Integer>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(dump.toPath())) {
+            String name = event.getEventType().getName();
+            if (name.startsWith("com.pavelsklenar.")) {
+                Assert.assertNull(rowsByEvent.put(name, event.getInt("rows")));
+                Assert.assertEquals("page", event.getString("pageName"));
+            }
+        }
+        Assert.assertEquals(3, rowsByEvent.size());
+        Assert.assertEquals(Integer.valueOf(12), rowsByEvent.get("com.pavelsklenar.ProcessSearch"));
+        Assert.assertEquals(Integer.valueOf(3), rowsByEvent.get("com.pavelsklenar.SaveSearchResults"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDumpWithoutRecordingFails() throws Exception {
+        pipelineEvents.dumpRecording();
+    }
+
+}
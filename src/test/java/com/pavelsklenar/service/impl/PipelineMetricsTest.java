@@ -0,0 +1,93 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Test class for {@link PipelineMetrics}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class PipelineMetricsTest {
+
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics(0);
+
+    private final SearchPage first = new SearchPage("First page", "http://www.example.org/first");
+
+    private final SearchPage second = new SearchPage("second", "http://www.example.com/second");
+
+    @Test
+    public void testStagesAreTaggedByHostAndPage() {
+        pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, first, pipelineMetrics.start());
+        pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, second, pipelineMetrics.start());
+        pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, second, pipelineMetrics.start());
+
+        Map<String, Number> metrics = metrics();
+        Assert.assertEquals(3L, metrics.get("pipeline.pageLoad.count"));
+        Assert.assertEquals(1L, metrics.get("pipeline.pageLoad.host.www_example_org.count"));
+        Assert.assertEquals(2L, metrics.get("pipeline.pageLoad.host.www_example_com.count"));
+        Assert.assertEquals(1L, metrics.get("pipeline.pageLoad.page.First_page.count"));
+        Assert.assertNotNull(metrics.get("pipeline.pageLoad.avgMillis"));
+        Assert.assertNotNull(metrics.get("pipeline.pageLoad.maxMillis"));
+    }
+
+    @Test
+    public void testSavedPagesAreTaggedById() {
+        SearchPage renamed = new SearchPage("renamed", "http://www.example.org/first");
+        ReflectionTestUtils.setField(first, "id", 7L);
+        ReflectionTestUtils.setField(renamed, "id", 7L);
+        ReflectionTestUtils.setField(second, "id", 8L);
+        second.setName(first.getName());
+        pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, first, pipelineMetrics.start());
+        pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, renamed, pipelineMetrics.start());
+        pipelineMetrics.record(PipelineMetrics.PAGE_LOAD, second, pipelineMetrics.start());
+
+        Map<String, Number> metrics = metrics();
+        Assert.assertEquals(2L, metrics.get("pipeline.pageLoad.page.7.count"));
+        Assert.assertEquals(1L, metrics.get("pipeline.pageLoad.page.8.count"));
+        Assert.assertFalse(metrics.containsKey("pipeline.pageLoad.page.First_page.count"));
+        pipelineMetrics.logMetrics();
+    }
+
+    @Test
+    public void testAverageIsComputedPerUnit() throws InterruptedException {
+        long start = pipelineMetrics.start();
+        Thread.sleep(20);
+        pipelineMetrics.record(PipelineMetrics.EXTRACT, first, start, 10);
+
+        Map<String, Number> metrics = metrics();
+        double avg = metrics.get("pipeline.extract.avgMillis").doubleValue();
+        double max = metrics.get("pipeline.extract.maxMillis").doubleValue();
+        Assert.assertEquals(1L, metrics.get("pipeline.extract.count"));
+        Assert.assertEquals(max / 10, avg, 0.001);
+    }
+
+    @Test
+    public void testCounters() {
+        pipelineMetrics.count(PipelineMetrics.FOUND, first, 5);
+        pipelineMetrics.count(PipelineMetrics.FOUND, second, 3);
+        pipelineMetrics.count(PipelineMetrics.OMITTED, second, 0);
+
+        Assert.assertEquals(8, pipelineMetrics.getCounter(PipelineMetrics.FOUND));
+        Assert.assertEquals(3, pipelineMetrics.getCounter(PipelineMetrics.FOUND + ".page.second"));
+        Assert.assertFalse(metrics().containsKey("pipeline.results.omitted"));
+        pipelineMetrics.logMetrics();
+    }
+
+    private Map<String, Number> metrics() {
+        Map<String, Number> result = new HashMap<String, Number>();
+        for (Metric<?> metric : pipelineMetrics.metrics()) {
+            result.put(metric.getName(), metric.getValue());
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.pavelsklenar.domain.SearchPage;
+
+/**
+ * Test class for {@link PipelineStage}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class PipelineStageTest {
+
+    private final SearchPage searchPage = new SearchPage("page", "http://www.example.org/search");
+
+    private PipelineStage stage = createStage(1, 5);
+
+    private final ExecutorService fetcher = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() throws InterruptedException {
+        fetcher.shutdownNow();
+        stage.shutdown();
+    }
+
+    @Test
+    public void testFetchingWaitsWhileStageIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> processing = stage.submit(searchPage, awaiting(release, 1));
+        // the only worker is busy, the next page fills the queue
+        while (stage.metrics().iterator().next().getValue().intValue() > 0) {
+            Thread.sleep(10);
+        }
+        CompletableFuture<Integer> queued = stage.submit(searchPage, awaiting(release, 2));
+        Future<CompletableFuture<Integer>> blocked = fetcher.submit(new Callable<CompletableFuture<Integer>>() {
+            @Override
+            public CompletableFuture<Integer> call() throws Exception {
+                return stage.submit(searchPage, awaiting(release, 3));
+            }
+        });
+        try {
+            blocked.get(200, TimeUnit.MILLISECONDS);
+            Assert.fail("A page must not be queued over the capacity");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        release.countDown();
+        Assert.assertEquals(1, processing.get(5, TimeUnit.SECONDS).intValue());
+        Assert.assertEquals(2, queued.get(5, TimeUnit.SECONDS).intValue());
+        Assert.assertEquals(3, blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void testProcessedByCallerWithoutWorkers() throws Exception {
+        stage.shutdown();
+        stage = createStage(0, 5);
+        final Thread caller = Thread.currentThread();
+        CompletableFuture<Integer> processed = stage.submit(searchPage, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return Thread.currentThread() == caller ? 1 : 0;
+            }
+        });
+        Assert.assertTrue(processed.isDone());
+        Assert.assertEquals(1, processed.get().intValue());
+    }
+
+    @Test
+    public void testQueuedPagesAreProcessedOnShutdown() throws Exception {
+        CompletableFuture<Integer> processed = stage.submit(searchPage, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                Thread.sleep(100);
+                return 1;
+            }
+        });
+        stage.shutdown();
+        Assert.assertEquals(1, processed.get(1, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void testPageWaitingForStoppedStageIsCompleted() throws Exception {
+        stage.shutdown();
+        // queued pages are not drained, the stage stops at once
+        stage = createStage(1, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        stage.submit(searchPage, awaiting(release, 1));
+        while (stage.metrics().iterator().next().getValue().intValue() > 0) {
+            Thread.sleep(10);
+        }
+        stage.submit(searchPage, awaiting(release, 2));
+        Future<CompletableFuture<Integer>> blocked = fetcher.submit(new Callable<CompletableFuture<Integer>>() {
+            @Override
+            public CompletableFuture<Integer> call() throws Exception {
+                return stage.submit(searchPage, awaiting(release, 3));
+            }
+        });
+        Thread.sleep(100);
+        stage.shutdown();
+        release.countDown();
+        CompletableFuture<Integer> waiting = blocked.get(5, TimeUnit.SECONDS);
+        try {
+            Assert.assertEquals(3, waiting.get(5, TimeUnit.SECONDS).intValue());
+        } catch (CancellationException e) {
+            // taken from the queue by the stopping stage, still completed
+        }
+    }
+
+    private PipelineStage createStage(int workers, long drainTimeoutSeconds) {
+        return new PipelineStage("testStage", PipelineMetrics.DEDUP_QUEUE_WAIT, new PipelineMetrics(0), workers, 1,
+                drainTimeoutSeconds);
+    }
+
+    private Callable<Integer> awaiting(final CountDownLatch release, final int result) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                release.await();
+                return result;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.pavelsklenar.service.impl;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+/**
+ * Test class for {@link PooledJavaMailSender}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class PooledJavaMailSenderTest {
+
+    private SmtpStandIn smtpServer;
+
+    private PooledJavaMailSender mailSender;
+
+    @Before
+    public void setup() throws Exception {
+        smtpServer = new SmtpStandIn(0);
+        mailSender = new PooledJavaMailSender(2);
+        mailSender.setHost("127.0.0.1");
+        mailSender.setPort(smtpServer.getPort());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mailSender.destroy();
+        smtpServer.close();
+    }
+
+    @Test
+    public void testConnectionIsReused() throws MessagingException {
+        mailSender.send(createMessage(1));
+        mailSender.send(createMessage(2), createMessage(3));
+        mailSender.send(createMessage(4));
+
+        Assert.assertEquals(4, smtpServer.getMessageCount());
+        Assert.assertEquals(1, smtpServer.getConnectionCount());
+        Assert.assertEquals(1, mailSender.getConnectedCount());
+    }
+
+    @Test
+    public void testConnectionIsClosedAfterMaxMessages() throws MessagingException {
+        mailSender.setMaxMessagesPerConnection(2);
+
+        mailSender.send(createMessage(1), createMessage(2), createMessage(3));
+        mailSender.send(createMessage(4));
+
+        Assert.assertEquals(4, smtpServer.getMessageCount());
+        // the first connection reaches the limit only after the whole batch
+        Assert.assertEquals(2, smtpServer.getConnectionCount());
+    }
+
+    @Test
+    public void testLostConnectionIsReplaced() throws Exception {
+        mailSender.send(createMessage(1));
+        smtpServer.dropConnections();
+        Thread.sleep(100);
+
+        mailSender.send(createMessage(2));
+
+        Assert.assertEquals(2, smtpServer.getMessageCount());
+        Assert.assertEquals(2, smtpServer.getConnectionCount());
+    }
+
+    private MimeMessage createMessage(int i) throws MessagingException {
+        MimeMessage mimeMessage = mailSender.createMimeMessage();
+        MimeMessageHelper message = new MimeMessageHelper(mimeMessage, "UTF-8");
+        message.setFrom("info@example.org");
+        message.setTo("email" + i + "@xyz.com");
+        message.setSubject("Message " + i);
+        message.setText("<p>Message " + i + "</p>", true);
+        return mimeMessage;
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Test class for {@link PooledWebDriverFactory}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class PooledWebDriverFactoryTest {
+
+    @Test
+    public void testDriverIsReused() {
+        TestPool pool = new TestPool(0, 2);
+
+        WebDriver first = pool.getWebDriver();
+        pool.releaseWebDriver(first);
+        WebDriver second = pool.getWebDriver();
+        pool.releaseWebDriver(second);
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, pool.getCreatedCount());
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testMinSizeIsStartedInAdvance() {
+        TestPool pool = new TestPool(2, 3);
+        pool.afterPropertiesSet();
+
+        Assert.assertEquals(2, pool.getCreatedCount());
+        Assert.assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testDriverIsRecycledAfterMaxPages() {
+        TestPool pool = new TestPool(0, 1);
+        pool.setMaxPagesPerDriver(2);
+
+        WebDriver first = pool.getWebDriver();
+        pool.releaseWebDriver(first);
+        Assert.assertSame(first, pool.getWebDriver());
+        pool.releaseWebDriver(first);
+
+        WebDriver next = pool.getWebDriver();
+        Assert.assertNotSame(first, next);
+        Assert.assertEquals(1, pool.getRecycledCount());
+        Assert.assertEquals(1, pool.quitCount(first));
+    }
+
+    @Test
+    public void testBrokenDriverIsReplacedOnBorrow() {
+        TestPool pool = new TestPool(0, 1);
+        WebDriver first = pool.getWebDriver();
+        pool.releaseWebDriver(first);
+        pool.broken.add(first);
+
+        WebDriver next = pool.getWebDriver();
+
+        Assert.assertNotSame(first, next);
+        Assert.assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testInvalidatedDriverIsNotReused() {
+        TestPool pool = new TestPool(0, 1);
+        WebDriver first = pool.getWebDriver();
+        pool.invalidateWebDriver(first);
+
+        Assert.assertNotSame(first, pool.getWebDriver());
+        Assert.assertEquals(1, pool.quitCount(first));
+    }
+
+    @Test(expected = WebDriverException.class)
+    public void testExhaustedPoolTimesOut() {
+        TestPool pool = new TestPool(0, 1);
+        pool.setBorrowTimeoutSeconds(0);
+        pool.getWebDriver();
+        pool.getWebDriver();
+    }
+
+    /**
+     * Pool creating mocked drivers which track number of quit calls
+     */
+    private static class TestPool extends PooledWebDriverFactory {
+
+        private final List<WebDriver> quitted = new ArrayList<WebDriver>();
+
+        private final List<WebDriver> broken = new ArrayList<WebDriver>();
+
+        TestPool(int minSize, int maxSize) {
+            super(minSize, maxSize);
+        }
+
+        @Override
+        protected WebDriver createWebDriver() {
+            final WebDriver driver = EasyMock.createNiceMock(WebDriver.class);
+            EasyMock.expect(driver.getWindowHandles()).andAnswer(() -> {
+                if (broken.contains(driver)) {
+                    throw new WebDriverException("Browser has gone");
+                }
+                return Collections.singleton("window");
+            }).anyTimes();
+            driver.quit();
+            EasyMock.expectLastCall().andAnswer(() -> {
+                quitted.add(driver);
+                return null;
+            }).anyTimes();
+            EasyMock.replay(driver);
+            return driver;
+        }
+
+        int quitCount(WebDriver driver) {
+            return Collections.frequency(quitted, driver);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.service.EmailService;
+import com.pavelsklenar.service.ErrorSummary;
+
+/**
+ * Test class for {@link QueueingEmailService}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class QueueingEmailServiceTest {
+
+    private final SearchPage searchPage = new SearchPage("page", "http://www.example.org/search");
+
+    private final List<SearchResult> results = Collections.singletonList(new SearchResult(searchPage));
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private QueueingEmailService emailService;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        release.countDown();
+        if (emailService != null) {
+            emailService.shutdown();
+        }
+    }
+
+    @Test
+    public void testCallerDoesNotWaitForMailServer() throws Exception {
+        emailService = new QueueingEmailService(new SlowEmailService(), 10, 1, 1, 0, 1, 5);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            emailService.sendSearchResults(searchPage, results);
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 500);
+        Assert.assertEquals(0, sent.get());
+        release.countDown();
+        emailService.shutdown();
+        Assert.assertEquals(5, sent.get());
+    }
+
+    @Test
+    public void testFullQueueRejectsNotification() throws Exception {
+        emailService = new QueueingEmailService(new SlowEmailService(), 1, 1, 1, 0, 0, 5);
+        // one notification is being sent and one waits in the queue
+        emailService.sendSearchResults(searchPage, results);
+        Thread.sleep(200);
+        emailService.sendSearchResults(searchPage, results);
+        try {
+            emailService.sendSearchResults(searchPage, results);
+            Assert.fail("Full queue must reject the notification");
+        } catch (MessagingException e) {
+            // expected
+        }
+        Assert.assertEquals(Long.valueOf(1), metric("notification.queue.rejected"));
+    }
+
+    @Test
+    public void testFailedNotificationIsRetried() throws Exception {
+        failures.set(2);
+        release.countDown();
+        emailService = new QueueingEmailService(new SlowEmailService(), 10, 1, 3, 0, 1, 5);
+        emailService.sendExcetionByEmail(new IllegalStateException("test"));
+        emailService.shutdown();
+        Assert.assertEquals(1, sent.get());
+        Assert.assertEquals(Long.valueOf(2), metric("notification.retried"));
+        Assert.assertEquals(Long.valueOf(0), metric("notification.failed"));
+    }
+
+    private Object metric(String name) {
+        for (Metric<?> metric : emailService.metrics()) {
+            if (metric.getName().equals(name)) {
+                return metric.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mail server answering only after the test releases it, failing a given
+     * number of times
+     */
+    private class SlowEmailService implements EmailService {
+
+        @Override
+        public void sendExcetionByEmail(Exception exception) throws MessagingException {
+            send();
+        }
+
+        @Override
+        public void sendSearchResults(SearchPage searchPage, List<SearchResult> listToSend)
+                throws MessagingException {
+            send();
+        }
+
+        @Override
+        public void sendDigest(String emailAddress, Map<SearchPage, List<SearchResult>> resultsByPage)
+                throws MessagingException {
+            send();
+        }
+
+        @Override
+        public void sendErrorSummary(Collection<ErrorSummary> errors) throws MessagingException {
+            send();
+        }
+
+        private void send() throws MessagingException {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw new MessagingException("Mail server is not available");
+            }
+            sent.incrementAndGet();
+        }
+    }
+
+}
@@ -1,14 +1,19 @@
 package com.pavelsklenar.service.impl;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -20,12 +25,18 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import com.pavelsklenar.TestApplication;
 import com.pavelsklenar.domain.SearchPage;
 import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.repository.SearchPageRepository;
+import com.pavelsklenar.service.FetchedSearchPage;
+import com.pavelsklenar.service.FetchedSearchPage.Status;
 import com.pavelsklenar.service.SearchPageProcessor;
+import com.pavelsklenar.service.SearchRepoService;
+import com.pavelsklenar.service.TooManyRequestsException;
 
 /**
  * Test class for {@link SearchPageProcessorImpl}
@@ -39,6 +50,12 @@ public class SearchPageProcessorImplTest {
 
     @Autowired
     private SearchPageProcessor searchPageProcessor;
+
+    @Autowired
+    private SearchRepoService searchRepoService;
+
+    @Autowired
+    private SearchPageRepository searchPageRepository;
     private static final Logger LOG = LoggerFactory.getLogger(SearchPageProcessorImplTest.class);
 
     @Rule
@@ -72,6 +89,73 @@ public class SearchPageProcessorImplTest {
         Assert.assertEquals(20, processed.size());
     }
 
+    @Test
+    public void testProcessSeznamCzWithJavascript() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithJavascript();
+
+        createHttpStub(searchPage);
+
+        List<SearchResult> processed = searchPageProcessor.processSearch(searchPage);
+
+        LOG.info("Number of processed result from page {}: {}", searchPage.getUrl(), processed.size());
+
+        Assert.assertEquals(20, processed.size());
+    }
+
+    @Test
+    public void testProcessSeznamCzWithJavascriptByElements() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithJavascript();
+
+        createHttpStub(searchPage);
+
+        List<SearchResult> byScript = searchPageProcessor.processSearch(searchPage);
+        List<SearchResult> byElements;
+        ReflectionTestUtils.setField(searchPageProcessor, "extractionMode", "element");
+        try {
+            byElements = searchPageProcessor.processSearch(searchPage);
+        } finally {
+            ReflectionTestUtils.setField(searchPageProcessor, "extractionMode", "script");
+        }
+
+        Assert.assertEquals(20, byScript.size());
+        Assert.assertEquals(byScript.size(), byElements.size());
+        for (int i = 0; i < byScript.size(); i++) {
+            SearchResult expected = byScript.get(i);
+            SearchResult actual = byElements.get(i);
+            Assert.assertNotNull(expected.getUrl());
+            Assert.assertEquals(expected.getTitle(), actual.getTitle());
+            Assert.assertEquals(expected.getPrice(), actual.getPrice());
+            Assert.assertEquals(expected.getUrl(), actual.getUrl());
+            Assert.assertEquals(expected.getImageUrl(), actual.getImageUrl());
+            Assert.assertEquals(expected.getDescription(), actual.getDescription());
+        }
+    }
+
+    @Test
+    public void testProcessSeznamCzByCssSelectors() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithCssSelectors();
+
+        createHttpStub(searchPage);
+
+        List<SearchResult> processed = searchPageProcessor.processSearch(searchPage);
+
+        Assert.assertEquals(20, processed.size());
+        Assert.assertNotNull(processed.get(0).getPrice());
+    }
+
+    @Test
+    public void testProcessSeznamCzByCssSelectorsWithJavascript() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithCssSelectors();
+        searchPage.setJavascriptEnabled(true);
+
+        createHttpStub(searchPage);
+
+        List<SearchResult> processed = searchPageProcessor.processSearch(searchPage);
+
+        Assert.assertEquals(20, processed.size());
+        Assert.assertNotNull(processed.get(0).getPrice());
+    }
+
     @Test
     public void testJihoCeskeRealityCz() throws Exception {
         SearchPage searchPage = new SearchPage("jihoceskereality", "http://localhost:8089/jihoceskereality.html");
@@ -175,6 +259,153 @@ public class SearchPageProcessorImplTest {
         Assert.assertEquals(20, processed.size());
     }
 
+    @Test
+    public void testSkipNotModifiedPage() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithCssSelectors();
+        searchPage.setUrl("http://localhost:8089/sreality-etag.html");
+        String body = readFileFromClassPathAsString("/pages/sreality.html");
+        stubFor(get(urlEqualTo("/sreality-etag.html")).atPriority(2).willReturn(aResponse().withStatus(200)
+                .withHeader("Content-Type", "text/html; charset=UTF-8").withHeader("ETag", "\"v1\"")
+                .withBody(body.getBytes())));
+        stubFor(get(urlEqualTo("/sreality-etag.html")).atPriority(1)
+                .withHeader("If-None-Match", equalTo("\"v1\"")).willReturn(aResponse().withStatus(304)));
+
+        FetchedSearchPage first = searchPageProcessor.processSearchIfChanged(searchPage);
+        Assert.assertEquals(Status.CHANGED, first.getStatus());
+        Assert.assertEquals(20, first.getSearchResults().size());
+        Assert.assertEquals("\"v1\"", first.getVersion().getEtag());
+
+        // not confirmed, so processed again
+        Assert.assertEquals(Status.CHANGED, searchPageProcessor.processSearchIfChanged(searchPage).getStatus());
+
+        searchPageProcessor.confirmProcessed(searchPage, first);
+        FetchedSearchPage second = searchPageProcessor.processSearchIfChanged(searchPage);
+        Assert.assertEquals(Status.NOT_MODIFIED, second.getStatus());
+        Assert.assertTrue(second.getSearchResults().isEmpty());
+    }
+
+    @Test
+    public void testSkipPageWithSameContent() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithCssSelectors();
+        searchPage.setUrl("http://localhost:8089/sreality-same.html");
+        String body = readFileFromClassPathAsString("/pages/sreality.html");
+        stubFor(get(urlEqualTo("/sreality-same.html")).willReturn(aResponse().withStatus(200)
+                .withHeader("Content-Type", "text/html; charset=UTF-8").withBody(body.getBytes())));
+
+        searchPageProcessor.confirmProcessed(searchPage, searchPageProcessor.processSearchIfChanged(searchPage));
+        Assert.assertEquals(Status.SAME_CONTENT, searchPageProcessor.processSearchIfChanged(searchPage).getStatus());
+
+        // the same page with other selectors is processed again
+        searchPage.setOmitClassesInSearchResult("paging, top");
+        Assert.assertEquals(Status.CHANGED, searchPageProcessor.processSearchIfChanged(searchPage).getStatus());
+    }
+
+    @Test
+    public void testSkipPageWithSameContentWithJavascript() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithCssSelectors();
+        searchPage.setJavascriptEnabled(true);
+        searchPage.setUrl("http://localhost:8089/sreality-same-js.html");
+        String body = readFileFromClassPathAsString("/pages/sreality.html");
+        stubFor(get(urlEqualTo("/sreality-same-js.html")).willReturn(aResponse().withStatus(200)
+                .withHeader("Content-Type", "text/html; charset=UTF-8").withBody(body.getBytes())));
+
+        FetchedSearchPage first = searchPageProcessor.processSearchIfChanged(searchPage);
+        Assert.assertEquals(20, first.getSearchResults().size());
+        searchPageProcessor.confirmProcessed(searchPage, first);
+        Assert.assertEquals(Status.SAME_CONTENT, searchPageProcessor.processSearchIfChanged(searchPage).getStatus());
+    }
+
+    @Test
+    public void testTooManyRequests() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithCssSelectors();
+        searchPage.setUrl("http://localhost:8089/sreality-busy.html");
+        stubFor(get(urlEqualTo("/sreality-busy.html"))
+                .willReturn(aResponse().withStatus(429).withHeader("Retry-After", "120")));
+        try {
+            searchPageProcessor.processSearch(searchPage);
+            Assert.fail("Refused page must not be processed");
+        } catch (TooManyRequestsException e) {
+            Assert.assertEquals(TimeUnit.SECONDS.toMillis(120), e.getRetryAfterMillis());
+        }
+    }
+
+    @Test
+    public void testFollowNextPagesUpToLimit() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithCssSelectors();
+        searchPage.setUrl("http://localhost:8089/paged-1.html");
+        searchPage.setXpathToNextPage("css:a.next");
+        searchPage.setMaxPages(3);
+        createPagedHttpStub("paged", 4);
+
+        List<SearchResult> processed = searchPageProcessor.processSearch(searchPage);
+
+        Assert.assertEquals(9, processed.size());
+        Assert.assertEquals("http://localhost:8089/paged/flat-3-3", processed.get(8).getUrl());
+        verify(0, getRequestedFor(urlEqualTo("/paged-4.html")));
+    }
+
+    @Test
+    public void testFollowNextPagesWithJavascript() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithCssSelectors();
+        searchPage.setJavascriptEnabled(true);
+        searchPage.setUrl("http://localhost:8089/paged-js-1.html");
+        searchPage.setXpathToNextPage(".//a[@class='next']");
+        createPagedHttpStub("paged-js", 2);
+
+        List<SearchResult> processed = searchPageProcessor.processSearch(searchPage);
+
+        Assert.assertEquals(6, processed.size());
+        Assert.assertEquals("http://localhost:8089/paged-js/flat-2-1", processed.get(3).getUrl());
+    }
+
+    @Test
+    public void testStopFollowingAtKnownResults() throws Exception {
+        SearchPage searchPage = createSeznamCzPageWithCssSelectors();
+        searchPage.setUrl("http://localhost:8089/known-1.html");
+        searchPage.setXpathToNextPage("css:a.next");
+        searchPage = searchPageRepository.save(searchPage);
+        createPagedHttpStub("known", 3);
+        // the newest result only is not known, the run of 5 known results ends on page 2
+        List<SearchResult> known = new ArrayList<SearchResult>();
+        for (String url : new String[] { "flat-1-2", "flat-1-3", "flat-2-1", "flat-2-2", "flat-2-3" }) {
+            SearchResult searchResult = new SearchResult(searchPage);
+            searchResult.setUrl("http://localhost:8089/known/" + url);
+            known.add(searchResult);
+        }
+        searchRepoService.saveAllSearchResults(known);
+
+        List<SearchResult> processed = searchPageProcessor.processSearch(searchPage);
+
+        Assert.assertEquals(6, processed.size());
+        verify(1, getRequestedFor(urlEqualTo("/known-2.html")));
+        verify(0, getRequestedFor(urlEqualTo("/known-3.html")));
+    }
+
+    private SearchPage createSeznamCzPageWithJavascript() {
+        SearchPage searchPage = new SearchPage("sreality", "http://localhost:8089/sreality.html");
+        searchPage.setJavascriptEnabled(true);
+        searchPage.setXpathToListOfResults(".//*[contains(concat(' ',normalize-space(@class),' '),' property ')]");
+        searchPage.setXpathToImage(".//*[contains(concat(' ',normalize-space(@class),' '),' img ')]");
+        searchPage.setXpathToDescription(".//*[contains(concat(' ',normalize-space(@class),' '),' locality ')]");
+        searchPage.setXpathToUrl(".//*[contains(concat(' ',normalize-space(@class),' '),' title ')]");
+        searchPage.setXpathToTitle(".//*[contains(concat(' ',normalize-space(@class),' '),' title ')]");
+        searchPage.setXpathToPrice(".//*[contains(concat(' ',normalize-space(@class),' '),' price ')]");
+        searchPage.setOmitClassesInSearchResult("paging");
+        return searchPage;
+    }
+
+    private SearchPage createSeznamCzPageWithCssSelectors() {
+        SearchPage searchPage = new SearchPage("sreality", "http://localhost:8089/sreality.html");
+        searchPage.setXpathToListOfResults("css:.property");
+        searchPage.setXpathToImage("css:.img");
+        searchPage.setXpathToDescription("css:.locality");
+        searchPage.setXpathToUrl("css:.title");
+        searchPage.setXpathToTitle("css:.title");
+        searchPage.setXpathToPrice("css:.price");
+        searchPage.setOmitClassesInSearchResult("paging");
+        return searchPage;
+    }
+
     /**
      * Create a HTTP server page which returns a specific page to a specific
      * request<br />
@@ -188,6 +419,28 @@ public class SearchPageProcessorImplTest {
                         readFileFromClassPathAsString("/pages/" + searchPage.getName() + ".html").getBytes())));
     }
 
+    /**
+     * Create pages {prefix}-1.html to {prefix}-{pages}.html with 3 results
+     * each, every page links the next one
+     */
+    private void createPagedHttpStub(String prefix, int pages) {
+        for (int page = 1; page <= pages; page++) {
+            StringBuilder body = new StringBuilder("<html><body>");
+            for (int row = 1; row <= 3; row++) {
+                body.append("<div class=\"property\"><a class=\"title\" href=\"/").append(prefix).append("/flat-")
+                        .append(page).append('-').append(row).append("\">Flat ").append(page).append('-').append(row)
+                        .append("</a><span class=\"price\">").append(row).append(" 000 000 Kc</span></div>");
+            }
+            if (page < pages) {
+                body.append("<a class=\"next\" href=\"").append(prefix).append('-').append(page + 1)
+                        .append(".html\">Next</a>");
+            }
+            body.append("</body></html>");
+            stubFor(get(urlEqualTo("/" + prefix + "-" + page + ".html")).willReturn(aResponse().withStatus(200)
+                    .withHeader("Content-Type", "text/html; charset=UTF-8").withBody(body.toString().getBytes())));
+        }
+    }
+
     /**
      * Read content of file on classpath in to String
      *
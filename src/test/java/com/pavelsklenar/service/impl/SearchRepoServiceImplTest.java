@@ -0,0 +1,365 @@
+package com.pavelsklenar.service.impl;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.pavelsklenar.TestApplication;
+import com.pavelsklenar.domain.EmailAddress;
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultChange;
+import com.pavelsklenar.domain.UrlFingerprint;
+import com.pavelsklenar.repository.EmailAddressRepository;
+import com.pavelsklenar.repository.SearchPageRepository;
+import com.pavelsklenar.repository.SearchResultArchiveRepository;
+import com.pavelsklenar.repository.SearchResultChangeRepository;
+import com.pavelsklenar.repository.SearchResultRepository;
+import com.pavelsklenar.service.SearchRepoService;
+
+/**
+ * Test class for {@link SearchRepoServiceImpl}
+ *
+ * @author pavel.sklenar
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class SearchRepoServiceImplTest {
+
+    private static final String URL = "http://Localhost/repo/1";
+
+    @Autowired
+    private SearchRepoService searchRepoService;
+
+    @Autowired
+    private SearchPageRepository searchPageRepository;
+
+    @Autowired
+    private SearchResultRepository searchResultRepository;
+
+    @Autowired
+    private EmailAddressRepository emailAddressRepository;
+
+    @Autowired
+    private UrlHashBackfill urlHashBackfill;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SearchResultIdSeed searchResultIdSeed;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private SearchResultArchiveRepository searchResultArchiveRepository;
+
+    @Autowired
+    private SearchResultChangeRepository searchResultChangeRepository;
+
+    @Autowired
+    private SearchResultRetention searchResultRetention;
+
+    @Autowired
+    private ConfigurationCache configurationCache;
+
+    private SearchPage searchPage;
+
+    private SearchResult searchResult;
+
+    @Before
+    public void setup() {
+        searchPage = new SearchPage("repo", "http://localhost:8089/repo.html");
+        searchPage.setXpathToListOfResults("//div");
+        searchPage = searchPageRepository.save(searchPage);
+        searchResult = new SearchResult(searchPage);
+        searchResult.setUrl(URL);
+        searchRepoService.saveAllSearchResults(Collections.singletonList(searchResult));
+    }
+
+    @After
+    public void cleanup() {
+        searchResultRepository.delete(searchResult.getId());
+        searchPageRepository.delete(searchPage);
+    }
+
+    @Test
+    public void testUrlHashIsSetOnSave() {
+        Assert.assertEquals(Long.valueOf(UrlFingerprint.of(URL)), searchResultRepository.findOne(searchResult.getId())
+                .getUrlHash());
+    }
+
+    @Test
+    public void testFindByUrlHash() {
+        List<SearchResult> found = searchRepoService.findByUrl("http://localhost/repo/1");
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(URL, found.get(0).getUrl());
+        Assert.assertTrue(searchRepoService.findByUrl("http://localhost/repo/2").isEmpty());
+
+        Set<String> existing = searchRepoService.findExistingUrls(Arrays.asList(URL, "http://localhost/repo/2"));
+        Assert.assertEquals(Collections.singleton(URL), existing);
+    }
+
+    @Test
+    public void testIteratePagesInBatchesAndLoadRecipients() {
+        EmailAddress emailAddress = new EmailAddress();
+        emailAddress.setEmailAddress("repo@xyz.com");
+        emailAddress = emailAddressRepository.save(emailAddress);
+        List<SearchPage> created = new ArrayList<SearchPage>();
+        for (int i = 0; i < 5; i++) {
+            SearchPage page = new SearchPage("batch" + i, "http://localhost:8089/batch" + i + ".html");
+            page.setXpathToListOfResults("//div");
+            page.setEmailAddresses(i == 0 ? Collections.singleton(emailAddress) : null);
+            created.add(searchPageRepository.save(page));
+        }
+        Object target = AopTestUtils.getTargetObject(searchRepoService);
+        ReflectionTestUtils.setField(target, "loadBatchSize", 2);
+        try {
+            List<SearchPage> iterated = new ArrayList<SearchPage>();
+            for (SearchPage page : searchRepoService.iterateSearchPages()) {
+                iterated.add(page);
+            }
+            Assert.assertEquals(searchPageRepository.count(), iterated.size());
+            Assert.assertEquals(searchRepoService.getAllSearchPages().size(), iterated.size());
+            SearchPage first = null;
+            for (SearchPage page : iterated) {
+                if (page.getId().equals(created.get(0).getId())) {
+                    first = page;
+                }
+            }
+
+            Collection<EmailAddress> recipients = searchRepoService.loadEmailAddresses(first);
+            Assert.assertEquals(1, recipients.size());
+            Assert.assertEquals("repo@xyz.com", first.getEmailAddresses().iterator().next().getEmailAddress());
+        } finally {
+            ReflectionTestUtils.setField(target, "loadBatchSize", 100);
+            searchPageRepository.delete(created);
+            emailAddressRepository.delete(emailAddress);
+        }
+    }
+
+    @Test
+    public void testConfigurationIsCachedUntilChanged() {
+        EmailAddress emailAddress = new EmailAddress();
+        emailAddress.setEmailAddress("cache@xyz.com");
+        emailAddress = emailAddressRepository.save(emailAddress);
+        searchPage.setEmailAddresses(Collections.singleton(emailAddress));
+        searchPage = searchPageRepository.save(searchPage);
+        try {
+            readConfiguration();
+            Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+            statistics.clear();
+            long hits = configurationCache.getHits();
+
+            Assert.assertEquals(1, readConfiguration());
+            Assert.assertEquals(0, statistics.getPrepareStatementCount());
+            Assert.assertEquals(hits + 2, configurationCache.getHits());
+
+            // every reader gets its own pages, recipients loaded by one are not seen by the others
+            SearchPage first = configurationCache.getPages().get(0);
+            SearchPage second = configurationCache.getPages().get(0);
+            Assert.assertNotSame(first, second);
+            Assert.assertEquals(first.getId(), second.getId());
+            searchRepoService.loadEmailAddresses(first);
+            Assert.assertNull(second.getEmailAddresses());
+
+            SearchPage added = new SearchPage("cached", "http://localhost:8089/cached.html");
+            added.setXpathToListOfResults("//div");
+            added = searchPageRepository.save(added);
+            try {
+                Assert.assertNull(configurationCache.getPages());
+                Assert.assertEquals(searchPageRepository.count(), searchRepoService.getAllSearchPages().size());
+                Assert.assertTrue(configurationCache.getSize() > 0);
+            } finally {
+                searchPageRepository.delete(added);
+            }
+
+            readConfiguration();
+            configurationCache.evict();
+            Assert.assertEquals(0, configurationCache.getSize());
+
+            readConfiguration();
+            Assert.assertTrue(configurationCache.getSize() > 0);
+            // a change of recipients only is a change of the configuration too
+            searchPage.setEmailAddresses(new ArrayList<EmailAddress>());
+            searchPage = searchPageRepository.save(searchPage);
+            Assert.assertNull(configurationCache.getPages());
+        } finally {
+            searchPage.setEmailAddresses(null);
+            searchPage = searchPageRepository.save(searchPage);
+            emailAddressRepository.delete(emailAddress);
+        }
+    }
+
+    /**
+     * @return number of recipients of the current page
+     */
+    private int readConfiguration() {
+        for (SearchPage page : searchRepoService.iterateSearchPages()) {
+            if (page.getId().equals(searchPage.getId())) {
+                return searchRepoService.loadEmailAddresses(page).size();
+            }
+        }
+        throw new AssertionError("Page not found");
+    }
+
+    @Test
+    public void testSaveInBatchesWithPooledIds() {
+        List<SearchResult> results = new ArrayList<SearchResult>();
+        for (int i = 0; i < 120; i++) {
+            SearchResult result = new SearchResult(searchPage);
+            result.setUrl("http://localhost/repo/bulk/" + i);
+            results.add(result);
+        }
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        long saved = searchResultRepository.count();
+        try {
+            searchRepoService.saveAllSearchResults(results);
+
+            Assert.assertEquals(120, statistics.getEntityInsertCount());
+            // 3 batches of inserts and 3 allocations of ids instead of a statement per row
+            Assert.assertTrue("Statements: " + statistics.getPrepareStatementCount(),
+                    statistics.getPrepareStatementCount() < 20);
+            Set<Long> ids = new HashSet<Long>();
+            for (SearchResult result : results) {
+                ids.add(result.getId());
+            }
+            Assert.assertEquals(120, ids.size());
+            Assert.assertEquals(saved + 120, searchResultRepository.count());
+        } finally {
+            searchResultRepository.delete(results);
+        }
+    }
+
+    @Test
+    public void testIdsAreSeededAboveSavedResults() {
+        String select = "select next_val from id_generator where sequence_name = ?";
+        String update = "update id_generator set next_val = ? where sequence_name = ?";
+        // ids of the block already allocated by the running application must not be given out again
+        Long allocated = jdbcTemplate.queryForObject(select, Long.class, SearchResult.ID_SEGMENT);
+        jdbcTemplate.update(update, 1, SearchResult.ID_SEGMENT);
+        try {
+            searchResultIdSeed.run();
+
+            Assert.assertEquals(searchResult.getId() + 1,
+                    jdbcTemplate.queryForObject(select, Long.class, SearchResult.ID_SEGMENT).longValue());
+        } finally {
+            jdbcTemplate.update(update, allocated, SearchResult.ID_SEGMENT);
+        }
+    }
+
+    @Test
+    public void testCreatedDateIsSetOnSave() {
+        Assert.assertNotNull(searchResultRepository.findOne(searchResult.getId()).getCreatedDate());
+
+        jdbcTemplate.update("update search_result set created_date = null where id = ?", searchResult.getId());
+        Assert.assertEquals(1, searchResultRetention.stampMissingCreatedDates());
+        Assert.assertNotNull(searchResultRepository.findOne(searchResult.getId()).getCreatedDate());
+    }
+
+    @Test
+    public void testOldResultsAreArchivedAndStillSeen() {
+        Date old = new Date(System.currentTimeMillis() - 100L * 24 * 60 * 60 * 1000);
+        List<SearchResult> results = new ArrayList<SearchResult>();
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            SearchResult result = new SearchResult(searchPage);
+            result.setUrl("http://localhost/repo/old/" + i);
+            result.setCreatedDate(old);
+            results.add(result);
+            urls.add(result.getUrl());
+        }
+        searchRepoService.saveAllSearchResults(results);
+        ReflectionTestUtils.setField(searchResultRetention, "batchSize", 2);
+        try {
+            Assert.assertEquals(5, searchResultRetention.archiveCreatedBefore(new Date(old.getTime() + 1000)));
+
+            for (SearchResult result : results) {
+                Assert.assertNull(searchResultRepository.findOne(result.getId()));
+                Assert.assertEquals(result.getUrl(), searchResultArchiveRepository.findOne(result.getId()).getUrl());
+            }
+            // the current result is kept
+            Assert.assertNotNull(searchResultRepository.findOne(searchResult.getId()));
+            Assert.assertEquals(new HashSet<String>(urls), searchRepoService.findExistingUrls(urls));
+        } finally {
+            ReflectionTestUtils.setField(searchResultRetention, "batchSize", 1000);
+            for (SearchResult result : results) {
+                if (searchResultArchiveRepository.exists(result.getId())) {
+                    searchResultArchiveRepository.delete(result.getId());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testChangeOfArchivedResultIsFound() {
+        Date old = new Date(System.currentTimeMillis() - 100L * 24 * 60 * 60 * 1000);
+        SearchResult listed = new SearchResult(searchPage);
+        listed.setUrl("http://localhost/repo/listed");
+        listed.setTitle("Flat 2+kk");
+        listed.setPrice("3 000 000 Kč");
+        listed.setCreatedDate(old);
+        searchRepoService.saveAllSearchResults(Collections.singletonList(listed));
+        try {
+            Assert.assertEquals(1, searchResultRetention.archiveCreatedBefore(new Date(old.getTime() + 1000)));
+
+            // the listing is still on the page, with a lower price
+            SearchResult scraped = new SearchResult(searchPage);
+            scraped.setUrl(listed.getUrl());
+            scraped.setTitle(listed.getTitle());
+            scraped.setPrice("2 800 000 Kč");
+            List<SearchResultChange> changes = searchRepoService.findChanges(Collections.singletonList(scraped));
+
+            Assert.assertEquals(1, changes.size());
+            Assert.assertEquals(listed.getId(), changes.get(0).getSearchResultId());
+            Assert.assertEquals(listed.getPrice(), changes.get(0).getOldPrice());
+            Assert.assertEquals(0, new BigDecimal("3000000").compareTo(changes.get(0).getOldPriceValue()));
+
+            searchRepoService.saveChanges(changes);
+            Assert.assertEquals(scraped.getPrice(), searchResultArchiveRepository.findOne(listed.getId()).getPrice());
+            Assert.assertTrue(searchRepoService.findChanges(Collections.singletonList(scraped)).isEmpty());
+        } finally {
+            searchResultChangeRepository.delete(searchResultChangeRepository.findBySearchResultIdOrderByIdAsc(listed
+                    .getId()));
+            if (searchResultArchiveRepository.exists(listed.getId())) {
+                searchResultArchiveRepository.delete(listed.getId());
+            }
+        }
+    }
+
+    @Test
+    public void testBackfillUrlHash() {
+        jdbcTemplate.update("update search_result set url_hash = null where id = ?", searchResult.getId());
+        Assert.assertTrue(searchRepoService.findByUrl(URL).isEmpty());
+
+        Assert.assertEquals(1, urlHashBackfill.run());
+
+        Assert.assertEquals(1, searchRepoService.findByUrl(URL).size());
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.pavelsklenar.service.impl;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.pavelsklenar.TestApplication;
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.domain.SearchResultChange;
+import com.pavelsklenar.repository.SearchPageRepository;
+import com.pavelsklenar.repository.SearchResultChangeRepository;
+import com.pavelsklenar.repository.SearchResultRepository;
+import com.pavelsklenar.service.SearchRepoService;
+import com.pavelsklenar.service.SearchResultProcessor;
+
+/**
+ * Test class for {@link SearchResultProcessorImpl}
+ *
+ * @author pavel.sklenar
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = TestApplication.class)
+public class SearchResultProcessorImplTest {
+
+    @Autowired
+    private SearchResultProcessor searchResultProcessor;
+
+    @Autowired
+    private SearchRepoService searchRepoService;
+
+    @Autowired
+    private SearchPageRepository searchPageRepository;
+
+    @Autowired
+    private SearchResultRepository searchResultRepository;
+
+    @Autowired
+    private SeenUrlIndex seenUrlIndex;
+
+    @Autowired
+    private SearchResultChangeRepository searchResultChangeRepository;
+
+    private SearchPage searchPage;
+
+    private List<SearchResult> saved = new ArrayList<SearchResult>();
+
+    @Before
+    public void setup() {
+        searchPage = new SearchPage("compare", "http://localhost:8089/compare.html");
+        searchPage.setXpathToListOfResults("//div");
+        searchPage = searchPageRepository.save(searchPage);
+    }
+
+    @After
+    public void cleanup() {
+        searchResultRepository.delete(saved);
+        searchPageRepository.delete(searchPage);
+    }
+
+    @Test
+    public void testProcessCompareReturnsOnlyNewResults() {
+        // waits for the loading started with the application
+        seenUrlIndex.load();
+        Assert.assertTrue(seenUrlIndex.isLoaded());
+        for (int i = 0; i < SearchRepoServiceImpl.URL_LOOKUP_BATCH_SIZE + 10; i++) {
+            saved.add(createSearchResult("http://localhost/compare/" + i));
+        }
+        searchRepoService.saveAllSearchResults(saved);
+
+        List<SearchResult> scraped = new ArrayList<SearchResult>();
+        for (int i = 0; i < SearchRepoServiceImpl.URL_LOOKUP_BATCH_SIZE + 10; i += 2) {
+            scraped.add(createSearchResult("http://localhost/compare/" + i));
+        }
+        scraped.add(createSearchResult("http://localhost/compare/new-1"));
+        scraped.add(createSearchResult("http://localhost/compare/new-2"));
+        scraped.add(createSearchResult("http://localhost/compare/new-1"));
+
+        List<SearchResult> processed = searchResultProcessor.processCompare(scraped);
+
+        Assert.assertEquals(2, processed.size());
+        Assert.assertEquals("http://localhost/compare/new-1", processed.get(0).getUrl());
+        Assert.assertEquals("http://localhost/compare/new-2", processed.get(1).getUrl());
+    }
+
+    @Test
+    public void testProcessCompareWithVerifiedHits() {
+        saved.add(createSearchResult("http://localhost/compare/verified"));
+        searchRepoService.saveAllSearchResults(saved);
+
+        seenUrlIndex.load();
+        // hits of the index are confirmed by DB by default
+        Assert.assertTrue(seenUrlIndex.isVerifyHits());
+        List<SearchResult> processed = searchResultProcessor.processCompare(Arrays.asList(
+                createSearchResult("http://localhost/compare/verified"),
+                createSearchResult("http://localhost/compare/unverified")));
+
+        Assert.assertEquals(1, processed.size());
+        Assert.assertEquals("http://localhost/compare/unverified", processed.get(0).getUrl());
+    }
+
+    @Test
+    public void testProcessChangesFindsChangedPrice() {
+        for (int i = 0; i < 3; i++) {
+            SearchResult searchResult = createSearchResult("http://localhost/compare/changed/" + i);
+            searchResult.setPrice("2 500 000 Kč");
+            searchResult.setDescription("Flat " + i);
+            saved.add(searchResult);
+        }
+        searchRepoService.saveAllSearchResults(saved);
+
+        List<SearchResult> scraped = new ArrayList<SearchResult>();
+        for (int i = 0; i < 3; i++) {
+            SearchResult searchResult = createSearchResult("http://localhost/compare/changed/" + i);
+            searchResult.setPrice(i == 1 ? "2 350 000 Kč" : "2 500 000 Kč");
+            // reformatting is not a change
+            searchResult.setDescription(" Flat  " + i);
+            scraped.add(searchResult);
+        }
+        scraped.add(createSearchResult("http://localhost/compare/changed/new"));
+        List<SearchResult> newSearchResults = searchResultProcessor.processCompare(scraped);
+        Assert.assertEquals(1, newSearchResults.size());
+
+        List<SearchResult> changed = searchResultProcessor.processChanges(scraped, newSearchResults);
+
+        Assert.assertEquals(1, changed.size());
+        SearchResultChange change = changed.get(0).getChange();
+        Assert.assertEquals(saved.get(1).getId(), change.getSearchResultId());
+        Assert.assertEquals("2 500 000 Kč", change.getOldPrice());
+        Assert.assertEquals(0, new BigDecimal("-150000").compareTo(change.getPriceDifference()));
+
+        searchRepoService.saveChanges(Arrays.asList(change));
+        try {
+            Assert.assertEquals(1, searchResultChangeRepository.findBySearchResultIdOrderByIdAsc(
+                    change.getSearchResultId()).size());
+            Assert.assertEquals("2 350 000 Kč", searchResultRepository.findOne(change.getSearchResultId()).getPrice());
+            Assert.assertTrue(searchResultProcessor.processChanges(scraped, newSearchResults).isEmpty());
+        } finally {
+            searchResultChangeRepository.delete(change);
+        }
+    }
+
+    @Test
+    public void testProcessCompareEmptyList() {
+        Assert.assertTrue(searchResultProcessor.processCompare(new ArrayList<SearchResult>()).isEmpty());
+    }
+
+    private SearchResult createSearchResult(String url) {
+        SearchResult searchResult = new SearchResult(searchPage);
+        searchResult.setUrl(url);
+        searchResult.setTitle(url);
+        return searchResult;
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.pavelsklenar.domain.UrlFingerprint;
+
+/**
+ * Test class for data structures of {@link SeenUrlIndex}
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class SeenUrlIndexStructuresTest {
+
+    @Test
+    public void testLongHashSet() {
+        LongHashSet set = new LongHashSet(4);
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+            Assert.assertTrue(set.add(values[i]));
+        }
+        Assert.assertTrue(set.add(0L));
+        Assert.assertFalse(set.add(0L));
+        Assert.assertFalse(set.add(values[0]));
+        Assert.assertEquals(values.length + 1, set.size());
+        for (long value : values) {
+            Assert.assertTrue(set.contains(value));
+        }
+        Assert.assertTrue(set.contains(0L));
+        Assert.assertFalse(set.contains(random.nextLong()));
+        Assert.assertEquals(set.size(), set.toArray().length);
+    }
+
+    @Test
+    public void testBloomFilterFalsePositiveRate() {
+        int insertions = 100000;
+        BloomFilter bloomFilter = new BloomFilter(insertions, 0.01);
+        for (int i = 0; i < insertions; i++) {
+            bloomFilter.put(UrlFingerprint.of("http://localhost/seen/" + i));
+        }
+        for (int i = 0; i < insertions; i++) {
+            Assert.assertTrue(bloomFilter.mightContain(UrlFingerprint.of("http://localhost/seen/" + i)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < insertions; i++) {
+            if (bloomFilter.mightContain(UrlFingerprint.of("http://localhost/unseen/" + i))) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("False positive rate too high: " + falsePositives,
+                falsePositives < insertions * 0.02);
+        Assert.assertEquals(0.01, bloomFilter.expectedFalsePositiveRate(insertions), 0.002);
+    }
+
+    @Test
+    public void testUrlFingerprintNormalization() {
+        Assert.assertEquals(UrlFingerprint.of("http://www.Example.ORG/Path?q=A"),
+                UrlFingerprint.of(" HTTP://www.example.org/Path?q=A "));
+        Assert.assertNotEquals(UrlFingerprint.of("http://www.example.org/Path"),
+                UrlFingerprint.of("http://www.example.org/path"));
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.pavelsklenar.service.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local SMTP server accepting every message, for tests and
+ * benchmarks of sending e-mails.<br />
+ * The greeting of every new connection can be delayed to stand for the TLS
+ * handshake and authentication of a real server.
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class SmtpStandIn implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+
+    private final long connectDelayMillis;
+
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final AtomicInteger messageCount = new AtomicInteger();
+
+    /**
+     * Start the server on a free port
+     *
+     * @param connectDelayMillis delay of the greeting of every new connection
+     */
+    public SmtpStandIn(long connectDelayMillis) throws IOException {
+        this.connectDelayMillis = connectDelayMillis;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "smtp-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public int getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * Close all open connections the way a server closes idle ones
+     */
+    public void dropConnections() {
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropConnections();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                connections.add(socket);
+                Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handle(socket);
+                        } catch (Exception e) {
+                            // connection closed
+                        } finally {
+                            connections.remove(socket);
+                            closeQuietly(socket);
+                        }
+                    }
+                }, "smtp-stand-in-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // server closed
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        OutputStream out = socket.getOutputStream();
+        if (connectDelayMillis > 0) {
+            Thread.sleep(connectDelayMillis);
+        }
+        reply(out, "220 localhost SMTP stand-in");
+        String line;
+        while ((line = in.readLine()) != null) {
+            String command = line.length() < 4 ? line : line.substring(0, 4).toUpperCase(Locale.ENGLISH);
+            if ("EHLO".equals(command) || "HELO".equals(command)) {
+                reply(out, "250 localhost");
+            } else if ("DATA".equals(command)) {
+                reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                while ((line = in.readLine()) != null && !".".equals(line)) {
+                    // message body is thrown away
+                }
+                messageCount.incrementAndGet();
+                reply(out, "250 OK");
+            } else if ("QUIT".equals(command)) {
+                reply(out, "221 Bye");
+                return;
+            } else {
+                // MAIL, RCPT, RSET, NOOP
+                reply(out, "250 OK");
+            }
+        }
+    }
+
+    private void reply(OutputStream out, String reply) throws IOException {
+        out.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+}
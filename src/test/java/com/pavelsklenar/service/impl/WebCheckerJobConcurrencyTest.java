@@ -0,0 +1,289 @@
+package com.pavelsklenar.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.pavelsklenar.domain.SearchPage;
+import com.pavelsklenar.domain.SearchResult;
+import com.pavelsklenar.service.EmailService;
+import com.pavelsklenar.service.ErrorSummary;
+import com.pavelsklenar.service.FetchedSearchPage;
+import com.pavelsklenar.service.SearchPageProcessor;
+import com.pavelsklenar.service.SearchRepoService;
+import com.pavelsklenar.service.SearchResultProcessor;
+
+/**
+ * Test of concurrent processing of search pages by {@link WebCheckerJobImpl}
+ * without the application context
+ *
+ * @author pavel.sklenar
+ *
+ */
+public class WebCheckerJobConcurrencyTest {
+
+    private final List<String> fetched = new CopyOnWriteArrayList<String>();
+
+    private final List<String> sent = new CopyOnWriteArrayList<String>();
+
+    private final List<Exception> errors = new CopyOnWriteArrayList<Exception>();
+
+    private final List<String> saved = new CopyOnWriteArrayList<String>();
+
+    private volatile boolean mailServerDown;
+
+    private HostDispatcher hostDispatcher;
+
+    private DedupStage dedupStage;
+
+    private NotifyStage notifyStage;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        hostDispatcher.shutdown();
+        dedupStage.shutdown();
+        notifyStage.shutdown();
+    }
+
+    @Test
+    public void testPagesAreProcessedConcurrently() throws Exception {
+        // every fetch waits until all three pages are being fetched at once
+        final CyclicBarrier allFetching = new CyclicBarrier(3);
+        WebCheckerJobImpl job = createJob(pages(3), 4, new Fetch() {
+            @Override
+            public void fetch(SearchPage searchPage) throws Exception {
+                allFetching.await(5, TimeUnit.SECONDS);
+            }
+        });
+
+        job.run();
+
+        Assert.assertEquals(3, fetched.size());
+        Assert.assertEquals(3, sent.size());
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void testFailingPageDoesNotCancelOthers() throws Exception {
+        WebCheckerJobImpl job = createJob(pages(3), 2, new Fetch() {
+            @Override
+            public void fetch(SearchPage searchPage) throws Exception {
+                if ("page1".equals(searchPage.getName())) {
+                    throw new IllegalStateException("Page cannot be parsed");
+                }
+            }
+        });
+
+        job.run();
+
+        Assert.assertEquals(3, fetched.size());
+        Assert.assertEquals(Arrays.asList("page0", "page2"), sorted(sent));
+        Assert.assertEquals(1, errors.size());
+    }
+
+    @Test
+    public void testInterruptCancelsRemainingPages() throws Exception {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // one worker, the other pages wait until the first one is finished
+        final WebCheckerJobImpl job = createJob(pages(3), 1, new Fetch() {
+            @Override
+            public void fetch(SearchPage searchPage) throws Exception {
+                firstStarted.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+        });
+        Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.run();
+                } catch (MessagingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        runner.start();
+        Assert.assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+
+        runner.interrupt();
+        runner.join(5000);
+        Assert.assertFalse("Interrupted run must return", runner.isAlive());
+        release.countDown();
+        Thread.sleep(200);
+
+        Assert.assertEquals(Collections.singletonList("page0"), fetched);
+    }
+
+    @Test
+    public void testResultsNotSentAreReportedByLaterCycle() throws Exception {
+        mailServerDown = true;
+        // every notification is given up after two attempts
+        QueueingEmailService emailService = new QueueingEmailService(new RecordingEmailService(), 10, 1, 2, 0, 1, 5);
+        try {
+            WebCheckerJobImpl job = createJob(pages(2), 2, new Fetch() {
+                @Override
+                public void fetch(SearchPage searchPage) {
+                }
+            }, emailService);
+
+            job.run();
+            Assert.assertTrue(sent.isEmpty());
+            Assert.assertTrue("Results must not be saved before they are sent", saved.isEmpty());
+
+            mailServerDown = false;
+            job.run();
+            Assert.assertEquals(Arrays.asList("page0", "page1"), sorted(sent));
+            Assert.assertEquals(2, saved.size());
+
+            job.run();
+            Assert.assertEquals(2, sent.size());
+        } finally {
+            emailService.shutdown();
+        }
+    }
+
+    private WebCheckerJobImpl createJob(List<SearchPage> pages, int workers, final Fetch fetch) {
+        return createJob(pages, workers, fetch, new RecordingEmailService());
+    }
+
+    @SuppressWarnings("unchecked")
+    private WebCheckerJobImpl createJob(List<SearchPage> pages, int workers, final Fetch fetch,
+            EmailService emailService) {
+        SearchRepoService searchRepoService = EasyMock.createNiceMock(SearchRepoService.class);
+        EasyMock.expect(searchRepoService.iterateSearchPages()).andReturn(pages).anyTimes();
+        searchRepoService.saveAllSearchResults(EasyMock.<List<SearchResult>> anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Void>() {
+            @Override
+            public Void answer() {
+                for (SearchResult searchResult : (List<SearchResult>) EasyMock.getCurrentArguments()[0]) {
+                    saved.add(searchResult.getUrl());
+                }
+                return null;
+            }
+        }).anyTimes();
+        EasyMock.replay(searchRepoService);
+        PipelineMetrics pipelineMetrics = new PipelineMetrics(0);
+        hostDispatcher = new HostDispatcher(workers, 1, 0, 1, 10, 5);
+        dedupStage = new DedupStage(pipelineMetrics, 1, 8, 5);
+        notifyStage = new NotifyStage(pipelineMetrics, 1, 8, 5);
+
+        WebCheckerJobImpl job = new WebCheckerJobImpl();
+        job.setEmailService(emailService);
+        ReflectionTestUtils.setField(job, "searchRepoService", searchRepoService);
+        ReflectionTestUtils.setField(job, "searchPageProcessor", new SearchPageProcessor() {
+            @Override
+            public List<SearchResult> processSearch(SearchPage searchPageToProcess) throws Exception {
+                return processSearchIfChanged(searchPageToProcess).getSearchResults();
+            }
+
+            @Override
+            public FetchedSearchPage processSearchIfChanged(SearchPage searchPageToProcess) throws Exception {
+                fetched.add(searchPageToProcess.getName());
+                fetch.fetch(searchPageToProcess);
+                SearchResult searchResult = new SearchResult(searchPageToProcess);
+                searchResult.setUrl(searchPageToProcess.getUrl() + "/result");
+                return FetchedSearchPage.changed(null, new ArrayList<SearchResult>(Arrays.asList(searchResult)));
+            }
+
+            @Override
+            public void confirmProcessed(SearchPage searchPage, FetchedSearchPage fetched) {
+            }
+        });
+        ReflectionTestUtils.setField(job, "searchResultProcessor", new SearchResultProcessor() {
+            @Override
+            public List<SearchResult> processCompare(List<SearchResult> resultsToCompare) {
+                List<SearchResult> newResults = new ArrayList<SearchResult>();
+                for (SearchResult searchResult : resultsToCompare) {
+                    if (!saved.contains(searchResult.getUrl())) {
+                        newResults.add(searchResult);
+                    }
+                }
+                return newResults;
+            }
+
+            @Override
+            public List<SearchResult> processChanges(List<SearchResult> resultsToCompare,
+                    List<SearchResult> newSearchResults) {
+                return new ArrayList<SearchResult>();
+            }
+        });
+        ReflectionTestUtils.setField(job, "hostDispatcher", hostDispatcher);
+        ReflectionTestUtils.setField(job, "dedupStage", dedupStage);
+        ReflectionTestUtils.setField(job, "notifyStage", notifyStage);
+        ReflectionTestUtils.setField(job, "digestCollector", new DigestCollector(emailService, false, 0));
+        ReflectionTestUtils.setField(job, "pageCircuitBreaker", new PageCircuitBreaker(true, 3, 600, 21600));
+        ReflectionTestUtils.setField(job, "errorNotifier", new ErrorNotifier(emailService, 60));
+        ReflectionTestUtils.setField(job, "pipelineMetrics", pipelineMetrics);
+        ReflectionTestUtils.setField(job, "pipelineEvents", new PipelineEvents(false, 60, 100, "target"));
+        ReflectionTestUtils.setField(job, "scheduling", "cron");
+        return job;
+    }
+
+    /**
+     * Pages of distinct hosts, so they are not held back by the politeness
+     * to one host
+     */
+    private List<SearchPage> pages(int count) {
+        List<SearchPage> pages = new ArrayList<SearchPage>();
+        for (int i = 0; i < count; i++) {
+            pages.add(new SearchPage("page" + i, "http://host" + i + ".example.org/search"));
+        }
+        return pages;
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> result = new ArrayList<String>(values);
+        Collections.sort(result);
+        return result;
+    }
+
+    private interface Fetch {
+
+        void fetch(SearchPage searchPage) throws Exception;
+    }
+
+    private class RecordingEmailService implements EmailService {
+
+        @Override
+        public void sendExcetionByEmail(Exception exception) {
+            errors.add(exception);
+        }
+
+        @Override
+        public void sendSearchResults(SearchPage searchPage, List<SearchResult> listToSend)
+                throws MessagingException {
+            if (mailServerDown) {
+                throw new MessagingException("Mail server is not available");
+            }
+            if (!listToSend.isEmpty()) {
+                sent.add(searchPage.getName());
+            }
+        }
+
+        @Override
+        public void sendDigest(String emailAddress, Map<SearchPage, List<SearchResult>> resultsByPage) {
+        }
+
+        @Override
+        public void sendErrorSummary(Collection<ErrorSummary> errors) {
+        }
+    }
+
+}